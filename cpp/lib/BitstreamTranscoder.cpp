@@ -0,0 +1,279 @@
+/*
+ * #%L
+ * Copyright (C) 2016 Glencoe Software, Inc. All rights reserved.
+ * %%
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * #%L
+ */
+#include "BitstreamTranscoder.hpp"
+
+#include <cstring>
+#include <sstream>
+#include <string>
+
+#include "FormatError.hpp"
+
+namespace jxrlib {
+
+  namespace {
+
+  // Pixel formats with straight alpha and the same formats without it,
+  // written once the planar alpha channel has been dropped.  Colors
+  // premultiplied by alpha are meaningless without it, so those formats
+  // are not listed.
+  const struct {
+    const GUID *alpha;
+    const GUID *opaque;
+  } OPAQUE_PIXEL_FORMATS[] = {
+    { &GUID_PKPixelFormat32bppBGRA, &GUID_PKPixelFormat32bppBGR },
+    { &GUID_PKPixelFormat32bppRGBA, &GUID_PKPixelFormat32bppRGB },
+    { &GUID_PKPixelFormat64bppRGBA, &GUID_PKPixelFormat48bppRGB },
+    { &GUID_PKPixelFormat64bppRGBAFixedPoint,
+      &GUID_PKPixelFormat64bppRGBFixedPoint },
+    { &GUID_PKPixelFormat64bppRGBAHalf, &GUID_PKPixelFormat64bppRGBHalf },
+    { &GUID_PKPixelFormat128bppRGBAFixedPoint,
+      &GUID_PKPixelFormat128bppRGBFixedPoint },
+    { &GUID_PKPixelFormat128bppRGBAFloat, &GUID_PKPixelFormat128bppRGBFloat },
+    { &GUID_PKPixelFormat40bppCMYKAlpha, &GUID_PKPixelFormat32bppCMYK },
+    { &GUID_PKPixelFormat80bppCMYKAlpha, &GUID_PKPixelFormat64bppCMYK },
+    { &GUID_PKPixelFormat32bpp3ChannelsAlpha,
+      &GUID_PKPixelFormat24bpp3Channels },
+    { &GUID_PKPixelFormat40bpp4ChannelsAlpha,
+      &GUID_PKPixelFormat32bpp4Channels },
+    { &GUID_PKPixelFormat48bpp5ChannelsAlpha,
+      &GUID_PKPixelFormat40bpp5Channels },
+    { &GUID_PKPixelFormat56bpp6ChannelsAlpha,
+      &GUID_PKPixelFormat48bpp6Channels },
+    { &GUID_PKPixelFormat64bpp7ChannelsAlpha,
+      &GUID_PKPixelFormat56bpp7Channels },
+    { &GUID_PKPixelFormat72bpp8ChannelsAlpha,
+      &GUID_PKPixelFormat64bpp8Channels },
+    { &GUID_PKPixelFormat64bpp3ChannelsAlpha,
+      &GUID_PKPixelFormat48bpp3Channels },
+    { &GUID_PKPixelFormat80bpp4ChannelsAlpha,
+      &GUID_PKPixelFormat64bpp4Channels },
+    { &GUID_PKPixelFormat96bpp5ChannelsAlpha,
+      &GUID_PKPixelFormat80bpp5Channels },
+    { &GUID_PKPixelFormat112bpp6ChannelsAlpha,
+      &GUID_PKPixelFormat96bpp6Channels },
+    { &GUID_PKPixelFormat128bpp7ChannelsAlpha,
+      &GUID_PKPixelFormat112bpp7Channels },
+    { &GUID_PKPixelFormat144bpp8ChannelsAlpha,
+      &GUID_PKPixelFormat128bpp8Channels }
+  };
+
+  // Pixel format without alpha matching the given one, or DontCare if
+  // there is none
+  GUID getOpaquePixelFormat(const GUID &pixelFormat) {
+    size_t count =
+      sizeof(OPAQUE_PIXEL_FORMATS) / sizeof(OPAQUE_PIXEL_FORMATS[0]);
+    for (size_t i = 0; i < count; i++) {
+      if (IsEqualGUID(pixelFormat, *OPAQUE_PIXEL_FORMATS[i].alpha)) {
+        return *OPAQUE_PIXEL_FORMATS[i].opaque;
+      }
+    }
+    return GUID_PKPixelFormatDontCare;
+  }
+
+  } // namespace
+
+  BitstreamTranscoder::BitstreamTranscoder()
+    : err(WMP_errSuccess), regionX(0), regionY(0),
+      regionWidth(0), regionHeight(0), orientation(O_NONE),
+      subband(SB_ALL), dropAlpha(false) {}
+
+  void BitstreamTranscoder::setRegion(size_t x, size_t y,
+                                      size_t width, size_t height) {
+    // the image size is only known once transcoding
+    if (width == 0 || height == 0) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid region: " << x << ", " << y << ", "
+          << width << "x" << height;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+    regionX = x;
+    regionY = y;
+    regionWidth = width;
+    regionHeight = height;
+  }
+
+  void BitstreamTranscoder::clearRegion() {
+    regionX = regionY = regionWidth = regionHeight = 0;
+  }
+
+  void BitstreamTranscoder::setOrientation(unsigned int orientation) {
+    if (orientation >= O_MAX) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid orientation: " << orientation;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+    this->orientation = orientation;
+  }
+
+  void BitstreamTranscoder::setSubband(unsigned int subband) {
+    // isolated subbands cannot be decoded
+    if (subband >= SB_ISOLATED) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid subband: " << subband;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+    this->subband = subband;
+  }
+
+  void BitstreamTranscoder::setDropAlpha(bool dropAlpha) {
+    this->dropAlpha = dropAlpha;
+  }
+
+  size_t BitstreamTranscoder::transcode(ImageDecoder &decoder,
+                                        MemoryOutput &memoryOutput) {
+    PKImageDecode *pDecoder = decoder.pDecoder;
+    PKImageEncode *pEncoder = NULL;
+    struct WMPStream *pInput = NULL;
+    CWMImageInfo imageInfo;
+    CWMIStrCodecParam codecParam;
+    CWMTranscodingParam transcodingParam;
+    GUID decoderPixelFormat = pDecoder->guidPixFormat;
+    GUID pixelFormat = decoderPixelFormat;
+    PKPixelInfo pixelInfo;
+    size_t x = regionX, y = regionY;
+    size_t width = regionWidth, height = regionHeight;
+
+    memset(&imageInfo, 0, sizeof(imageInfo));
+    memset(&codecParam, 0, sizeof(codecParam));
+    memset(&transcodingParam, 0, sizeof(transcodingParam));
+    decoder.resetDecodeState();
+    Stream stream(&memoryOutput);
+    struct WMPStream *pOutput = stream.pStream;
+
+    // the decoder's settings describe how it decodes rather than the
+    // bitstream, so the image header is read again
+    Call(pDecoder->GetRawStream(pDecoder, &pInput));
+    codecParam.pWStream = pInput;
+    FailIf(ImageStrDecGetInfo(&imageInfo, &codecParam) != ICERR_OK,
+           WMP_errFail);
+    if (width == 0 || height == 0) {
+      x = y = 0;
+      width = imageInfo.cWidth;
+      height = imageInfo.cHeight;
+    }
+    FailIf(x + width > imageInfo.cWidth || y + height > imageInfo.cHeight,
+           WMP_errInvalidArgument);
+    // 4:2:2 chroma cannot be rotated in the compressed domain, and the
+    // codec would silently leave the image unrotated
+    FailIf(orientation >= O_RCW && codecParam.cfColorFormat == YUV_422,
+           WMP_errNotYetImplemented);
+
+    // planar alpha is held in a separate bitstream that is either
+    // transcoded in the same way or left out; interleaved alpha is a
+    // channel of the image and cannot be dropped
+    pixelInfo.pGUIDPixFmt = &decoderPixelFormat;
+    Call(PixelFormatLookup(&pixelInfo, LOOKUP_FORWARD));
+    if (pixelInfo.grBit & PK_pixfmtHasAlpha) {
+      if (!pDecoder->WMP.bHasAlpha) {
+        FailIf(dropAlpha, WMP_errAlphaModeCannotBeTranscoded);
+        transcodingParam.uAlphaMode = 3;
+      } else if (dropAlpha) {
+        pixelFormat = getOpaquePixelFormat(decoderPixelFormat);
+        FailIf(IsEqualGUID(pixelFormat, GUID_PKPixelFormatDontCare),
+               WMP_errAlphaModeCannotBeTranscoded);
+      } else {
+        transcodingParam.uAlphaMode = 2;
+      }
+    }
+
+    transcodingParam.cLeftX = x;
+    transcodingParam.cTopY = y;
+    transcodingParam.cWidth = width;
+    transcodingParam.cHeight = height;
+    transcodingParam.bfBitstreamFormat = codecParam.bfBitstreamFormat;
+    transcodingParam.sbSubband = (SUBBAND)subband;
+    transcodingParam.oOrientation = (ORIENTATION)orientation;
+    transcodingParam.bIgnoreOverlap = FALSE;
+
+    // the container records whether the alpha plane is written from the
+    // encoder's settings
+    memset(&codecParam, 0, sizeof(codecParam));
+    codecParam.uAlphaMode = transcodingParam.uAlphaMode;
+    Call(PKCodecFactory_CreateCodec(&IID_PKImageWmpEncode,
+                                    (void **)&pEncoder));
+    // the encoder closes the stream when released
+    Call(pEncoder->Initialize(
+        pEncoder, pOutput, &codecParam, sizeof(codecParam)));
+    pOutput = NULL;
+    pEncoder->WMP.wmiSCP.bBlackWhite = decoder.getBlackWhite();
+
+    // the encoder writes the pixel format of the decoder
+    pDecoder->guidPixFormat = pixelFormat;
+    err = pEncoder->Transcode(pEncoder, pDecoder, &transcodingParam);
+    pDecoder->guidPixFormat = decoderPixelFormat;
+    Call(err);
+    pEncoder->Release(&pEncoder);
+    decoder.checkSource();
+    FailIf(memoryOutput.overflow, WMP_errBufferOverflow);
+    return memoryOutput.size;
+
+  Cleanup:
+    output.clear();
+    if (pEncoder != NULL) {
+      pEncoder->Release(&pEncoder);
+    } else if (pOutput != NULL) {
+      pOutput->Close(&pOutput);
+    }
+    decoder.checkSource();
+    std::stringstream msg;
+    if (err == WMP_errBufferOverflow) {
+      msg << "ERROR: Output buffer too small";
+    } else if (err == WMP_errInvalidArgument) {
+      msg << "ERROR: Invalid region: " << x << ", " << y << ", "
+          << width << "x" << height;
+    } else if (err == WMP_errAlphaModeCannotBeTranscoded) {
+      msg << "ERROR: Alpha channel cannot be dropped";
+    } else if (err == WMP_errNotYetImplemented) {
+      msg << "ERROR: 4:2:2 images cannot be rotated";
+    } else {
+      msg << "ERROR: Unable to transcode image: " << err;
+    }
+    std::string errMsg = msg.str();
+    throw FormatError(errMsg);
+  }
+
+  size_t BitstreamTranscoder::transcode(ImageDecoder &decoder) {
+    MemoryOutput memoryOutput = { &output, NULL, 0, 0, 0, false };
+    output.clear();
+    return transcode(decoder, memoryOutput);
+  }
+
+  size_t BitstreamTranscoder::transcode(ImageDecoder &decoder,
+                                        unsigned char *destination,
+                                        size_t capacity) {
+    MemoryOutput memoryOutput = { NULL, destination, capacity, 0, 0, false };
+    output.clear();
+    return transcode(decoder, memoryOutput);
+  }
+
+  size_t BitstreamTranscoder::getTranscodedSize() {
+    return output.size();
+  }
+
+  void BitstreamTranscoder::getTranscodedBytes(unsigned char *destination) {
+    if (!output.empty()) {
+      memcpy(destination, &output[0], output.size());
+    }
+  }
+
+} // namespace jxrlib
@@ -0,0 +1,68 @@
+/*
+ * #%L
+ * Copyright (C) 2016 Glencoe Software, Inc. All rights reserved.
+ * %%
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * #%L
+ */
+#pragma once
+
+#include <vector>
+
+#include "ImageDecoder.hpp"
+#include "JXRGlue.h"
+#include "Stream.hpp"
+#include "windowsmediaphoto.h"
+
+namespace jxrlib {
+
+  // Transcodes the selected frame of a decoder to a new JPEG-XR bitstream
+  // in the compressed domain, without decoding to pixels and encoding
+  // again.  The image may be cropped, flipped or rotated by right angles,
+  // reduced to fewer subbands and stripped of its planar alpha channel.
+  // Orientation is applied to the transform coefficients, so flipped or
+  // rotated images decode within rounding of the reoriented pixels.
+  class BitstreamTranscoder {
+    ERR err;
+    // region of the image to keep; zero width or height means the whole
+    // image.  Cropping is cheapest on macroblock or tile boundaries.
+    size_t regionX, regionY, regionWidth, regionHeight;
+    // one of ORIENTATION, applied to the region
+    unsigned int orientation;
+    // one of SUBBAND before SB_ISOLATED; subbands already dropped from
+    // the input stay dropped
+    unsigned int subband;
+    bool dropAlpha;
+    // bitstream written by the last transcode() into the internal buffer
+    std::vector<unsigned char> output;
+
+    size_t transcode(ImageDecoder &decoder, MemoryOutput &memoryOutput);
+  public:
+    BitstreamTranscoder();
+
+    void setRegion(size_t x, size_t y, size_t width, size_t height);
+    void clearRegion();
+    void setOrientation(unsigned int orientation);
+    void setSubband(unsigned int subband);
+    void setDropAlpha(bool dropAlpha);
+
+    size_t transcode(ImageDecoder &decoder);
+    size_t transcode(ImageDecoder &decoder,
+                     unsigned char *destination, size_t capacity);
+    size_t getTranscodedSize();
+    void getTranscodedBytes(unsigned char *destination);
+  };
+
+} // namespace jxrlib
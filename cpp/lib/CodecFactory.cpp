@@ -55,8 +55,17 @@ namespace jxrlib {
   }
 
   void CodecFactory::decoderFromFile(ImageDecoder &decoder, std::string inputFile) {
-    Call(pCodecFactory->CreateDecoderFromFile(inputFile.c_str(), &decoder.pDecoder));
-    decoder.initialize();
+    double start = ImageDecoder::getMonotonicTime();
+    if (!decoder.pDecoder) {
+      Call(pCodecFactory->CreateDecoderFromFile(inputFile.c_str(), &decoder.pDecoder));
+      decoder.initialize();
+    } else {
+      // a decoder may be reused for new data
+      Stream fileStream;
+      Call(CreateWS_File(&fileStream.pStream, inputFile.c_str(), "rb"));
+      decoder.initialize(fileStream);
+    }
+    decoder.headerTime = ImageDecoder::getMonotonicTime() - start;
     return;
   Cleanup:
     std::string msg = "ERROR: Unable to create decoder from file: " + inputFile;
@@ -68,14 +77,19 @@ namespace jxrlib {
     std::string ext = ".jxr";
     const PKIID *pIID = NULL;
 
+    Stream fileStream;
     struct WMPStream* pStream = NULL;
+    double start = ImageDecoder::getMonotonicTime();
 
-    // fake the "jxr" file extension to create the decoder
-    Call(GetImageDecodeIID(ext.c_str(), &pIID));
-    Call(PKCodecFactory_CreateCodec(pIID, (void**)&decoder.pDecoder));
+    // a decoder may be reused for new data
+    if (!decoder.pDecoder) {
+      // fake the "jxr" file extension to create the decoder
+      Call(GetImageDecodeIID(ext.c_str(), &pIID));
+      Call(PKCodecFactory_CreateCodec(pIID, (void**)&decoder.pDecoder));
 #ifdef DEBUG
-    printf("Made decoder...");
+      printf("Made decoder...");
 #endif
+    }
 
     // manually create the stream from the file and advance to offset
     Call(CreateWS_File(&pStream, inputFile.c_str(), "rb"));
@@ -89,13 +103,13 @@ namespace jxrlib {
 #endif
 
     // initialize the decoder with the prepared stream
-    Call(decoder.pDecoder->Initialize(decoder.pDecoder, pStream));
+    fileStream.pStream = pStream;
+    decoder.initialize(fileStream);
 #ifdef DEBUG
     printf("Initialized with the stream...");
     std::fseek(pStream->state.file.pFile, -3, SEEK_CUR);
 #endif
-    decoder.pDecoder->fStreamOwner = !0;
-    decoder.initialize();
+    decoder.headerTime = ImageDecoder::getMonotonicTime() - start;
 
     return;
   Cleanup:
@@ -120,21 +134,47 @@ namespace jxrlib {
                                       unsigned char *bytes,
                                       size_t offset,
                                       size_t length) {
+    double start = ImageDecoder::getMonotonicTime();
     Stream dataStream(bytes + offset, length);
     const PKIID *pIID = NULL;
 
-    Call(GetImageDecodeIID((const char *)".jxr", &pIID));
-    Call(PKCodecFactory_CreateCodec(pIID, (void**)&decoder.pDecoder));
+    // a decoder may be reused for new data
+    if (!decoder.pDecoder) {
+      Call(GetImageDecodeIID((const char *)".jxr", &pIID));
+      Call(PKCodecFactory_CreateCodec(pIID, (void**)&decoder.pDecoder));
+    }
     decoder.initialize(dataStream);
+    decoder.headerTime = ImageDecoder::getMonotonicTime() - start;
     return;
   Cleanup:
     throw FormatError("ERROR: Unable to create decoder from bytes in memory");
   }
 
+  void CodecFactory::decoderFromSource(ImageDecoder &decoder,
+                                       InputSource *source,
+                                       size_t windowSize) {
+    double start = ImageDecoder::getMonotonicTime();
+    Stream dataStream(source, windowSize);
+    const PKIID *pIID = NULL;
+
+    // a decoder may be reused for new data
+    if (!decoder.pDecoder) {
+      Call(GetImageDecodeIID((const char *)".jxr", &pIID));
+      Call(PKCodecFactory_CreateCodec(pIID, (void**)&decoder.pDecoder));
+    }
+    decoder.initialize(dataStream);
+    decoder.headerTime = ImageDecoder::getMonotonicTime() - start;
+    return;
+  Cleanup:
+    dataStream.pStream->Close(&dataStream.pStream);
+    throw FormatError("ERROR: Unable to create decoder from source");
+  }
+
   FormatConverter CodecFactory::createFormatConverter(ImageDecoder &imageDecoder,
                                         std::string extension) {
     FormatConverter converter;
 
+    imageDecoder.resetDecodeState();
     Call(pCodecFactory->CreateFormatConverter(&converter.pConverter));
     Call(converter.pConverter->Initialize(converter.pConverter,
                                           imageDecoder.pDecoder,
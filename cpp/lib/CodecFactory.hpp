@@ -24,6 +24,7 @@
 
 #include "FormatConverter.hpp"
 #include "ImageDecoder.hpp"
+#include "InputSource.hpp"
 
 #include "JXRGlue.h"
 
@@ -50,6 +51,9 @@ namespace jxrlib {
                           unsigned char *bytes,
                           size_t offset,
                           size_t length);
+    void decoderFromSource(ImageDecoder &decoder,
+                           InputSource *source,
+                           size_t windowSize);
     FormatConverter createFormatConverter(ImageDecoder &decoder,
                                           std::string extension);
   };
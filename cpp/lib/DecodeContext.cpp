@@ -22,8 +22,122 @@
 #include "DecodeContext.hpp"
 #include "ImageDecoder.hpp"
 
+#include <algorithm>
+#include <vector>
+
+#ifdef _WIN32
+#ifndef NOMINMAX
+#define NOMINMAX
+#endif
+#include <windows.h>
+#include <process.h>
+#else
+#include <pthread.h>
+#endif
+
 namespace jxrlib {
 
+  namespace {
+
+    /*
+     * Share of a batch decoded by one thread: tiles first, first + step,
+     * first + 2 * step and so on.
+     */
+    struct BatchWork {
+      const unsigned char *source;
+      size_t sourceSize;
+      const int *offsets;
+      const int *lengths;
+      unsigned char *destination;
+      size_t destinationSize;
+      const int *destinationOffsets;
+      size_t count;
+      size_t first;
+      size_t step;
+      int *status;
+    };
+
+    int decodeTile(const BatchWork &work, size_t tile,
+                   CodecFactory &codecFactory, ImageDecoder &decoder) {
+      int offset = work.offsets[tile];
+      int length = work.lengths[tile];
+      int destinationOffset = work.destinationOffsets[tile];
+      if (offset < 0 || length <= 0 || (size_t) offset > work.sourceSize
+          || (size_t) length > work.sourceSize - offset) {
+        return BATCH_INVALID_RANGE;
+      }
+      try {
+        codecFactory.decoderFromBytes(
+          decoder, (unsigned char *) work.source, offset, length);
+        size_t size = decoder.getWidth() * decoder.getHeight()
+          * decoder.getBytesPerPixel();
+        if (destinationOffset < 0
+            || (size_t) destinationOffset > work.destinationSize
+            || size > work.destinationSize - destinationOffset) {
+          return BATCH_DESTINATION_TOO_SMALL;
+        }
+        decoder.getRawBytes(work.destination + destinationOffset);
+        return BATCH_DECODED;
+      } catch (...) {
+        return BATCH_DECODE_FAILED;
+      }
+    }
+
+    void decodeTiles(BatchWork &work) {
+      size_t tile = work.first;
+      try {
+        // the decoder is reinitialized for every tile, keeping the
+        // codec's working memory
+        CodecFactory codecFactory;
+        ImageDecoder decoder;
+        for (; tile < work.count; tile += work.step) {
+          work.status[tile] = decodeTile(work, tile, codecFactory, decoder);
+        }
+      } catch (...) {
+        // the codec factory could not be created
+        for (; tile < work.count; tile += work.step) {
+          work.status[tile] = BATCH_DECODE_FAILED;
+        }
+      }
+    }
+
+#ifdef _WIN32
+    typedef HANDLE Thread;
+
+    unsigned __stdcall runDecodeTiles(void *work) {
+      decodeTiles(*(BatchWork *) work);
+      return 0;
+    }
+
+    bool startThread(Thread &thread, BatchWork &work) {
+      thread = (HANDLE) _beginthreadex(
+        NULL, 0, runDecodeTiles, &work, 0, NULL);
+      return thread != 0;
+    }
+
+    void joinThread(Thread &thread) {
+      WaitForSingleObject(thread, INFINITE);
+      CloseHandle(thread);
+    }
+#else
+    typedef pthread_t Thread;
+
+    void *runDecodeTiles(void *work) {
+      decodeTiles(*(BatchWork *) work);
+      return NULL;
+    }
+
+    bool startThread(Thread &thread, BatchWork &work) {
+      return pthread_create(&thread, NULL, runDecodeTiles, &work) == 0;
+    }
+
+    void joinThread(Thread &thread) {
+      pthread_join(thread, NULL);
+    }
+#endif
+
+  } // namespace
+
   signed char* DecodeContext::decodeFirstFrame(char *source,
                                                size_t offset,
                                                size_t length,
@@ -41,4 +155,63 @@ namespace jxrlib {
     return destination;
   }
 
+  size_t DecodeContext::decodeInto(char *source,
+                                   size_t offset,
+                                   size_t length,
+                                   char *destination,
+                                   size_t capacity) {
+    ImageDecoder decoder;
+    CodecFactory codecFactory;
+    codecFactory.decoderFromBytes(
+      decoder, (unsigned char *)source, offset, length);
+
+    size_t size =
+      decoder.getWidth() * decoder.getHeight() * decoder.getBytesPerPixel();
+    // Only report the size if the first frame does not fit
+    if (destination != NULL && size <= capacity) {
+      decoder.selectFrame(0);
+      decoder.getRawBytes((unsigned char *)destination);
+    }
+    return size;
+  }
+
+  void DecodeContext::decodeBatch(const unsigned char *source,
+                                  size_t sourceSize,
+                                  const int *offsets,
+                                  const int *lengths,
+                                  unsigned char *destination,
+                                  size_t destinationSize,
+                                  const int *destinationOffsets,
+                                  size_t count,
+                                  size_t threads,
+                                  int *status) {
+    if (count == 0) {
+      return;
+    }
+    threads = std::max((size_t) 1, std::min(threads, count));
+    BatchWork batch = {source, sourceSize, offsets, lengths, destination,
+                       destinationSize, destinationOffsets, count, 0,
+                       threads, status};
+    std::vector<BatchWork> work(threads, batch);
+    std::vector<Thread> started(threads);
+    std::vector<bool> running(threads, false);
+    for (size_t t = 0; t < threads; t++) {
+      work[t].first = t;
+    }
+
+    // the calling thread decodes the first share, and any share whose
+    // thread could not be started
+    for (size_t t = 1; t < threads; t++) {
+      running[t] = startThread(started[t], work[t]);
+    }
+    decodeTiles(work[0]);
+    for (size_t t = 1; t < threads; t++) {
+      if (running[t]) {
+        joinThread(started[t]);
+      } else {
+        decodeTiles(work[t]);
+      }
+    }
+  }
+
 } // namespace jxrlib
@@ -19,14 +19,45 @@
  */
 #pragma once
 
+#include <cstddef>
+
 namespace jxrlib {
 
+  /*
+   * Outcome of decoding one tile of a batch, as reported to Java by
+   * ome.jxrlib.TileStatus.
+   */
+  enum BatchStatus {
+    BATCH_DECODED = 0,
+    // the tile's data is not within the source buffer
+    BATCH_INVALID_RANGE = 1,
+    // the tile's data could not be decoded
+    BATCH_DECODE_FAILED = 2,
+    // the decoded tile does not fit in the destination buffer
+    BATCH_DESTINATION_TOO_SMALL = 3
+  };
+
   class DecodeContext {
   public:
     signed char* decodeFirstFrame(char *source,
                                   size_t offset,
                                   size_t length,
                                   size_t *size);
+    size_t decodeInto(char *source,
+                      size_t offset,
+                      size_t length,
+                      char *destination,
+                      size_t capacity);
+    void decodeBatch(const unsigned char *source,
+                     size_t sourceSize,
+                     const int *offsets,
+                     const int *lengths,
+                     unsigned char *destination,
+                     size_t destinationSize,
+                     const int *destinationOffsets,
+                     size_t count,
+                     size_t threads,
+                     int *status);
   };
 
 } // namespace jxrlib
@@ -20,26 +20,78 @@
 
 #include "ImageDecoder.hpp"
 
+#include <algorithm>
+#include <climits>
+#include <cstring>
 #include <fstream>
 #include <iostream>
 #include <sstream>
 #include <string>
 
+#ifdef _WIN32
+#ifndef NOMINMAX
+#define NOMINMAX
+#endif
+#include <windows.h>
+#elif defined(__APPLE__)
+#include <mach/mach_time.h>
+#else
+#include <time.h>
+#endif
+
 #include "windowsmediaphoto.h"
 #include "guiddef.h"
 #include "FormatError.hpp"
 #include "JXRGlue.h"
+#include "OutputConverter.hpp"
 #include "Stream.hpp"
 
 namespace jxrlib {
 
+  namespace {
+
+    // clock for the codec's stage time hooks
+    Double stageTime(Void) {
+      return ImageDecoder::getMonotonicTime();
+    }
+
+  } // namespace
+
   ImageDecoder::~ImageDecoder() {
 #ifdef DEBUG
     std::cerr << "ImageDecoder " << this << " destructor!" << std::endl;
 #endif
+    release();
+    ImageStrDecFreeBuffers(&buffers);
+  }
+
+  void ImageDecoder::release() {
     if (pDecoder) {
+      terminateDecode();
       pDecoder->Release(&pDecoder);
+      pDecoder = NULL;
     }
+    reset();
+  }
+
+  void ImageDecoder::reset() {
+    regionX = regionY = regionWidth = regionHeight = 0;
+    scale = 1;
+    quality = SB_ALL;
+    stripTop = decodedLines = bufferedStart = bufferedLines = 0;
+    alphaOnly = false;
+    frameOffsets.clear();
+    frame = 0;
+    headerTime = 0;
+  }
+
+  void ImageDecoder::terminateDecode() {
+    // release the codec state of any decode that did not run to
+    // completion; completed decodes have already released theirs
+    ImageStrDecTerm(pDecoder->WMP.ctxSC);
+    pDecoder->WMP.ctxSC = NULL;
+    ImageStrDecTerm(pDecoder->WMP.ctxSC_Alpha);
+    pDecoder->WMP.ctxSC_Alpha = NULL;
   }
 
   void ImageDecoder::initialize() {
@@ -76,17 +128,9 @@ namespace jxrlib {
     pDecoder->WMP.wmiI.bdBitDepth = pixelInfo.bdBitDepth;
     pDecoder->WMP.wmiI.cBitsPerUnit = pixelInfo.cbitUnit;
 
-    // skip thumbnails
-    pDecoder->WMP.wmiI.cThumbnailWidth = pDecoder->WMP.wmiI.cWidth;
-    pDecoder->WMP.wmiI.cThumbnailHeight = pDecoder->WMP.wmiI.cHeight;
+    // thumbnail size is set from the requested scale
     pDecoder->WMP.wmiI.bSkipFlexbits = FALSE;
 
-    // no region decoding
-    pDecoder->WMP.wmiI.cROILeftX = 0;
-    pDecoder->WMP.wmiI.cROITopY = 0;
-    pDecoder->WMP.wmiI.cROIWidth = pDecoder->WMP.wmiI.cWidth;
-    pDecoder->WMP.wmiI.cROIHeight = pDecoder->WMP.wmiI.cHeight;
-
     // other default values
     pDecoder->WMP.wmiSCP.bfBitstreamFormat = SPATIAL;
     pDecoder->WMP.wmiSCP.sbSubband = SB_ALL;
@@ -95,6 +139,14 @@ namespace jxrlib {
     pDecoder->WMP.wmiI.cPostProcStrength = 0;
     pDecoder->WMP.wmiSCP.bVerbose = FALSE;
 
+    imageInfo = pDecoder->WMP.wmiI;
+    codecParam = pDecoder->WMP.wmiSCP;
+    codecParam.pBuffers = &buffers;
+
+    // downscaling and region decoding, if requested
+    applyDecodeParameters();
+    pDecoder->WMP.wmiI = imageInfo;
+
     // finished initializing
     return;
 
@@ -102,34 +154,194 @@ namespace jxrlib {
     throw FormatError("ERROR: Unable to initialize decoder.");
   }
 
+  void ImageDecoder::applyDecodeParameters() {
+    // thumbnail size; the codec derives its downscale factor from this
+    imageInfo.cThumbnailWidth = (imageInfo.cWidth + scale - 1) / scale;
+    imageInfo.cThumbnailHeight = (imageInfo.cHeight + scale - 1) / scale;
+    imageInfo.cfColorFormat = pixelInfo.cfColorFormat;
+    if (scale > 1 && (imageInfo.cfColorFormat == YUV_420
+                      || imageInfo.cfColorFormat == YUV_422)) {
+      // unsupported thumbnail format
+      imageInfo.cfColorFormat = YUV_444;
+    }
+    // subbands above the requested quality are skipped where the
+    // bitstream allows
+    imageInfo.sbSubband = (SUBBAND)quality;
+
+    // region coordinates are relative to the downscaled image
+    if (regionWidth == 0 || regionHeight == 0) {
+      // no region decoding
+      imageInfo.cROILeftX = 0;
+      imageInfo.cROITopY = 0;
+      imageInfo.cROIWidth = imageInfo.cThumbnailWidth;
+      imageInfo.cROIHeight = imageInfo.cThumbnailHeight;
+    } else {
+      imageInfo.cROILeftX = regionX;
+      imageInfo.cROITopY = regionY;
+      imageInfo.cROIWidth = regionWidth;
+      imageInfo.cROIHeight = regionHeight;
+    }
+  }
+
+  void ImageDecoder::resetDecodeState() {
+    ERR err = WMP_errSuccess;
+    terminateDecode();
+
+    pDecoder->WMP.DecoderCurrMBRow = 0;
+    pDecoder->WMP.DecoderCurrAlphaMBRow = 0;
+    pDecoder->WMP.cLinesDecoded = 0;
+    pDecoder->WMP.cLinesCropped = 0;
+    pDecoder->WMP.fFirstNonZeroDecode = FALSE;
+    stripTop = decodedLines = bufferedStart = bufferedLines = 0;
+    alphaOnly = false;
+
+    pDecoder->WMP.wmiI = imageInfo;
+    pDecoder->WMP.wmiSCP = codecParam;
+    // the alpha plane's settings are copied from these when it is
+    // decoded
+    pDecoder->WMP.wmiSCP.pStageTimes = measureStages ? &stageTimes : NULL;
+    Call(pDecoder->pStream->SetPos(
+      pDecoder->pStream, pDecoder->WMP.wmiDEMisc.uImageOffset));
+    return;
+  Cleanup:
+    std::stringstream msg;
+    msg << "ERROR: Unable to reset decoder: " << err;
+    std::string errMsg = msg.str();
+    throw FormatError(errMsg);
+  }
+
   void ImageDecoder::initialize(Stream &data) {
     ERR err = WMP_errSuccess;
-    Call(pDecoder->Initialize(pDecoder, data.pStream));
+    if (pDecoder->pStream) {
+      // reinitialize a decoder previously used for other data, keeping
+      // its working memory
+      reset();
+      Call(PKImageDecode_Reinitialize_WMP(pDecoder, data.pStream));
+    } else {
+      Call(pDecoder->Initialize(pDecoder, data.pStream));
+    }
     pDecoder->fStreamOwner = !0;
     initialize();
     return;
   Cleanup:
+    std::string sourceError = Stream::takeSourceError(data.pStream);
+    // streams are only closed by decoders that own them
+    if (!pDecoder->fStreamOwner) {
+      data.pStream->Close(&data.pStream);
+    }
+    if (!sourceError.empty()) {
+      throw FormatError(sourceError);
+    }
     std::stringstream msg;
     msg << "ERROR: Unable to initialize decoder with stream: " << err;
     std::string errMsg = msg.str();
     throw FormatError(errMsg);
   }
 
-  unsigned int ImageDecoder::getFrameCount() {
+  double ImageDecoder::getMonotonicTime() {
+    // nanoseconds since an arbitrary point
+#ifdef _WIN32
+    static LARGE_INTEGER frequency;
+    LARGE_INTEGER counter;
+    if (frequency.QuadPart == 0) {
+      QueryPerformanceFrequency(&frequency);
+    }
+    QueryPerformanceCounter(&counter);
+    return counter.QuadPart * 1e9 / frequency.QuadPart;
+#elif defined(__APPLE__)
+    static mach_timebase_info_data_t timebase;
+    if (timebase.denom == 0) {
+      mach_timebase_info(&timebase);
+    }
+    return (double) mach_absolute_time() * timebase.numer / timebase.denom;
+#else
+    struct timespec now;
+    clock_gettime(CLOCK_MONOTONIC, &now);
+    return now.tv_sec * 1e9 + now.tv_nsec;
+#endif
+  }
+
+  void ImageDecoder::readFrameOffsets() {
+    if (frameOffsets.empty()) {
+      readFrameOffsets(pDecoder->pStream, frameOffsets);
+      // a chain cut short by a read error is not the real one
+      std::string error = Stream::takeSourceError(pDecoder->pStream);
+      if (!error.empty()) {
+        frameOffsets.clear();
+        throw FormatError(error);
+      }
+    }
+  }
+
+  void ImageDecoder::checkSource() {
+    std::string error = Stream::takeSourceError(pDecoder->pStream);
+    if (!error.empty()) {
+      throw FormatError(error);
+    }
+  }
+
+  void ImageDecoder::readFrameOffsets(struct WMPStream *pStream,
+                                      std::vector<size_t> &frameOffsets) {
     ERR err = WMP_errSuccess;
-    U32 cFrame;
-    Call(pDecoder->GetFrameCount(pDecoder, &cFrame));
-    return cFrame;
+    U32 offPFD = 0;
+
+    // follow the chain of PFDs from the container header; the first PFD
+    // has already been read successfully, anything that does not look
+    // like a further PFD ends the chain
+    Call(GetULong(pStream, 4, &offPFD));
+    frameOffsets.push_back(offPFD);
+    while (frameOffsets.size() < UINT_MAX) {
+      U16 cEntry = 0;
+      U32 offNext = 0;
+      if (Failed(GetUShort(pStream, offPFD, &cEntry))
+          || Failed(GetULong(pStream, (size_t)offPFD + 2 + cEntry * 12, &offNext))
+          || offNext <= offPFD
+          || Failed(GetUShort(pStream, offNext, &cEntry))
+          || cEntry == 0 || cEntry == USHRT_MAX) {
+        break;
+      }
+      offPFD = offNext;
+      frameOffsets.push_back(offPFD);
+    }
+    return;
+
   Cleanup:
     std::stringstream msg;
-    msg << "ERROR: Unable to get frame count: " << err;
+    msg << "ERROR: Unable to read frame offsets: " << err;
     std::string errMsg = msg.str();
     throw FormatError(errMsg);
   }
 
+  unsigned int ImageDecoder::getFrameCount() {
+    readFrameOffsets();
+    return (unsigned int)frameOffsets.size();
+  }
+
+  unsigned int ImageDecoder::getFrame() {
+    return frame;
+  }
+
   void ImageDecoder::selectFrame(unsigned int frameNum) {
-    Call(pDecoder->SelectFrame(pDecoder, frameNum));
+    double start;
+    readFrameOffsets();
+    FailIf(frameNum >= frameOffsets.size(), WMP_errInvalidArgument);
+    if (frameNum == frame) {
+      return;
+    }
+
+    // frames may differ in size, so any region is cleared; the scale
+    // is kept
+    start = getMonotonicTime();
+    terminateDecode();
+    stripTop = decodedLines = bufferedStart = bufferedLines = 0;
+    regionX = regionY = regionWidth = regionHeight = 0;
+    Call(PKImageDecode_SelectPFD_WMP(pDecoder, frameOffsets[frameNum]));
+    checkSource();
+    frame = frameNum;
+    initialize();
+    headerTime = getMonotonicTime() - start;
     return;
+
   Cleanup:
     std::stringstream msg;
     msg << "ERROR: Unable to select frame " << frameNum;
@@ -146,22 +358,174 @@ namespace jxrlib {
   }
 
   bool ImageDecoder::isBGR() {
-    return IsEqualGUID(getGUIDPixFormat(), GUID_PKPixelFormat24bppBGR) ||
-      IsEqualGUID(getGUIDPixFormat(), GUID_PKPixelFormat32bppBGR) ||
-      IsEqualGUID(getGUIDPixFormat(), GUID_PKPixelFormat32bppBGRA) ||
-      IsEqualGUID(getGUIDPixFormat(), GUID_PKPixelFormat32bppPBGRA);
+    return isBGR(getGUIDPixFormat());
+  }
+
+  bool ImageDecoder::isBGR(const GUID &pixelFormat) {
+    return IsEqualGUID(pixelFormat, GUID_PKPixelFormat24bppBGR) ||
+      IsEqualGUID(pixelFormat, GUID_PKPixelFormat32bppBGR) ||
+      IsEqualGUID(pixelFormat, GUID_PKPixelFormat32bppBGRA) ||
+      IsEqualGUID(pixelFormat, GUID_PKPixelFormat32bppPBGRA);
   }
 
   size_t ImageDecoder::getWidth() {
-    return pDecoder->WMP.wmiI.cROIWidth;
+    return imageInfo.cROIWidth;
   }
 
   size_t ImageDecoder::getHeight() {
-    return pDecoder->WMP.wmiI.cROIHeight;
+    return imageInfo.cROIHeight;
+  }
+
+  size_t ImageDecoder::getImageWidth() {
+    return imageInfo.cWidth;
+  }
+
+  size_t ImageDecoder::getImageHeight() {
+    return imageInfo.cHeight;
+  }
+
+  size_t ImageDecoder::getRegionX() {
+    return imageInfo.cROILeftX;
+  }
+
+  size_t ImageDecoder::getRegionY() {
+    return imageInfo.cROITopY;
+  }
+
+  void ImageDecoder::setRegion(size_t x, size_t y,
+                               size_t width, size_t height) {
+    if (width == 0 || height == 0 ||
+        x + width > imageInfo.cThumbnailWidth ||
+        y + height > imageInfo.cThumbnailHeight) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid region: " << x << ", " << y << ", "
+          << width << "x" << height;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+    regionX = x;
+    regionY = y;
+    regionWidth = width;
+    regionHeight = height;
+    applyDecodeParameters();
+  }
+
+  void ImageDecoder::clearRegion() {
+    regionX = regionY = regionWidth = regionHeight = 0;
+    applyDecodeParameters();
+  }
+
+  size_t ImageDecoder::getScale() {
+    return scale;
+  }
+
+  void ImageDecoder::setScale(size_t scale) {
+    if (scale == 0 || scale > 16 || (scale & (scale - 1)) != 0) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid scale: " << scale;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+    // region coordinates are relative to the downscaled image
+    this->scale = scale;
+    regionX = regionY = regionWidth = regionHeight = 0;
+    applyDecodeParameters();
+  }
+
+  unsigned int ImageDecoder::getQuality() {
+    return quality;
+  }
+
+  void ImageDecoder::setQuality(unsigned int quality) {
+    // isolated subbands cannot be decoded
+    if (quality >= SB_ISOLATED) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid quality: " << quality;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+    this->quality = quality;
+    applyDecodeParameters();
+  }
+
+  size_t ImageDecoder::getTileColumnCount() {
+    return codecParam.cNumOfSliceMinus1V + 1;
+  }
+
+  size_t ImageDecoder::getTileRowCount() {
+    return codecParam.cNumOfSliceMinus1H + 1;
+  }
+
+  size_t ImageDecoder::getTileX(size_t column) {
+    if (column >= getTileColumnCount()) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid tile column: " << column;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+    // tile positions are in macroblocks at full resolution
+    size_t x = codecParam.uiTileX[column] * 16 / scale;
+    return x < imageInfo.cThumbnailWidth ? x : imageInfo.cThumbnailWidth;
+  }
+
+  size_t ImageDecoder::getTileY(size_t row) {
+    if (row >= getTileRowCount()) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid tile row: " << row;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+    // tile positions are in macroblocks at full resolution
+    size_t y = codecParam.uiTileY[row] * 16 / scale;
+    return y < imageInfo.cThumbnailHeight ? y : imageInfo.cThumbnailHeight;
   }
 
   size_t ImageDecoder::getBytesPerPixel() {
-    return pDecoder->WMP.wmiI.cBitsPerUnit / 8;
+    return imageInfo.cBitsPerUnit / 8;
+  }
+
+  size_t ImageDecoder::getChannelCount() {
+    return pixelInfo.cChannel;
+  }
+
+  size_t ImageDecoder::getBytesPerSample() {
+    switch (pixelInfo.bdBitDepth) {
+    case BD_8:
+      return 1;
+    case BD_16:
+    case BD_16S:
+    case BD_16F:
+      return 2;
+    case BD_32:
+    case BD_32S:
+    case BD_32F:
+      return 4;
+    default:
+      // samples are packed within bytes
+      std::stringstream msg;
+      msg << "ERROR: Unsupported planar output for pixels of "
+          << pixelInfo.cbitUnit << " bits";
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+  }
+
+  bool ImageDecoder::hasAlpha() {
+    return !!(pixelInfo.grBit & PK_pixfmtHasAlpha);
+  }
+
+  bool ImageDecoder::hasPlanarAlpha() {
+    // the codec only sets this for alpha stored in a separate plane
+    return hasAlpha() && pDecoder->WMP.bHasAlpha;
+  }
+
+  size_t ImageDecoder::getSampleIndex(size_t channel) {
+    // present color channels in RGB order, as the output formats do
+    if (pixelInfo.cfColorFormat == CF_RGB && !imageInfo.bRGB
+        && channel < 3) {
+      return 2 - channel;
+    }
+    return channel;
   }
 
   Resolution ImageDecoder::getResolution() {
@@ -176,25 +540,269 @@ namespace jxrlib {
   }
 
   void ImageDecoder::getRawBytes(unsigned char *image_buffer) {
+    getRawBytes(image_buffer, getWidth() * getBytesPerPixel());
+  }
+
+  void ImageDecoder::getRawBytes(unsigned char *image_buffer, size_t stride) {
     ERR err = WMP_errSuccess;
-	I32 width, height, bytesPerPixel;
+    I32 width, height;
     PKRect rc;
 
-    bytesPerPixel = (I32) getBytesPerPixel();
-    Call(pDecoder->GetSize(pDecoder, &width, &height));
+    if (stride < getWidth() * getBytesPerPixel()) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid stride: " << stride;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+
+    resetDecodeState();
+    width = (I32) getWidth();
+    height = (I32) getHeight();
 
     rc.X = 0;
     rc.Y = 0;
     rc.Width = width;
     rc.Height = height;
 
-    Call(pDecoder->Copy(pDecoder, &rc, image_buffer, width * bytesPerPixel));
+    Call(pDecoder->Copy(pDecoder, &rc, image_buffer, (U32) stride));
+    checkSource();
     return;
   Cleanup:
+    checkSource();
     std::stringstream msg;
     msg << "ERROR: Could not get image bytes: " << err;
     std::string errMsg = msg.str();
     throw FormatError(errMsg);
   }
 
+  size_t ImageDecoder::getOutputBytesPerPixel(int format) {
+    if (format == OUTPUT_RAW) {
+      return getBytesPerPixel();
+    }
+    return OutputConverter(pixelInfo, !imageInfo.bRGB, format)
+      .getBytesPerPixel();
+  }
+
+  void ImageDecoder::getConvertedBytes(unsigned char *image_buffer,
+                                       size_t stride, int format) {
+    if (format == OUTPUT_RAW) {
+      getRawBytes(image_buffer, stride);
+      return;
+    }
+
+    OutputConverter converter(pixelInfo, !imageInfo.bRGB, format);
+    size_t width = getWidth();
+    size_t height = getHeight();
+    size_t rowBytes = width * getBytesPerPixel();
+    if (stride < width * converter.getBytesPerPixel()) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid stride: " << stride;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+
+    // convert each macroblock row while it is still in cache
+    beginStrips();
+    while (stripTop < height) {
+      size_t count;
+      const unsigned char *rows = takeBufferedRows(height - stripTop, count);
+      double start = measureStages ? getMonotonicTime() : 0;
+      for (size_t line = 0; line < count; line++) {
+        converter.convertRow(rows + line * rowBytes,
+                             image_buffer + (stripTop + line) * stride,
+                             width);
+      }
+      if (measureStages) {
+        stageTimes.dColorConversion += getMonotonicTime() - start;
+      }
+      stripTop += count;
+    }
+  }
+
+  void ImageDecoder::getPlanarBytes(unsigned char *image_buffer,
+                                    size_t planeSize, size_t firstChannel,
+                                    size_t channelCount) {
+    size_t channels = getChannelCount();
+    size_t sampleBytes = getBytesPerSample();
+    size_t width = getWidth();
+    size_t height = getHeight();
+    size_t bytesPerPixel = getBytesPerPixel();
+    size_t rowBytes = width * bytesPerPixel;
+    size_t planeRowBytes = width * sampleBytes;
+
+    if (channelCount == 0 || firstChannel >= channels
+        || channelCount > channels - firstChannel) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid channels " << firstChannel << " to "
+          << firstChannel + channelCount << " of " << channels;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+    if (planeSize < planeRowBytes * height) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid plane size: " << planeSize;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+
+    beginStrips();
+    // alpha is the last channel; when it is the only one requested and
+    // is stored in its own plane, the color planes are not decoded
+    if (channelCount == 1 && firstChannel == channels - 1
+        && hasPlanarAlpha()) {
+      alphaOnly = true;
+      pDecoder->WMP.wmiSCP.uAlphaMode = 1;
+    }
+
+    while (stripTop < height) {
+      size_t count;
+      const unsigned char *rows = takeBufferedRows(height - stripTop, count);
+      double start = measureStages ? getMonotonicTime() : 0;
+      for (size_t c = 0; c < channelCount; c++) {
+        size_t offset = getSampleIndex(firstChannel + c) * sampleBytes;
+        unsigned char *plane = image_buffer + c * planeSize;
+        for (size_t line = 0; line < count; line++) {
+          const unsigned char *source = rows + line * rowBytes + offset;
+          unsigned char *destination =
+            plane + (stripTop + line) * planeRowBytes;
+          for (size_t x = 0; x < width; x++) {
+            memcpy(destination, source, sampleBytes);
+            source += bytesPerPixel;
+            destination += sampleBytes;
+          }
+        }
+      }
+      if (measureStages) {
+        stageTimes.dColorConversion += getMonotonicTime() - start;
+      }
+      stripTop += count;
+    }
+  }
+
+  void ImageDecoder::beginStrips() {
+    // the codec outputs whole macroblock rows, and the first request
+    // may span two when the selected area does not start on a
+    // macroblock boundary
+    size_t linesPerMBRow = 16 / scale;
+    resetDecodeState();
+    stripBuffer.resize(2 * linesPerMBRow * getWidth() * getBytesPerPixel());
+  }
+
+  size_t ImageDecoder::decodeStrip(unsigned char *strip_buffer,
+                                   size_t stride, size_t lines) {
+    size_t rowBytes = getWidth() * getBytesPerPixel();
+    size_t height = getHeight();
+    size_t filled = 0;
+
+    if (stripBuffer.empty() || stride < rowBytes) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid strip decode, stride: " << stride;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+
+    if (lines > height - stripTop) {
+      lines = height - stripTop;
+    }
+    while (filled < lines) {
+      size_t count;
+      const unsigned char *rows = takeBufferedRows(lines - filled, count);
+      for (size_t line = 0; line < count; line++) {
+        memcpy(strip_buffer + (filled + line) * stride,
+               rows + line * rowBytes, rowBytes);
+      }
+      filled += count;
+    }
+    stripTop += lines;
+    return lines;
+  }
+
+  const unsigned char *ImageDecoder::takeBufferedRows(size_t lines,
+                                                      size_t &count) {
+    if (bufferedLines == 0) {
+      decodeMacroblockRows();
+    }
+    count = std::min(bufferedLines, lines);
+    const unsigned char *rows =
+      &stripBuffer[bufferedStart * getWidth() * getBytesPerPixel()];
+    bufferedStart += count;
+    bufferedLines -= count;
+    return rows;
+  }
+
+  void ImageDecoder::decodeMacroblockRows() {
+    ERR err = WMP_errSuccess;
+    size_t rowBytes = getWidth() * getBytesPerPixel();
+    size_t linesPerMBRow = 16 / scale;
+    size_t decoded, mbRow;
+    unsigned char *target = &stripBuffer[0];
+    PKRect rc;
+
+    // in REENTRANT_MODE the codec writes line n of the request to
+    // pb + (n - rc.Y) * stride, and decodes up to the end of the
+    // macroblock row containing the last requested line
+    rc.X = 0;
+    rc.Y = (I32) decodedLines;
+    rc.Width = (I32) getWidth();
+    rc.Height = (I32) std::min(linesPerMBRow, getHeight() - decodedLines);
+    if (alphaOnly) {
+      // without the color planes the codec neither counts the lines
+      // above the selected area nor offsets the buffer by rc.Y, so do
+      // both as it would
+      pDecoder->WMP.cLinesCropped = imageInfo.cROITopY;
+      target -= decodedLines * rowBytes;
+    }
+    Call(pDecoder->Copy(pDecoder, &rc, target, (U32) rowBytes));
+    checkSource();
+
+    // output lags the decoder by one macroblock row
+    mbRow = alphaOnly ? pDecoder->WMP.DecoderCurrAlphaMBRow
+      : pDecoder->WMP.DecoderCurrMBRow;
+    decoded = linesPerMBRow * (mbRow - 1) - pDecoder->WMP.cLinesCropped;
+    decoded = std::min(decoded, getHeight());
+    FailIf(decoded <= decodedLines, WMP_errFail);
+
+    bufferedStart = 0;
+    bufferedLines = decoded - decodedLines;
+    decodedLines = decoded;
+    return;
+  Cleanup:
+    checkSource();
+    std::stringstream msg;
+    msg << "ERROR: Could not decode strip: " << err;
+    std::string errMsg = msg.str();
+    throw FormatError(errMsg);
+  }
+
+  bool ImageDecoder::getMeasureStages() {
+    return measureStages;
+  }
+
+  void ImageDecoder::setMeasureStages(bool measure) {
+    measureStages = measure;
+  }
+
+  void ImageDecoder::resetStageTimes() {
+    stageTimes.GetTime = stageTime;
+    stageTimes.dEntropyDecode = 0;
+    stageTimes.dInverseTransform = 0;
+    stageTimes.dColorConversion = 0;
+  }
+
+  double ImageDecoder::getHeaderTime() {
+    return headerTime;
+  }
+
+  double ImageDecoder::getEntropyDecodeTime() {
+    return stageTimes.dEntropyDecode;
+  }
+
+  double ImageDecoder::getInverseTransformTime() {
+    return stageTimes.dInverseTransform;
+  }
+
+  double ImageDecoder::getColorConversionTime() {
+    return stageTimes.dColorConversion;
+  }
+
 } // namespace jxrlib
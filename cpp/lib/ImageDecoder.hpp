@@ -19,6 +19,7 @@
  */
 #pragma once
 
+#include <cstring>
 #include <vector>
 
 #include "JXRGlue.h"
@@ -31,14 +32,70 @@ namespace jxrlib {
     PKImageDecode *pDecoder;
     ERR err;
     PKPixelInfo pixelInfo;
+    // decoder settings as configured by initialize() and the requested
+    // region; the codec overwrites the live copies while decoding, so
+    // they are restored before every decode
+    CWMImageInfo imageInfo;
+    CWMIStrCodecParam codecParam;
+    // codec working memory, kept when the decoder is reinitialized
+    CWMDecoderBuffers buffers;
+    // requested region of interest; zero width or height means full image
+    size_t regionX, regionY, regionWidth, regionHeight;
+    // requested downscale factor; one of 1, 2, 4, 8 or 16
+    size_t scale;
+    // requested subbands; one of SUBBAND before SB_ISOLATED
+    unsigned int quality;
+    // strip decoding state; macroblock rows are decoded into the strip
+    // buffer and handed out a strip at a time
+    std::vector<unsigned char> stripBuffer;
+    size_t stripTop, decodedLines, bufferedStart, bufferedLines;
+    // true while only the planar alpha channel is being decoded
+    bool alphaOnly;
+    // offsets of the PFD of each frame in the container, read on first
+    // use, and the index of the selected frame
+    std::vector<size_t> frameOffsets;
+    unsigned int frame;
+    // time in nanoseconds spent parsing the headers when the decoder was
+    // created, and in each stage of decoding since the stage times were
+    // last reset; the codec only measures the stages when requested
+    double headerTime;
+    bool measureStages;
+    CWMDecoderStageTimes stageTimes;
     friend class CodecFactory;
+    friend class BitstreamTranscoder;
+    friend class MemoryTranscoder;
+
+    void release();
+    void reset();
+    void terminateDecode();
+    void applyDecodeParameters();
+    void resetDecodeState();
+    void decodeMacroblockRows();
+    const unsigned char *takeBufferedRows(size_t lines, size_t &count);
+    size_t getSampleIndex(size_t channel);
+    void readFrameOffsets();
+    void checkSource();
   public:
-    ImageDecoder() : pDecoder(NULL), err(WMP_errSuccess) {};
+    ImageDecoder() : pDecoder(NULL), err(WMP_errSuccess),
+                     regionX(0), regionY(0),
+                     regionWidth(0), regionHeight(0), scale(1),
+                     quality(SB_ALL),
+                     stripTop(0), decodedLines(0),
+                     bufferedStart(0), bufferedLines(0), alphaOnly(false),
+                     frame(0), headerTime(0), measureStages(false) {
+      std::memset(&buffers, 0, sizeof(buffers));
+      resetStageTimes();
+    };
     ~ImageDecoder();
+    static void readFrameOffsets(struct WMPStream *pStream,
+                                 std::vector<size_t> &frameOffsets);
+    static bool isBGR(const GUID &pixelFormat);
+    static double getMonotonicTime();
     void initialize();
     void initialize(Stream &data);
 
     unsigned int getFrameCount();
+    unsigned int getFrame();
     void selectFrame(unsigned int frameNum);
 
     GUID getGUIDPixFormat();
@@ -46,9 +103,44 @@ namespace jxrlib {
     bool isBGR();
     size_t getWidth();
     size_t getHeight();
+    size_t getImageWidth();
+    size_t getImageHeight();
+    size_t getRegionX();
+    size_t getRegionY();
+    void setRegion(size_t x, size_t y, size_t width, size_t height);
+    void clearRegion();
+    size_t getScale();
+    void setScale(size_t scale);
+    unsigned int getQuality();
+    void setQuality(unsigned int quality);
+    size_t getTileColumnCount();
+    size_t getTileRowCount();
+    size_t getTileX(size_t column);
+    size_t getTileY(size_t row);
     size_t getBytesPerPixel();
+    size_t getChannelCount();
+    size_t getBytesPerSample();
+    bool hasAlpha();
+    bool hasPlanarAlpha();
     Resolution getResolution();
     void getRawBytes(unsigned char *image_buffer);
+    void getRawBytes(unsigned char *image_buffer, size_t stride);
+    size_t getOutputBytesPerPixel(int format);
+    void getConvertedBytes(unsigned char *image_buffer,
+                           size_t stride, int format);
+    void getPlanarBytes(unsigned char *image_buffer, size_t planeSize,
+                        size_t firstChannel, size_t channelCount);
+    void beginStrips();
+    size_t decodeStrip(unsigned char *strip_buffer,
+                       size_t stride, size_t lines);
+
+    bool getMeasureStages();
+    void setMeasureStages(bool measure);
+    void resetStageTimes();
+    double getHeaderTime();
+    double getEntropyDecodeTime();
+    double getInverseTransformTime();
+    double getColorConversionTime();
   };
 
 } // namespace jxrlib
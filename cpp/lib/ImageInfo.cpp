@@ -0,0 +1,176 @@
+/*
+ * #%L
+ * Copyright (C) 2016 Glencoe Software, Inc. All rights reserved.
+ * %%
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * #%L
+ */
+
+#include "ImageInfo.hpp"
+
+#include <sstream>
+#include <string>
+
+#include "windowsmediaphoto.h"
+#include "guiddef.h"
+#include "FormatError.hpp"
+#include "ImageDecoder.hpp"
+#include "JXRGlue.h"
+#include "Stream.hpp"
+
+namespace jxrlib {
+
+  void ImageInfo::probe(unsigned char *bytes, size_t offset, size_t length) {
+    ERR err = WMP_errSuccess;
+    PKImageDecode *pDecoder = NULL;
+    PKPixelInfo pixelInfo;
+    std::vector<size_t> frameOffsets;
+    Stream dataStream(bytes + offset, length);
+
+    // only the container and image headers are read; the codec state
+    // used for decoding is not allocated until pixels are requested
+    if (Failed(err = PKImageDecode_Create_WMP(&pDecoder))) {
+      dataStream.pStream->Close(&dataStream.pStream);
+      goto Cleanup;
+    }
+    pDecoder->pStream = dataStream.pStream;
+    pDecoder->fStreamOwner = !0;
+    Call(pDecoder->Initialize(pDecoder, dataStream.pStream));
+
+    // gray and CMYK images are decoded as the equivalent TIFF pixel
+    // format, as in ImageDecoder::initialize()
+    pixelFormat = pDecoder->guidPixFormat;
+    pixelInfo.pGUIDPixFmt = &pixelFormat;
+    Call(PixelFormatLookup(&pixelInfo, LOOKUP_FORWARD));
+    Call(PixelFormatLookup(&pixelInfo, LOOKUP_BACKWARD_TIF));
+    if (IsEqualGUID(*pixelInfo.pGUIDPixFmt, GUID_PKPixelFormat8bppGray)
+        || IsEqualGUID(*pixelInfo.pGUIDPixFmt, GUID_PKPixelFormat16bppGray)
+        || (IsEqualGUID(*pixelInfo.pGUIDPixFmt, GUID_PKPixelFormat24bppRGB)
+            && pDecoder->WMP.wmiI.cfColorFormat == CMYK)) {
+      pixelFormat = *pixelInfo.pGUIDPixFmt;
+    }
+    Call(PixelFormatLookup(&pixelInfo, LOOKUP_FORWARD));
+
+    width = pDecoder->WMP.wmiI.cWidth;
+    height = pDecoder->WMP.wmiI.cHeight;
+    bytesPerPixel = pixelInfo.cbitUnit / 8;
+    bgr = ImageDecoder::isBGR(pixelFormat);
+    alpha = !!(pixelInfo.grBit & PK_pixfmtHasAlpha);
+    colorProfile = pDecoder->WMP.wmiDEMisc.uColorProfileByteCount > 0;
+    xmpMetadata = pDecoder->WMP.wmiDEMisc.uXMPMetadataByteCount > 0;
+    resolutionX = pDecoder->fResX;
+    resolutionY = pDecoder->fResY;
+
+    // tile positions are in macroblocks
+    tileX.clear();
+    for (size_t i = 0; i <= pDecoder->WMP.wmiSCP.cNumOfSliceMinus1V; i++) {
+      size_t x = pDecoder->WMP.wmiSCP.uiTileX[i] * 16;
+      tileX.push_back(x < width ? x : width);
+    }
+    tileY.clear();
+    for (size_t i = 0; i <= pDecoder->WMP.wmiSCP.cNumOfSliceMinus1H; i++) {
+      size_t y = pDecoder->WMP.wmiSCP.uiTileY[i] * 16;
+      tileY.push_back(y < height ? y : height);
+    }
+
+    ImageDecoder::readFrameOffsets(pDecoder->pStream, frameOffsets);
+    frameCount = (unsigned int)frameOffsets.size();
+
+    pDecoder->Release(&pDecoder);
+    return;
+
+  Cleanup:
+    if (pDecoder) {
+      pDecoder->Release(&pDecoder);
+    }
+    std::stringstream msg;
+    msg << "ERROR: Unable to read image header: " << err;
+    std::string errMsg = msg.str();
+    throw FormatError(errMsg);
+  }
+
+  GUID ImageInfo::getPixelFormat() {
+    return pixelFormat;
+  }
+
+  size_t ImageInfo::getWidth() {
+    return width;
+  }
+
+  size_t ImageInfo::getHeight() {
+    return height;
+  }
+
+  size_t ImageInfo::getBytesPerPixel() {
+    return bytesPerPixel;
+  }
+
+  bool ImageInfo::isBGR() {
+    return bgr;
+  }
+
+  bool ImageInfo::hasAlpha() {
+    return alpha;
+  }
+
+  bool ImageInfo::hasColorProfile() {
+    return colorProfile;
+  }
+
+  bool ImageInfo::hasXMPMetadata() {
+    return xmpMetadata;
+  }
+
+  size_t ImageInfo::getTileColumnCount() {
+    return tileX.size();
+  }
+
+  size_t ImageInfo::getTileRowCount() {
+    return tileY.size();
+  }
+
+  size_t ImageInfo::getTileX(size_t column) {
+    if (column >= tileX.size()) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid tile column: " << column;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+    return tileX[column];
+  }
+
+  size_t ImageInfo::getTileY(size_t row) {
+    if (row >= tileY.size()) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid tile row: " << row;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+    return tileY[row];
+  }
+
+  unsigned int ImageInfo::getFrameCount() {
+    return frameCount;
+  }
+
+  float ImageInfo::getResolutionX() {
+    return resolutionX;
+  }
+
+  float ImageInfo::getResolutionY() {
+    return resolutionY;
+  }
+
+} // namespace jxrlib
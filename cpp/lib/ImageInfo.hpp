@@ -0,0 +1,62 @@
+/*
+ * #%L
+ * Copyright (C) 2016 Glencoe Software, Inc. All rights reserved.
+ * %%
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * #%L
+ */
+#pragma once
+
+#include <vector>
+
+#include "JXRGlue.h"
+
+namespace jxrlib {
+
+  class ImageInfo {
+    GUID pixelFormat;
+    size_t width, height, bytesPerPixel;
+    bool bgr, alpha, colorProfile, xmpMetadata;
+    // left and top edges of each tile column and row, in pixels
+    std::vector<size_t> tileX, tileY;
+    unsigned int frameCount;
+    float resolutionX, resolutionY;
+
+  public:
+    ImageInfo() : pixelFormat(GUID_PKPixelFormatDontCare),
+                  width(0), height(0), bytesPerPixel(0),
+                  bgr(false), alpha(false),
+                  colorProfile(false), xmpMetadata(false),
+                  frameCount(0), resolutionX(0), resolutionY(0) {};
+    void probe(unsigned char *bytes, size_t offset, size_t length);
+
+    GUID getPixelFormat();
+    size_t getWidth();
+    size_t getHeight();
+    size_t getBytesPerPixel();
+    bool isBGR();
+    bool hasAlpha();
+    bool hasColorProfile();
+    bool hasXMPMetadata();
+    size_t getTileColumnCount();
+    size_t getTileRowCount();
+    size_t getTileX(size_t column);
+    size_t getTileY(size_t row);
+    unsigned int getFrameCount();
+    float getResolutionX();
+    float getResolutionY();
+  };
+
+} // namespace jxrlib
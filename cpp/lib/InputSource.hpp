@@ -0,0 +1,38 @@
+/*
+ * #%L
+ * Copyright (C) 2016 Glencoe Software, Inc. All rights reserved.
+ * %%
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * #%L
+ */
+#pragma once
+
+#include <cstddef>
+
+namespace jxrlib {
+
+  // Source of JPEG-XR data that a Stream reads on demand, such as a
+  // channel or network stream, instead of from a buffer in memory
+  class InputSource {
+  public:
+    virtual ~InputSource() {}
+    // Read up to length bytes starting at the given position into the
+    // buffer.  Returns the number of bytes read, which is only 0 at the
+    // end of the data; throws FormatError if the data cannot be read.
+    virtual size_t read(size_t position, unsigned char *buffer,
+                        size_t length) = 0;
+  };
+
+} // namespace jxrlib
@@ -0,0 +1,344 @@
+/*
+ * #%L
+ * Copyright (C) 2016 Glencoe Software, Inc. All rights reserved.
+ * %%
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * #%L
+ */
+
+#include "MemoryEncoder.hpp"
+
+#include <algorithm>
+#include <cstring>
+#include <sstream>
+#include <string>
+
+#include "FormatError.hpp"
+#include "JXRGlue.h"
+#include "Stream.hpp"
+
+namespace jxrlib {
+
+  namespace {
+
+  // Quantization tables used to map image quality to quantization
+  // parameters; Y, U, V, YHP, UHP, VHP per row.  Copied from JxrEncApp.
+  const int DPK_QPS_420[11][6] = {      // for 8 bit only
+    { 66, 65, 70, 72, 72, 77 },
+    { 59, 58, 63, 64, 63, 68 },
+    { 52, 51, 57, 56, 56, 61 },
+    { 48, 48, 54, 51, 50, 55 },
+    { 43, 44, 48, 46, 46, 49 },
+    { 37, 37, 42, 38, 38, 43 },
+    { 26, 28, 31, 27, 28, 31 },
+    { 16, 17, 22, 16, 17, 21 },
+    { 10, 11, 13, 10, 10, 13 },
+    {  5,  5,  6,  5,  5,  6 },
+    {  2,  2,  3,  2,  2,  2 }
+  };
+
+  const int DPK_QPS_8[12][6] = {
+    { 67, 79, 86, 72, 90, 98 },
+    { 59, 74, 80, 64, 83, 89 },
+    { 53, 68, 75, 57, 76, 83 },
+    { 49, 64, 71, 53, 70, 77 },
+    { 45, 60, 67, 48, 67, 74 },
+    { 40, 56, 62, 42, 59, 66 },
+    { 33, 49, 55, 35, 51, 58 },
+    { 27, 44, 49, 28, 45, 50 },
+    { 20, 36, 42, 20, 38, 44 },
+    { 13, 27, 34, 13, 28, 34 },
+    {  7, 17, 21,  8, 17, 21 }, // Photoshop 100%
+    {  2,  5,  6,  2,  5,  6 }
+  };
+
+  const int DPK_QPS_16[11][6] = {
+    { 197, 203, 210, 202, 207, 213 },
+    { 174, 188, 193, 180, 189, 196 },
+    { 152, 167, 173, 156, 169, 174 },
+    { 135, 152, 157, 137, 153, 158 },
+    { 119, 137, 141, 119, 138, 142 },
+    { 102, 120, 125, 100, 120, 124 },
+    {  82,  98, 104,  79,  98, 103 },
+    {  60,  76,  81,  58,  76,  81 },
+    {  39,  52,  58,  36,  52,  58 },
+    {  16,  27,  33,  14,  27,  33 },
+    {   5,   8,   9,   4,   7,   8 }
+  };
+
+  const int DPK_QPS_16f[11][6] = {
+    { 148, 177, 171, 165, 187, 191 },
+    { 133, 155, 153, 147, 172, 181 },
+    { 114, 133, 138, 130, 157, 167 },
+    {  97, 118, 120, 109, 137, 144 },
+    {  76,  98, 103,  85, 115, 121 },
+    {  63,  86,  91,  62,  96,  99 },
+    {  46,  68,  71,  43,  73,  75 },
+    {  29,  48,  52,  27,  48,  51 },
+    {  16,  30,  35,  14,  29,  34 },
+    {   8,  14,  17,   7,  13,  17 },
+    {   3,   5,   7,   3,   5,   6 }
+  };
+
+  const int DPK_QPS_32f[11][6] = {
+    { 194, 206, 209, 204, 211, 217 },
+    { 175, 187, 196, 186, 193, 205 },
+    { 157, 170, 177, 167, 180, 190 },
+    { 133, 152, 156, 144, 163, 168 },
+    { 116, 138, 142, 117, 143, 148 },
+    {  98, 120, 123,  96, 123, 126 },
+    {  80,  99, 102,  78,  99, 102 },
+    {  65,  79,  84,  63,  79,  84 },
+    {  48,  61,  67,  45,  60,  66 },
+    {  27,  41,  46,  24,  40,  45 },
+    {   3,  22,  24,   2,  21,  22 }
+  };
+
+  // Tile sizes in macroblocks for uniform tiles of the given size in
+  // pixels; returns the number of tiles less one
+  unsigned int setTiling(U32 *tiles, size_t tileSize, size_t imageSize) {
+    if (tileSize == 0 || tileSize >= imageSize) {
+      return 0;
+    }
+    size_t tileMB = tileSize / MB_WIDTH_PIXEL;
+    size_t imageMB = (imageSize + MB_WIDTH_PIXEL - 1) / MB_WIDTH_PIXEL;
+    size_t count = std::min((imageMB + tileMB - 1) / tileMB,
+                            (size_t)MAX_TILES);
+    for (size_t i = 0; i < count; i++) {
+      tiles[i] = (U32)tileMB;
+    }
+    return (unsigned int)(count - 1);
+  }
+
+  } // namespace
+
+  MemoryEncoder::MemoryEncoder()
+    : err(WMP_errSuccess), pixelFormat(GUID_PKPixelFormatDontCare),
+      quality(1.0f), quantization(1), tileWidth(0), tileHeight(0) {
+    memset(&pixelInfo, 0, sizeof(pixelInfo));
+  }
+
+  void MemoryEncoder::setPixelFormat(GUID pixelFormat) {
+    PKPixelInfo info;
+    info.pGUIDPixFmt = &pixelFormat;
+    Call(PixelFormatLookup(&info, LOOKUP_FORWARD));
+    FailIf(info.cbitUnit == 0, WMP_errUnsupportedFormat);
+    this->pixelFormat = pixelFormat;
+    pixelInfo = info;
+    pixelInfo.pGUIDPixFmt = &this->pixelFormat;
+    return;
+
+  Cleanup:
+    std::stringstream msg;
+    msg << "ERROR: Unsupported pixel format: " << err;
+    std::string errMsg = msg.str();
+    throw FormatError(errMsg);
+  }
+
+  GUID MemoryEncoder::getPixelFormat() {
+    return pixelFormat;
+  }
+
+  size_t MemoryEncoder::getMinimumStride(size_t width) {
+    return (pixelInfo.cbitUnit * width + 7) / 8;
+  }
+
+  void MemoryEncoder::setQuality(float quality) {
+    if (!(quality >= 0.0f && quality <= 1.0f)) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid quality: " << quality;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+    this->quality = quality;
+    quantization = quality < 1.0f ? 0 : 1;
+  }
+
+  void MemoryEncoder::setQuantization(unsigned int quantization) {
+    if (quantization < 1 || quantization > 255) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid quantization: " << quantization;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+    this->quantization = quantization;
+    quality = 0.0f;
+  }
+
+  void MemoryEncoder::setTileSize(size_t tileWidth, size_t tileHeight) {
+    if (tileWidth % MB_WIDTH_PIXEL != 0 || tileHeight % MB_HEIGHT_PIXEL != 0
+        || tileWidth / MB_WIDTH_PIXEL > 65535
+        || tileHeight / MB_HEIGHT_PIXEL > 65535) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid tile size: " << tileWidth << "x" << tileHeight;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+    this->tileWidth = tileWidth;
+    this->tileHeight = tileHeight;
+  }
+
+  void MemoryEncoder::initializeCodecParam(CWMIStrCodecParam &codecParam,
+                                           size_t width, size_t height) {
+    // defaults as per JxrEncApp
+    memset(&codecParam, 0, sizeof(codecParam));
+    codecParam.bdBitDepth = BD_LONG;
+    codecParam.bfBitstreamFormat = FREQUENCY;
+    codecParam.bProgressiveMode = TRUE;
+    codecParam.olOverlap = OL_ONE;
+    codecParam.sbSubband = SB_ALL;
+    codecParam.uiDefaultQPIndex = 1;
+    codecParam.uiDefaultQPIndexAlpha = 1;
+    if (pixelInfo.cfColorFormat == Y_ONLY || pixelInfo.cfColorFormat == CMYK) {
+      codecParam.cfColorFormat = pixelInfo.cfColorFormat;
+    } else {
+      codecParam.cfColorFormat = YUV_444;
+    }
+    codecParam.uAlphaMode = !!(pixelInfo.grBit & PK_pixfmtHasAlpha) ? 2 : 0;
+
+    codecParam.cNumOfSliceMinus1V =
+      setTiling(codecParam.uiTileX, tileWidth, width);
+    codecParam.cNumOfSliceMinus1H =
+      setTiling(codecParam.uiTileY, tileHeight, height);
+
+    if (quantization > 0) {
+      codecParam.uiDefaultQPIndex = (U8)quantization;
+      return;
+    }
+
+    // quality mapping as per JxrEncApp:
+    //ImageQuality  Q (BD==1)  Q (BD==8)   Q (BD==16)  Q (BD==32F) Subsample   Overlap
+    //[0.0, 0.5)    8-IQ*5     (see table) (see table) (see table) 4:2:0       2
+    //[0.5, 1.0)    8-IQ*5     (see table) (see table) (see table) 4:4:4       1
+    float imageQuality = quality;
+    // image width must be at least 2 MB wide for subsampled chroma and
+    // two levels of overlap
+    if (imageQuality < 0.5f && width >= 2 * MB_WIDTH_PIXEL) {
+      codecParam.olOverlap = OL_TWO;
+    }
+    if (imageQuality < 0.5f && pixelInfo.uBitsPerSample <= 8
+        && codecParam.cfColorFormat == YUV_444) {
+      codecParam.cfColorFormat = YUV_420;
+    }
+
+    if (pixelInfo.bdBitDepth == BD_1) {
+      codecParam.uiDefaultQPIndex = (U8)(8 - 5.0f * imageQuality + 0.5f);
+      return;
+    }
+
+    bool subsampled = codecParam.cfColorFormat == YUV_420
+      || codecParam.cfColorFormat == YUV_422;
+    // remap [0.8, 0.866, 0.933, 1.0] to [0.8, 0.9, 1.0, 1.1]
+    // to use 8-bit DPK QP table (0.933 == Photoshop JPEG 100)
+    if (imageQuality > 0.8f && pixelInfo.bdBitDepth == BD_8 && !subsampled) {
+      imageQuality = 0.8f + (imageQuality - 0.8f) * 1.5f;
+    }
+    int qi = (int)(10.f * imageQuality);
+    float qf = 10.f * imageQuality - (float)qi;
+    const int *pQPs =
+      subsampled ? DPK_QPS_420[qi] :
+      (pixelInfo.bdBitDepth == BD_8 ? DPK_QPS_8[qi] :
+      (pixelInfo.bdBitDepth == BD_16 ? DPK_QPS_16[qi] :
+      (pixelInfo.bdBitDepth == BD_16F ? DPK_QPS_16f[qi] :
+      DPK_QPS_32f[qi])));
+    U8 *qp[] = {
+      &codecParam.uiDefaultQPIndex,
+      &codecParam.uiDefaultQPIndexU,
+      &codecParam.uiDefaultQPIndexV,
+      &codecParam.uiDefaultQPIndexYHP,
+      &codecParam.uiDefaultQPIndexUHP,
+      &codecParam.uiDefaultQPIndexVHP
+    };
+    for (int i = 0; i < 6; i++) {
+      *qp[i] = (U8)(0.5f + (float)pQPs[i] * (1.f - qf)
+                    + (float)(pQPs + 6)[i] * qf);
+    }
+  }
+
+  size_t MemoryEncoder::encode(unsigned char *pixels,
+                               size_t width, size_t height, size_t stride,
+                               struct WMPStream *pStream) {
+    PKImageEncode *pEncoder = NULL;
+    CWMIStrCodecParam codecParam;
+    MemoryOutput *memoryOutput = (MemoryOutput *)pStream->state.pvObj;
+
+    FailIf(IsEqualGUID(pixelFormat, GUID_PKPixelFormatDontCare),
+           WMP_errUnsupportedFormat);
+    FailIf(width == 0 || height == 0 || stride < getMinimumStride(width),
+           WMP_errInvalidArgument);
+    initializeCodecParam(codecParam, width, height);
+
+    Call(PKCodecFactory_CreateCodec(&IID_PKImageWmpEncode,
+                                    (void **)&pEncoder));
+    // the encoder closes the stream when released
+    Call(pEncoder->Initialize(
+        pEncoder, pStream, &codecParam, sizeof(codecParam)));
+    pStream = NULL;
+    if (codecParam.uAlphaMode == 2) {
+      pEncoder->WMP.wmiSCP_Alpha.uiDefaultQPIndex =
+        codecParam.uiDefaultQPIndexAlpha;
+    }
+    Call(pEncoder->SetPixelFormat(pEncoder, pixelFormat));
+    Call(pEncoder->SetSize(pEncoder, (I32)width, (I32)height));
+    Call(pEncoder->WritePixels(pEncoder, (U32)height, pixels, (U32)stride));
+    FailIf(memoryOutput->overflow, WMP_errBufferOverflow);
+    pEncoder->Release(&pEncoder);
+    return memoryOutput->size;
+
+  Cleanup:
+    output.clear();
+    if (pEncoder != NULL) {
+      pEncoder->Release(&pEncoder);
+    } else if (pStream != NULL) {
+      pStream->Close(&pStream);
+    }
+    std::stringstream msg;
+    if (err == WMP_errBufferOverflow) {
+      msg << "ERROR: Output buffer too small";
+    } else {
+      msg << "ERROR: Unable to encode image: " << err;
+    }
+    std::string errMsg = msg.str();
+    throw FormatError(errMsg);
+  }
+
+  size_t MemoryEncoder::encode(unsigned char *pixels,
+                               size_t width, size_t height, size_t stride) {
+    MemoryOutput memoryOutput = { &output, NULL, 0, 0, 0, false };
+    output.clear();
+    Stream stream(&memoryOutput);
+    return encode(pixels, width, height, stride, stream.pStream);
+  }
+
+  size_t MemoryEncoder::encode(unsigned char *pixels,
+                               size_t width, size_t height, size_t stride,
+                               unsigned char *destination, size_t capacity) {
+    MemoryOutput memoryOutput = { NULL, destination, capacity, 0, 0, false };
+    output.clear();
+    Stream stream(&memoryOutput);
+    return encode(pixels, width, height, stride, stream.pStream);
+  }
+
+  size_t MemoryEncoder::getEncodedSize() {
+    return output.size();
+  }
+
+  void MemoryEncoder::getEncodedBytes(unsigned char *destination) {
+    if (!output.empty()) {
+      memcpy(destination, &output[0], output.size());
+    }
+  }
+
+} // namespace jxrlib
@@ -0,0 +1,66 @@
+/*
+ * #%L
+ * Copyright (C) 2016 Glencoe Software, Inc. All rights reserved.
+ * %%
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * #%L
+ */
+#pragma once
+
+#include <vector>
+
+#include "JXRGlue.h"
+#include "windowsmediaphoto.h"
+
+namespace jxrlib {
+
+  class MemoryEncoder {
+    ERR err;
+    GUID pixelFormat;
+    PKPixelInfo pixelInfo;
+    // image quality in [0, 1] as accepted by JxrEncApp -q, or zero
+    // if an explicit quantization parameter has been set
+    float quality;
+    // quantization parameter index; 1 is lossless
+    unsigned int quantization;
+    // tile size in pixels; zero means a single tile in that direction
+    size_t tileWidth, tileHeight;
+    // bitstream written by the last encode() into the internal buffer
+    std::vector<unsigned char> output;
+
+    void initializeCodecParam(CWMIStrCodecParam &codecParam,
+                              size_t width, size_t height);
+    size_t encode(unsigned char *pixels, size_t width, size_t height,
+                  size_t stride, struct WMPStream *pStream);
+  public:
+    MemoryEncoder();
+
+    void setPixelFormat(GUID pixelFormat);
+    GUID getPixelFormat();
+    size_t getMinimumStride(size_t width);
+    void setQuality(float quality);
+    void setQuantization(unsigned int quantization);
+    void setTileSize(size_t tileWidth, size_t tileHeight);
+
+    size_t encode(unsigned char *pixels, size_t width, size_t height,
+                  size_t stride);
+    size_t encode(unsigned char *pixels, size_t width, size_t height,
+                  size_t stride, unsigned char *destination,
+                  size_t capacity);
+    size_t getEncodedSize();
+    void getEncodedBytes(unsigned char *destination);
+  };
+
+} // namespace jxrlib
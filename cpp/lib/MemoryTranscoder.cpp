@@ -0,0 +1,238 @@
+/*
+ * #%L
+ * Copyright (C) 2016 Glencoe Software, Inc. All rights reserved.
+ * %%
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * #%L
+ */
+#include "MemoryTranscoder.hpp"
+
+#include <cctype>
+#include <cstring>
+#include <sstream>
+
+#include "FormatError.hpp"
+#include "JXRTest.h"
+#include "Resolution.hpp"
+
+namespace jxrlib {
+
+  namespace {
+
+  // File name extension of the given format, such as ".tif" for "TIF"
+  std::string getExtension(const std::string &format) {
+    std::string extension = format;
+    for (size_t i = 0; i < extension.size(); i++) {
+      extension[i] = (char)tolower((unsigned char)extension[i]);
+    }
+    if (extension.empty() || extension[0] != '.') {
+      extension.insert(0, ".");
+    }
+    return extension;
+  }
+
+  bool isTiff(const std::string &extension) {
+    return extension == ".tif" || extension == ".tiff";
+  }
+
+  // Pixel format to write a frame of the given pixel format in; TIFF and
+  // the PNM formats (.pnm, .ppm, .pgm, .pfm) hold RGB rather than BGR
+  GUID getOutputPixelFormat(const GUID &pixelFormat,
+                            const std::string &extension) {
+    PKPixelInfo pixelInfo;
+    if (isTiff(extension)) {
+      // as chosen by JxrDecApp
+      pixelInfo.pGUIDPixFmt = &pixelFormat;
+      if (PixelFormatLookup(&pixelInfo, LOOKUP_FORWARD) == WMP_errSuccess
+          && PixelFormatLookup(&pixelInfo, LOOKUP_BACKWARD_TIF)
+             == WMP_errSuccess) {
+        return *pixelInfo.pGUIDPixFmt;
+      }
+    } else if (extension.compare(0, 2, ".p") == 0
+               && IsEqualGUID(pixelFormat, GUID_PKPixelFormat24bppBGR)) {
+      return GUID_PKPixelFormat24bppRGB;
+    }
+    return pixelFormat;
+  }
+
+  } // namespace
+
+  MemoryTranscoder::MemoryTranscoder() : err(WMP_errSuccess) {}
+
+  PKImageEncode *MemoryTranscoder::createEncoder(
+      const std::string &extension, MemoryOutput &memoryOutput) {
+    const PKIID *pIID = NULL;
+    PKImageEncode *pEncoder = NULL;
+    Stream stream(&memoryOutput);
+
+    Call(GetTestEncodeIID(extension.c_str(), &pIID));
+    Call(PKTestFactory_CreateCodec(pIID, (void **)&pEncoder));
+    // the encoder closes the stream when released
+    Call(pEncoder->Initialize(pEncoder, stream.pStream, NULL, 0));
+    return pEncoder;
+
+  Cleanup:
+    PKFree((void **)&pEncoder);
+    stream.pStream->Close(&stream.pStream);
+    std::string msg = "ERROR: Unsupported output format: " + extension;
+    throw FormatError(msg);
+  }
+
+  void MemoryTranscoder::writeFrame(ImageDecoder &decoder,
+                                    PKImageEncode *pEncoder,
+                                    PKFormatConverter *pConverter,
+                                    const std::string &extension,
+                                    bool newFrame) {
+    GUID pixelFormat =
+      getOutputPixelFormat(decoder.getGUIDPixFormat(), extension);
+    Resolution resolution = decoder.getResolution();
+    PKRect rect = { 0, 0, 0, 0 };
+    rect.Width = (I32)decoder.getWidth();
+    rect.Height = (I32)decoder.getHeight();
+
+    if (newFrame) {
+      Call(pEncoder->CreateNewFrame(pEncoder, NULL, 0));
+    }
+    // frames may differ in pixel format, so the converter is initialized
+    // again for each one
+    decoder.resetDecodeState();
+    Call(pConverter->Initialize(pConverter, decoder.pDecoder,
+                                (char *)extension.c_str(), pixelFormat));
+    Call(pEncoder->SetPixelFormat(pEncoder, pixelFormat));
+    pEncoder->WMP.wmiSCP.bBlackWhite = decoder.getBlackWhite();
+    Call(pEncoder->SetSize(pEncoder, rect.Width, rect.Height));
+    Call(pEncoder->SetResolution(pEncoder, resolution.X, resolution.Y));
+    Call(PKImageEncode_Transcode(pEncoder, pConverter, &rect));
+    decoder.checkSource();
+    return;
+
+  Cleanup:
+    decoder.checkSource();
+    std::stringstream msg;
+    if (err == WMP_errBufferOverflow) {
+      msg << "ERROR: Output buffer too small";
+    } else {
+      msg << "ERROR: Unable to transcode frame " << decoder.getFrame()
+          << " to " << extension << ": " << err;
+    }
+    std::string errMsg = msg.str();
+    throw FormatError(errMsg);
+  }
+
+  size_t MemoryTranscoder::transcode(ImageDecoder &decoder,
+                                     std::string format,
+                                     MemoryOutput &memoryOutput) {
+    std::string extension = getExtension(format);
+    PKImageEncode *pEncoder = NULL;
+    PKFormatConverter *pConverter = NULL;
+    unsigned int selected = decoder.getFrame();
+    unsigned int first = selected, end = selected + 1;
+    size_t regionX = decoder.getRegionX(), regionY = decoder.getRegionY();
+    size_t width = decoder.getWidth(), height = decoder.getHeight();
+
+    if (isTiff(extension) && decoder.getFrameCount() > 1) {
+      first = 0;
+      end = decoder.getFrameCount();
+    }
+    try {
+      // the encoder and converter are reused for every frame
+      pEncoder = createEncoder(extension, memoryOutput);
+      Call(PKCodecFactory_CreateFormatConverter(&pConverter));
+      for (unsigned int frameNum = first; frameNum < end; frameNum++) {
+        decoder.selectFrame(frameNum);
+        writeFrame(decoder, pEncoder, pConverter, extension,
+                   frameNum != first);
+      }
+      pConverter->Release(&pConverter);
+      pEncoder->Release(&pEncoder);
+      // selecting another frame cleared the region
+      if (end - first > 1) {
+        decoder.selectFrame(selected);
+        decoder.setRegion(regionX, regionY, width, height);
+      }
+      FailIf(memoryOutput.overflow, WMP_errBufferOverflow);
+      return memoryOutput.size;
+    } catch (...) {
+      if (pConverter != NULL) {
+        pConverter->Release(&pConverter);
+      }
+      if (pEncoder != NULL) {
+        pEncoder->Release(&pEncoder);
+      }
+      output.clear();
+      if (end - first > 1) {
+        try {
+          decoder.selectFrame(selected);
+          decoder.setRegion(regionX, regionY, width, height);
+        } catch (...) {
+          // report the original error
+        }
+      }
+      throw;
+    }
+
+  Cleanup:
+    if (pConverter != NULL) {
+      pConverter->Release(&pConverter);
+    }
+    if (pEncoder != NULL) {
+      pEncoder->Release(&pEncoder);
+    }
+    output.clear();
+    std::stringstream msg;
+    if (err == WMP_errBufferOverflow) {
+      msg << "ERROR: Output buffer too small";
+    } else {
+      msg << "ERROR: Unable to create format converter: " << err;
+    }
+    std::string errMsg = msg.str();
+    throw FormatError(errMsg);
+  }
+
+  size_t MemoryTranscoder::transcode(ImageDecoder &decoder,
+                                     std::string format) {
+    MemoryOutput memoryOutput = { &output, NULL, 0, 0, 0, false };
+    output.clear();
+    return transcode(decoder, format, memoryOutput);
+  }
+
+  size_t MemoryTranscoder::transcode(ImageDecoder &decoder,
+                                     std::string format,
+                                     unsigned char *destination,
+                                     size_t capacity) {
+    MemoryOutput memoryOutput = { NULL, destination, capacity, 0, 0, false };
+    output.clear();
+    return transcode(decoder, format, memoryOutput);
+  }
+
+  size_t MemoryTranscoder::getTranscodedSize() {
+    return output.size();
+  }
+
+  void MemoryTranscoder::getTranscodedBytes(unsigned char *destination,
+                                            size_t offset, size_t length) {
+    if (offset > output.size() || length > output.size() - offset) {
+      std::stringstream msg;
+      msg << "ERROR: Invalid range of transcoded bytes: " << offset
+          << ", " << length;
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+    if (length > 0) {
+      memcpy(destination, &output[offset], length);
+    }
+  }
+
+} // namespace jxrlib
@@ -0,0 +1,58 @@
+/*
+ * #%L
+ * Copyright (C) 2016 Glencoe Software, Inc. All rights reserved.
+ * %%
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * #%L
+ */
+#pragma once
+
+#include <string>
+#include <vector>
+
+#include "ImageDecoder.hpp"
+#include "JXRGlue.h"
+#include "Stream.hpp"
+
+namespace jxrlib {
+
+  // Writes decoded images in the formats of the test library (e.g. BMP,
+  // TIFF, PNM) to memory rather than to a file.  The selected frame of
+  // the decoder is written with its region and scale, except for TIFF,
+  // which holds every frame of a multi-frame image as a page.
+  class MemoryTranscoder {
+    ERR err;
+    // output written by the last transcode() into the internal buffer
+    std::vector<unsigned char> output;
+
+    size_t transcode(ImageDecoder &decoder, std::string format,
+                     MemoryOutput &memoryOutput);
+    PKImageEncode *createEncoder(const std::string &extension,
+                                 MemoryOutput &memoryOutput);
+    void writeFrame(ImageDecoder &decoder, PKImageEncode *pEncoder,
+                    PKFormatConverter *pConverter,
+                    const std::string &extension, bool newFrame);
+  public:
+    MemoryTranscoder();
+
+    size_t transcode(ImageDecoder &decoder, std::string format);
+    size_t transcode(ImageDecoder &decoder, std::string format,
+                     unsigned char *destination, size_t capacity);
+    size_t getTranscodedSize();
+    void getTranscodedBytes(unsigned char *destination,
+                            size_t offset, size_t length);
+  };
+
+} // namespace jxrlib
@@ -0,0 +1,293 @@
+/*
+ * #%L
+ * Copyright (C) 2016 Glencoe Software, Inc. All rights reserved.
+ * %%
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * #%L
+ */
+#include "OutputConverter.hpp"
+
+#include <cstring>
+#include <sstream>
+#include <string>
+
+#include "FormatError.hpp"
+
+namespace jxrlib {
+
+  namespace {
+
+    inline float clamp(float value) {
+      // NaN clamps to 0
+      if (!(value > 0.0f)) {
+        return 0.0f;
+      }
+      return value < 1.0f ? value : 1.0f;
+    }
+
+    float halfToFloat(U16 half) {
+      U32 sign = (U32) (half & 0x8000) << 16;
+      U32 exponent = (half >> 10) & 0x1f;
+      U32 mantissa = half & 0x3ff;
+      U32 bits;
+      if (exponent == 0x1f) {
+        // infinity or NaN
+        bits = sign | 0x7f800000 | (mantissa << 13);
+      } else if (exponent != 0) {
+        bits = sign | ((exponent + 112) << 23) | (mantissa << 13);
+      } else if (mantissa == 0) {
+        bits = sign;
+      } else {
+        // subnormal half, normal float
+        exponent = 113;
+        while (!(mantissa & 0x400)) {
+          mantissa <<= 1;
+          exponent--;
+        }
+        bits = sign | (exponent << 23) | ((mantissa & 0x3ff) << 13);
+      }
+      float value;
+      memcpy(&value, &bits, sizeof(value));
+      return value;
+    }
+
+    /*
+     * Readers of one source sample, each converting it to an 8-bit,
+     * 16-bit or floating point value.
+     */
+    struct Unsigned8 {
+      static U8 to8(const unsigned char *sample) {
+        return sample[0];
+      }
+      static U16 to16(const unsigned char *sample) {
+        return (U16) (sample[0] * 257);
+      }
+      static float toFloat(const unsigned char *sample) {
+        return sample[0] / 255.0f;
+      }
+    };
+
+    struct Unsigned16 {
+      static U16 read(const unsigned char *sample) {
+        U16 value;
+        memcpy(&value, sample, sizeof(value));
+        return value;
+      }
+      static U8 to8(const unsigned char *sample) {
+        return (U8) ((read(sample) * 255 + 32767) / 65535);
+      }
+      static U16 to16(const unsigned char *sample) {
+        return read(sample);
+      }
+      static float toFloat(const unsigned char *sample) {
+        return read(sample) / 65535.0f;
+      }
+    };
+
+    template <class Derived>
+    struct FloatSample {
+      static U8 to8(const unsigned char *sample) {
+        return (U8) (clamp(Derived::toFloat(sample)) * 255.0f + 0.5f);
+      }
+      static U16 to16(const unsigned char *sample) {
+        return (U16) (clamp(Derived::toFloat(sample)) * 65535.0f + 0.5f);
+      }
+    };
+
+    // signed, 13 fractional bits
+    struct Fixed16 : FloatSample<Fixed16> {
+      static float toFloat(const unsigned char *sample) {
+        I16 value;
+        memcpy(&value, sample, sizeof(value));
+        return value / 8192.0f;
+      }
+    };
+
+    struct Half : FloatSample<Half> {
+      static float toFloat(const unsigned char *sample) {
+        U16 value;
+        memcpy(&value, sample, sizeof(value));
+        return halfToFloat(value);
+      }
+    };
+
+    // signed, 24 fractional bits
+    struct Fixed32 : FloatSample<Fixed32> {
+      static float toFloat(const unsigned char *sample) {
+        I32 value;
+        memcpy(&value, sample, sizeof(value));
+        return value / 16777216.0f;
+      }
+    };
+
+    struct Float32 : FloatSample<Float32> {
+      static float toFloat(const unsigned char *sample) {
+        float value;
+        memcpy(&value, sample, sizeof(value));
+        return value;
+      }
+    };
+
+  } // namespace
+
+  OutputConverter::OutputConverter(const PKPixelInfo &pixelInfo, bool bgr,
+                                   int format)
+    : format(format), sourceBytesPerPixel(pixelInfo.cbitUnit / 8),
+      sampleBytes(0), channels(pixelInfo.cChannel), rowFunction(NULL) {
+    bool gray = pixelInfo.cfColorFormat == Y_ONLY
+      && pixelInfo.cChannel == 1;
+    bool rgb = pixelInfo.cfColorFormat == CF_RGB
+      && (pixelInfo.cChannel == 3 || pixelInfo.cChannel == 4);
+    bool hasAlpha = rgb && !!(pixelInfo.grBit & PK_pixfmtHasAlpha);
+
+    order[0] = gray ? 0 : (bgr ? 2 : 0);
+    order[1] = gray ? 0 : 1;
+    order[2] = gray ? 0 : (bgr ? 0 : 2);
+    order[3] = hasAlpha ? 3 : -1;
+
+    if (gray || rgb) {
+      switch (pixelInfo.bdBitDepth) {
+      case BD_8:
+        sampleBytes = 1;
+        rowFunction = selectRowFunction<Unsigned8>(format);
+        break;
+      case BD_16:
+        sampleBytes = 2;
+        rowFunction = selectRowFunction<Unsigned16>(format);
+        break;
+      case BD_16S:
+        sampleBytes = 2;
+        rowFunction = selectRowFunction<Fixed16>(format);
+        break;
+      case BD_16F:
+        sampleBytes = 2;
+        rowFunction = selectRowFunction<Half>(format);
+        break;
+      case BD_32S:
+        sampleBytes = 4;
+        rowFunction = selectRowFunction<Fixed32>(format);
+        break;
+      case BD_32F:
+        sampleBytes = 4;
+        rowFunction = selectRowFunction<Float32>(format);
+        break;
+      default:
+        break;
+      }
+    }
+    if (!rowFunction) {
+      std::stringstream msg;
+      msg << "ERROR: Unsupported output format " << format
+          << " for " << pixelInfo.cChannel << " channel pixels of "
+          << pixelInfo.cbitUnit << " bits";
+      std::string errMsg = msg.str();
+      throw FormatError(errMsg);
+    }
+  }
+
+  size_t OutputConverter::getBytesPerPixel() const {
+    switch (format) {
+    case OUTPUT_RGB8:
+      return 3;
+    case OUTPUT_RGBA8:
+    case OUTPUT_ARGB_INT:
+      return 4;
+    case OUTPUT_FLOAT32:
+      return 4 * channels;
+    default:
+      return 2 * channels;
+    }
+  }
+
+  template <class Sample>
+  OutputConverter::RowFunction
+  OutputConverter::selectRowFunction(int format) {
+    switch (format) {
+    case OUTPUT_RGB8:
+      return &convertRow<Sample, OUTPUT_RGB8>;
+    case OUTPUT_RGBA8:
+      return &convertRow<Sample, OUTPUT_RGBA8>;
+    case OUTPUT_ARGB_INT:
+      return &convertRow<Sample, OUTPUT_ARGB_INT>;
+    case OUTPUT_FLOAT32:
+      return &convertRow<Sample, OUTPUT_FLOAT32>;
+    case OUTPUT_UINT16_LE:
+      return &convertRow<Sample, OUTPUT_UINT16_LE>;
+    default:
+      return NULL;
+    }
+  }
+
+  template <class Sample, int Format>
+  void OutputConverter::convertRow(const OutputConverter &converter,
+                                   const unsigned char *source,
+                                   unsigned char *destination,
+                                   size_t width) {
+    const size_t sampleBytes = converter.sampleBytes;
+    const size_t channels = converter.channels;
+    const unsigned char *red = source + converter.order[0] * sampleBytes;
+    const unsigned char *green = source + converter.order[1] * sampleBytes;
+    const unsigned char *blue = source + converter.order[2] * sampleBytes;
+    const unsigned char *alpha = converter.order[3] < 0 ? NULL
+      : source + converter.order[3] * sampleBytes;
+    const size_t step = converter.sourceBytesPerPixel;
+
+    for (size_t x = 0; x < width; x++) {
+      const size_t offset = x * step;
+      switch (Format) {
+      case OUTPUT_RGB8:
+        destination[0] = Sample::to8(red + offset);
+        destination[1] = Sample::to8(green + offset);
+        destination[2] = Sample::to8(blue + offset);
+        destination += 3;
+        break;
+      case OUTPUT_RGBA8:
+        destination[0] = Sample::to8(red + offset);
+        destination[1] = Sample::to8(green + offset);
+        destination[2] = Sample::to8(blue + offset);
+        destination[3] = alpha ? Sample::to8(alpha + offset) : 0xff;
+        destination += 4;
+        break;
+      case OUTPUT_ARGB_INT: {
+        U32 value = (U32) (alpha ? Sample::to8(alpha + offset) : 0xff) << 24
+          | (U32) Sample::to8(red + offset) << 16
+          | (U32) Sample::to8(green + offset) << 8
+          | (U32) Sample::to8(blue + offset);
+        memcpy(destination, &value, sizeof(value));
+        destination += 4;
+        break;
+      }
+      case OUTPUT_FLOAT32:
+        for (size_t c = 0; c < channels; c++) {
+          float value = Sample::toFloat(
+            source + converter.order[c] * sampleBytes + offset);
+          memcpy(destination, &value, sizeof(value));
+          destination += 4;
+        }
+        break;
+      case OUTPUT_UINT16_LE:
+        for (size_t c = 0; c < channels; c++) {
+          U16 value = Sample::to16(
+            source + converter.order[c] * sampleBytes + offset);
+          destination[0] = (unsigned char) (value & 0xff);
+          destination[1] = (unsigned char) (value >> 8);
+          destination += 2;
+        }
+        break;
+      }
+    }
+  }
+
+} // namespace jxrlib
@@ -0,0 +1,91 @@
+/*
+ * #%L
+ * Copyright (C) 2016 Glencoe Software, Inc. All rights reserved.
+ * %%
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * #%L
+ */
+#pragma once
+
+#include <cstddef>
+
+#include "JXRGlue.h"
+
+namespace jxrlib {
+
+  /*
+   * Layouts that decoded pixels can be converted to.  All but RAW
+   * store color channels in RGB order; samples of the packed and
+   * floating point layouts are in native byte order.
+   */
+  enum OutputFormat {
+    // pixels exactly as decoded
+    OUTPUT_RAW = 0,
+    // 8-bit R, G, B
+    OUTPUT_RGB8 = 1,
+    // 8-bit R, G, B, A; opaque if there is no alpha channel
+    OUTPUT_RGBA8 = 2,
+    // 32-bit 0xAARRGGBB; opaque if there is no alpha channel
+    OUTPUT_ARGB_INT = 3,
+    // 32-bit float per channel, 0 to 1 for integer formats
+    OUTPUT_FLOAT32 = 4,
+    // 16-bit little endian unsigned integer per channel
+    OUTPUT_UINT16_LE = 5
+  };
+
+  /*
+   * Converts rows of decoded pixels of a gray, RGB or RGBA pixel format
+   * to one of the output formats.  The pixel info describes the samples
+   * the codec outputs, and the channel order is given separately as the
+   * codec only honours BGR order for 8-bit formats.  Gray is replicated into R, G and B
+   * for the RGB layouts; the per channel layouts keep the channels of
+   * the pixel format, dropping padding.  Integer samples are rescaled
+   * to the output bit depth, and fixed or floating point samples are
+   * clamped to 0 to 1 for integer outputs.
+   */
+  class OutputConverter {
+    typedef void (*RowFunction)(const OutputConverter &converter,
+                                const unsigned char *source,
+                                unsigned char *destination,
+                                size_t width);
+
+    int format;
+    size_t sourceBytesPerPixel, sampleBytes;
+    // sample index of the red, green, blue and alpha channels in a
+    // source pixel; alpha is -1 if there is none
+    int order[4];
+    // number of channels written by the per channel layouts
+    size_t channels;
+    RowFunction rowFunction;
+
+    template <class Sample>
+    static RowFunction selectRowFunction(int format);
+    template <class Sample, int Format>
+    static void convertRow(const OutputConverter &converter,
+                           const unsigned char *source,
+                           unsigned char *destination,
+                           size_t width);
+  public:
+    OutputConverter(const PKPixelInfo &pixelInfo, bool bgr, int format);
+
+    size_t getBytesPerPixel() const;
+    void convertRow(const unsigned char *source,
+                    unsigned char *destination,
+                    size_t width) const {
+      rowFunction(*this, source, destination, width);
+    }
+  };
+
+} // namespace jxrlib
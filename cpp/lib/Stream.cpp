@@ -20,10 +20,214 @@
 
 #include "Stream.hpp"
 
+#include <algorithm>
 #include <cstdlib>
 #include <cstring>
 #include "FormatError.hpp"
 
+namespace {
+
+  // number of read-ahead windows; the codec reads each tile column and
+  // frequency band of a row from a different part of the stream, so a
+  // few windows are needed to avoid reading the same data repeatedly
+  const size_t WINDOW_COUNT = 16;
+
+  struct Window {
+    std::vector<unsigned char> bytes;
+    // position of the first byte, number of bytes read and when the
+    // window was last used
+    size_t start, length, lastUse;
+    Window() : start(0), length(0), lastUse(0) {}
+  };
+
+  struct SourceState {
+    jxrlib::InputSource *source;
+    size_t windowSize;
+    Window windows[WINDOW_COUNT];
+    size_t position, useCount;
+    // length of the data, known once the source has been read to the end
+    bool ended;
+    size_t size;
+    std::string error;
+    SourceState(jxrlib::InputSource *source, size_t windowSize)
+      : source(source), windowSize(windowSize), position(0), useCount(0),
+        ended(false), size(0) {}
+    ~SourceState() {
+      delete source;
+    }
+  };
+
+  SourceState *getState(struct WMPStream *pWS) {
+    return (SourceState *) pWS->state.pvObj;
+  }
+
+  // Window holding the byte at the current position, read from the
+  // source into the least recently used window if necessary; NULL at
+  // the end of the data
+  Window *getWindow(SourceState *state) {
+    size_t position = state->position;
+    Window *window = &state->windows[0];
+    for (size_t i = 0; i < WINDOW_COUNT; i++) {
+      Window *candidate = &state->windows[i];
+      if (position >= candidate->start
+          && position - candidate->start < candidate->length) {
+        candidate->lastUse = ++state->useCount;
+        return candidate;
+      }
+      if (candidate->lastUse < window->lastUse) {
+        window = candidate;
+      }
+    }
+    if (state->ended && position >= state->size) {
+      return NULL;
+    }
+
+    // stop short of data already held by another window
+    size_t fill = state->windowSize;
+    for (size_t i = 0; i < WINDOW_COUNT; i++) {
+      Window *other = &state->windows[i];
+      if (other != window && other->length > 0 && other->start > position) {
+        fill = std::min(fill, other->start - position);
+      }
+    }
+    window->bytes.resize(state->windowSize);
+    window->start = position;
+    window->length = 0;
+    window->lastUse = ++state->useCount;
+    while (window->length < fill) {
+      size_t count = state->source->read(
+        position + window->length, &window->bytes[window->length],
+        fill - window->length);
+      if (count == 0) {
+        state->ended = true;
+        state->size = position + window->length;
+        break;
+      }
+      window->length += count;
+    }
+    return window->length > 0 ? window : NULL;
+  }
+
+  ERR closeSource(struct WMPStream **ppWS) {
+    ERR err = WMP_errSuccess;
+    delete getState(*ppWS);
+    Call(PKFree((void **) ppWS));
+  Cleanup:
+    return err;
+  }
+
+  Bool eosSource(struct WMPStream *pWS) {
+    SourceState *state = getState(pWS);
+    try {
+      return getWindow(state) == NULL;
+    } catch (std::exception &e) {
+      state->error = e.what();
+      return TRUE;
+    }
+  }
+
+  ERR readSource(struct WMPStream *pWS, void *pv, size_t cb) {
+    SourceState *state = getState(pWS);
+    unsigned char *destination = (unsigned char *) pv;
+    try {
+      // as with memory streams, reads past the end of the data are short
+      while (cb > 0) {
+        Window *window = getWindow(state);
+        if (!window) {
+          break;
+        }
+        size_t offset = state->position - window->start;
+        size_t count = std::min(cb, window->length - offset);
+        memcpy(destination, &window->bytes[offset], count);
+        destination += count;
+        state->position += count;
+        cb -= count;
+      }
+    } catch (std::exception &e) {
+      state->error = e.what();
+      return WMP_errFileIO;
+    }
+    return WMP_errSuccess;
+  }
+
+  ERR writeSource(struct WMPStream *pWS, const void *pv, size_t cb) {
+    (void) pWS;
+    (void) pv;
+    (void) cb;
+    return WMP_errNotYetImplemented;
+  }
+
+  ERR setSourcePosition(struct WMPStream *pWS, size_t offPos) {
+    // data is only read once it is needed
+    getState(pWS)->position = offPos;
+    return WMP_errSuccess;
+  }
+
+  ERR getSourcePosition(struct WMPStream *pWS, size_t *poffPos) {
+    *poffPos = getState(pWS)->position;
+    return WMP_errSuccess;
+  }
+
+  unsigned char *outputBytes(jxrlib::MemoryOutput *output) {
+    return output->growable != NULL ? &(*output->growable)[0] : output->fixed;
+  }
+
+  ERR closeOutputStream(struct WMPStream **ppWS) {
+    // the output itself is owned by the creator of the stream
+    return PKFree((void **)ppWS);
+  }
+
+  Bool eosOutputStream(struct WMPStream *pWS) {
+    jxrlib::MemoryOutput *output = (jxrlib::MemoryOutput *)pWS->state.pvObj;
+    return output->position >= output->size;
+  }
+
+  ERR readOutputStream(struct WMPStream *pWS, void *pv, size_t cb) {
+    jxrlib::MemoryOutput *output = (jxrlib::MemoryOutput *)pWS->state.pvObj;
+    if (output->position + cb > output->size) {
+      return WMP_errFileIO;
+    }
+    memcpy(pv, outputBytes(output) + output->position, cb);
+    output->position += cb;
+    return WMP_errSuccess;
+  }
+
+  ERR writeOutputStream(struct WMPStream *pWS, const void *pv, size_t cb) {
+    jxrlib::MemoryOutput *output = (jxrlib::MemoryOutput *)pWS->state.pvObj;
+    size_t end = output->position + cb;
+    if (cb == 0) {
+      return WMP_errSuccess;
+    }
+    if (end < output->position) {
+      output->overflow = true;
+      return WMP_errBufferOverflow;
+    }
+    if (end > output->capacity) {
+      if (output->growable == NULL) {
+        output->overflow = true;
+        return WMP_errBufferOverflow;
+      }
+      output->growable->resize(end);
+      output->capacity = end;
+    }
+    memcpy(outputBytes(output) + output->position, pv, cb);
+    output->position = end;
+    output->size = std::max(output->size, end);
+    return WMP_errSuccess;
+  }
+
+  ERR setPosOutputStream(struct WMPStream *pWS, size_t offPos) {
+    ((jxrlib::MemoryOutput *)pWS->state.pvObj)->position = offPos;
+    return WMP_errSuccess;
+  }
+
+  ERR getPosOutputStream(struct WMPStream *pWS, size_t *poffPos) {
+    *poffPos = ((jxrlib::MemoryOutput *)pWS->state.pvObj)->position;
+    return WMP_errSuccess;
+  }
+
+} // namespace
+
 namespace jxrlib {
 
   Stream::Stream(unsigned char *bytes, size_t len) : pStream(NULL), err(WMP_errSuccess) {
@@ -33,5 +237,50 @@ namespace jxrlib {
     throw FormatError("ERROR: Unable to initialize stream with bytes");
   }
 
+  Stream::Stream(InputSource *source, size_t windowSize)
+    : pStream(NULL), err(WMP_errSuccess) {
+    SourceState *state = NULL;
+    FailIf(windowSize == 0, WMP_errInvalidArgument);
+    state = new SourceState(source, windowSize);
+    Call(PKAlloc((void **) &pStream, sizeof(*pStream)));
+    pStream->state.pvObj = state;
+    pStream->Close = closeSource;
+    pStream->EOS = eosSource;
+    pStream->Read = readSource;
+    pStream->Write = writeSource;
+    pStream->SetPos = setSourcePosition;
+    pStream->GetPos = getSourcePosition;
+    return;
+  Cleanup:
+    if (state) {
+      delete state;
+    } else {
+      delete source;
+    }
+    throw FormatError("ERROR: Unable to initialize stream with source");
+  }
+
+  Stream::Stream(MemoryOutput *output) : pStream(NULL), err(WMP_errSuccess) {
+    Call(PKAlloc((void **) &pStream, sizeof(*pStream)));
+    pStream->state.pvObj = output;
+    pStream->Close = closeOutputStream;
+    pStream->EOS = eosOutputStream;
+    pStream->Read = readOutputStream;
+    pStream->Write = writeOutputStream;
+    pStream->SetPos = setPosOutputStream;
+    pStream->GetPos = getPosOutputStream;
+    return;
+  Cleanup:
+    throw FormatError("ERROR: Unable to create output stream.");
+  }
+
+  std::string Stream::takeSourceError(struct WMPStream *pStream) {
+    std::string error;
+    if (pStream && pStream->Close == closeSource) {
+      error.swap(getState(pStream)->error);
+    }
+    return error;
+  }
+
 } // namespace jxrlib
 
@@ -19,13 +19,27 @@
  */
 #pragma once
 
+#include <string>
 #include <vector>
 
+#include "InputSource.hpp"
 #include "JXRGlue.h"
 #include "windowsmediaphoto.h"
 
 namespace jxrlib {
 
+  // Output of a memory stream; either a fixed caller supplied buffer or
+  // a vector grown as data is written.  The codecs do not check every
+  // write, so writes past the end of a fixed buffer are recorded.
+  struct MemoryOutput {
+    std::vector<unsigned char> *growable;
+    unsigned char *fixed;
+    size_t capacity;
+    size_t position;
+    size_t size;
+    bool overflow;
+  };
+
   struct Stream {
     struct WMPStream *pStream;
     ERR err;
@@ -34,6 +48,18 @@ namespace jxrlib {
     // PKImageDecode_Release
     //~Stream();
     Stream(unsigned char *bytes, size_t len);
+    // Read from the given source through read-ahead windows of the given
+    // size.  The stream takes ownership of the source and deletes it when
+    // the stream is closed.
+    Stream(InputSource *source, size_t windowSize);
+    // Write to the given memory output, which must outlive the stream.
+    // Closing the stream leaves the output intact.
+    Stream(MemoryOutput *output);
+    // Message of the last error reading from the source of the given
+    // stream, which is cleared, or an empty string if there was none or
+    // the stream does not read from a source.  The codec does not check
+    // every read, so errors are recorded to be checked once it is done.
+    static std::string takeSourceError(struct WMPStream *pStream);
   };
 
 } // namespace jxrlib
@@ -1112,7 +1112,7 @@ Int DecodeMacroblockDC(CWMImageStrCodec * pSC, CCodingContext *pContext, Int iMB
 
     UpdateModelMB (cf, iChannels, aLaplacianMean, &(pContext->m_aModelDC));
     
-    if(((!(pSC->WMISCP.bfBitstreamFormat != FREQUENCY || pSC->m_Dparam->cThumbnailScale < 16)) || pSC->WMISCP.sbSubband == SB_DC_ONLY) && pSC->m_bResetContext){
+    if(((!(pSC->WMISCP.bfBitstreamFormat != FREQUENCY || (pSC->m_Dparam->cThumbnailScale < 16 && pSC->WMII.sbSubband != SB_DC_ONLY))) || pSC->WMISCP.sbSubband == SB_DC_ONLY) && pSC->m_bResetContext){
         Int kk;
         for (kk = 2; kk < 5; kk++) {
             if (ICERR_OK != AdaptDecFixed (pContext->m_pAHexpt[kk])) {
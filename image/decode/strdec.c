@@ -316,8 +316,13 @@ Int processMacroblockDec(CWMImageStrCodec * pSC)
     // Int iQIndex = 0;
     ERR_CODE result = ICERR_OK;
     size_t j, jend = (pSC->m_pNextSC != NULL);
+    CWMDecoderStageTimes * pTimes = pSC->WMISCP.pStageTimes;
+    Double dStart = 0;
 
     for (j = 0; j <= jend; j++) {
+        if(pTimes != NULL)
+            dStart = pTimes->GetTime();
+
         if(!bottomORright){
             CCodingContext *pContext;
             
@@ -373,6 +378,12 @@ Int processMacroblockDec(CWMImageStrCodec * pSC)
             }
         }
 
+        if(pTimes != NULL){
+            Double dNow = pTimes->GetTime();
+            pTimes->dEntropyDecode += dNow - dStart;
+            dStart = dNow;
+        }
+
         if((!pSC->m_Dparam->bDecodeFullFrame) &&
             ((pSC->cColumn * 16 > pSC->m_Dparam->cROIRightX  + 25) || (pSC->cColumn * 16 + 25 < pSC->m_Dparam->cROILeftX)
             || (pSC->cRow * 16 > pSC->m_Dparam->cROIBottomY + 25) || (pSC->cRow * 16 + 25 < pSC->m_Dparam->cROITopY)))
@@ -383,6 +394,9 @@ Int processMacroblockDec(CWMImageStrCodec * pSC)
             pSC->Transform(pSC);
         }
 
+        if(pTimes != NULL)
+            pTimes->dInverseTransform += pTimes->GetTime() - dStart;
+
         if (jend) {
             pSC->m_pNextSC->cRow = pSC->cRow;
             pSC->m_pNextSC->cColumn = pSC->cColumn;
@@ -2675,10 +2689,12 @@ Void setROI(CWMImageStrCodec* pSC)
     while(pSC->m_Dparam->cThumbnailScale * pWMII->cThumbnailWidth < pWMII->cWidth)
         pSC->m_Dparam->cThumbnailScale <<= 1;
     if(pSC->WMISCP.bfBitstreamFormat == FREQUENCY){
-        if(pSC->m_Dparam->cThumbnailScale >= 4)
+        if(pSC->m_Dparam->cThumbnailScale >= 4 || pWMII->sbSubband == SB_NO_HIGHPASS || pWMII->sbSubband == SB_DC_ONLY)
             pSC->m_Dparam->bDecodeHP = FALSE;  // no need to decode HP
-        if(pSC->m_Dparam->cThumbnailScale >= 16)
+        if(pSC->m_Dparam->cThumbnailScale >= 16 || pWMII->sbSubband == SB_DC_ONLY)
             pSC->m_Dparam->bDecodeLP = FALSE; // only need to decode DC
+        if(pWMII->sbSubband == SB_NO_FLEXBITS)
+            pSC->m_Dparam->bSkipFlexbits = TRUE;
     }
 
     // original image size
@@ -3216,6 +3232,58 @@ static Void InitializeStrDec(CWMImageStrCodec *pSC,
     pSC->m_bSecondary = FALSE;
 }
 
+/*************************************************************************
+  Decoder working memory, kept between decodes if pBuffers is not NULL
+*************************************************************************/
+static Void* TakeDecoderBuffer(CWMDecoderBuffers* pBuffers, Bool bAlpha,
+    size_t cb)
+{
+    void** ppv = NULL;
+    size_t* pcb = NULL;
+    void* pv = NULL;
+
+    if (pBuffers != NULL) {
+        ppv = bAlpha ? &pBuffers->pvAlpha : &pBuffers->pvPrimary;
+        pcb = bAlpha ? &pBuffers->cbAlpha : &pBuffers->cbPrimary;
+    }
+
+    if (ppv != NULL && *ppv != NULL && *pcb >= cb) {
+        pv = *ppv;
+        *ppv = NULL;
+        *pcb = 0;
+    }
+    else {
+        pv = malloc(cb);
+        if (pv == NULL)
+            return NULL;
+    }
+    memset(pv, 0, cb);
+
+    return pv;
+}
+
+static Void ReturnDecoderBuffer(CWMDecoderBuffers* pBuffers, Bool bAlpha,
+    void* pv, size_t cb)
+{
+    void** ppv = NULL;
+    size_t* pcb = NULL;
+
+    if (pBuffers != NULL) {
+        ppv = bAlpha ? &pBuffers->pvAlpha : &pBuffers->pvPrimary;
+        pcb = bAlpha ? &pBuffers->cbAlpha : &pBuffers->cbPrimary;
+    }
+
+    // keep the larger of the returned and the kept buffer
+    if (ppv != NULL && (*ppv == NULL || *pcb < cb)) {
+        free(*ppv);
+        *ppv = pv;
+        *pcb = cb;
+    }
+    else {
+        free(pv);
+    }
+}
+
 /*************************************************************************
   ImageStrDecInit
 *************************************************************************/
@@ -3287,15 +3355,15 @@ Int ImageStrDecInit(
     }
     cb += i * cMacBlock;
 
-    pb = malloc(cb);
+    pb = TakeDecoderBuffer(pSCP->pBuffers, FALSE, cb);
     if(pb == NULL)
         return WMP_errOutOfMemory;
-    memset(pb, 0, cb);
 
     //================================================
     pSC = (CWMImageStrCodec*)pb; pb += sizeof(*pSC);
     if(pSC == NULL)
         return ICERR_ERROR;
+    pSC->cbAllocation = cb;
 
     // Set up perf timers
     PERFTIMER_ONLY(pSC->m_fMeasurePerf = pSCP->fMeasurePerf);
@@ -3336,12 +3404,12 @@ Int ImageStrDecInit(
         //================================================
         cb = sizeof(*pNextSC) + (128 - 1) + cbMacBlockStride * cMacBlock * 2;
         // if primary image is safe to allocate, alpha channel is certainly safe
-        pb = malloc(cb);
+        pb = TakeDecoderBuffer(pSCP->pBuffers, TRUE, cb);
         if(pb == NULL)
             return WMP_errOutOfMemory;
-        memset(pb, 0, cb);
         //================================================
         pNextSC = (CWMImageStrCodec*)pb; pb += sizeof(*pNextSC);
+        pNextSC->cbAllocation = cb;
 
         // read plane header of second image plane
         Call(attach_SB(&SB, pSCP->pWStream));
@@ -3415,6 +3483,7 @@ Int ImageStrDecDecode(
 {
     CWMImageStrCodec* pSC = (CWMImageStrCodec*)ctxSC;
     CWMImageStrCodec* pNextSC = pSC->m_pNextSC;
+    CWMDecoderStageTimes* pTimes = pSC->WMISCP.pStageTimes;
     size_t cMBRow, k;
 
     ImageDataProc ProcessLeft, ProcessCenter, ProcessRight;
@@ -3559,6 +3628,8 @@ Int ImageStrDecDecode(
             return ICERR_ERROR;
 
         if (pSC->cRow) {
+            Double dStart = (pTimes != NULL ? pTimes->GetTime() : 0);
+
             if(pSC->m_Dparam->cThumbnailScale < 2 && (pSC->m_Dparam->bDecodeFullFrame || 
                 ((pSC->cRow * 16 > pSC->m_Dparam->cROITopY) && (pSC->cRow * 16 <= pSC->m_Dparam->cROIBottomY + 16)))) {
                 if( pSC->Load(pSC) != ICERR_OK ) // bypass CC for thumbnail decode
@@ -3567,6 +3638,9 @@ Int ImageStrDecDecode(
 
             if(pSC->m_Dparam->cThumbnailScale >= 2) // decode thumbnail
                 decodeThumbnail(pSC);
+
+            if(pTimes != NULL)
+                pTimes->dColorConversion += pTimes->GetTime() - dStart;
         }
 
         advanceOneMBRow(pSC);
@@ -3621,8 +3695,19 @@ Int ImageStrDecTerm(
     PERFTIMER_DELETE(pSC->m_fMeasurePerf, pSC->m_ptEncDecPerf);
     PERFTIMER_DELETE(pSC->m_fMeasurePerf, pSC->m_ptEndToEndPerf);
 
-    free(pSC);
+    if (pSC->m_pNextSC != NULL)
+        ReturnDecoderBuffer(pSC->WMISCP.pBuffers, TRUE,
+            pSC->m_pNextSC, pSC->m_pNextSC->cbAllocation);
+    ReturnDecoderBuffer(pSC->WMISCP.pBuffers, FALSE, pSC, pSC->cbAllocation);
 
     return ICERR_OK;
 }
 
+Void ImageStrDecFreeBuffers(
+    CWMDecoderBuffers* pBuffers)
+{
+    free(pBuffers->pvPrimary);
+    free(pBuffers->pvAlpha);
+    memset(pBuffers, 0, sizeof(*pBuffers));
+}
+
@@ -849,7 +849,9 @@ Int WriteWMIHeader(CWMImageStrCodec * pSC)
 // 8
     /** codec version and subversion **/
     PUTBITS(pIO, CODEC_VERSION, 4);  // this should be changed to "profile" in RTM
-    if (pSC->WMISCP.bUseHardTileBoundaries)
+    if (pCoreParam->bTranscode && pCoreParam->cSubVersion == CODEC_SUBVERSION)
+        PUTBITS(pIO, CODEC_SUBVERSION, 4); // transcoded coefficients need the transform operators of the source
+    else if (pSC->WMISCP.bUseHardTileBoundaries)
         PUTBITS(pIO, CODEC_SUBVERSION_NEWSCALING_HARD_TILES, 4);
     else
         PUTBITS(pIO, CODEC_SUBVERSION_NEWSCALING_SOFT_TILES, 4);
@@ -471,6 +471,9 @@ typedef struct CWMImageStrCodec {
 
     // postproc information for 2 MB rows: 0(previous row) 1(current row)
     struct tagPostProcInfo * pPostProcInfo[MAX_CHANNELS][2];
+
+    // size of the decoder allocation that starts with this struct
+    size_t cbAllocation;
 } CWMImageStrCodec;
 
 
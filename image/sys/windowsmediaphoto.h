@@ -353,8 +353,30 @@ typedef struct tagCWMImageInfo {
 
     // user buffer is always padded to whole MB
     Bool fPaddedUserBuffer;
+
+    // subband limited decode; frequency ordered bitstreams skip the
+    // packets of subbands above this level, spatial ones decode them all
+    SUBBAND sbSubband;
 } CWMImageInfo;
 
+// working memory kept by a decoder between decodes, so that decoding
+// many images of similar size does not allocate it for every one
+typedef struct tagCWMDecoderBuffers {
+    void* pvPrimary;    // image or planar alpha codec context
+    size_t cbPrimary;
+    void* pvAlpha;      // interleaved alpha codec context
+    size_t cbAlpha;
+} CWMDecoderBuffers;
+
+// time spent by the decoder in each stage, in units of GetTime()
+typedef struct tagCWMDecoderStageTimes {
+    Double (*GetTime)(Void);    // monotonic clock
+
+    Double dEntropyDecode;      // entropy decoding, prediction and dequantization
+    Double dInverseTransform;   // inverse transform and overlap filtering
+    Double dColorConversion;    // inverse color conversion and output of MB rows
+} CWMDecoderStageTimes;
+
 typedef struct tagCWMIStrCodecParam {
     Bool bVerbose;
 
@@ -404,6 +426,13 @@ typedef struct tagCWMIStrCodecParam {
    
     // Perf measurement
     Bool fMeasurePerf;
+
+    // decoder working memory is taken from and returned to these if not
+    // NULL, instead of being allocated and freed for every decode
+    struct tagCWMDecoderBuffers* pBuffers;
+
+    // decoder stage times are added to these if not NULL
+    struct tagCWMDecoderStageTimes* pStageTimes;
 } CWMIStrCodecParam;
 
 typedef struct tagCWMImageBufferInfo {
@@ -461,6 +490,9 @@ EXTERN_C Int ImageStrDecDecode(
 EXTERN_C Int ImageStrDecTerm(
     CTXSTRCODEC ctxSC);
 
+EXTERN_C Void ImageStrDecFreeBuffers(
+    CWMDecoderBuffers* pBuffers);
+
 EXTERN_C Int WMPhotoValidate(
     CWMImageInfo * pII,
     CWMIStrCodecParam * pSCP);
@@ -5,6 +5,7 @@
 %include arrays_java.i
 %include various.i
 %{
+  #include "BitstreamTranscoder.hpp"
   #include "CodecFactory.hpp"
   #include "DecodeContext.hpp"
   #include "Factory.hpp"
@@ -12,8 +13,99 @@
   #include "FormatError.hpp"
   #include "ImageDecoder.hpp"
   #include "ImageEncoder.hpp"
+  #include "ImageInfo.hpp"
+  #include "InputSource.hpp"
+  #include "MemoryEncoder.hpp"
+  #include "MemoryTranscoder.hpp"
   #include "Resolution.hpp"
   #include "Stream.hpp"
+
+  /*
+   * Input source that calls StreamSource.read(long, ByteBuffer) to fill
+   * the stream's windows, from whichever Java thread is decoding.  The
+   * source object is held by a global reference until the stream is
+   * closed.
+   */
+  class JavaInputSource : public jxrlib::InputSource {
+    JavaVM *vm;
+    jobject source;
+    jmethodID readMethod;
+    jmethodID toStringMethod;
+
+    JNIEnv *getEnv() {
+      void *env = NULL;
+      if (vm->GetEnv(&env, JNI_VERSION_1_6) != JNI_OK) {
+        throw jxrlib::FormatError(
+          "ERROR: Input source read from an unattached thread");
+      }
+      return (JNIEnv *) env;
+    }
+
+  public:
+    JavaInputSource(JNIEnv *jenv, jobject source)
+      : vm(NULL), source(NULL), readMethod(NULL), toStringMethod(NULL) {
+      jclass sourceClass = jenv->GetObjectClass(source);
+      jclass objectClass = jenv->FindClass("java/lang/Object");
+      if (jenv->GetJavaVM(&vm) != JNI_OK || !sourceClass || !objectClass) {
+        jenv->ExceptionClear();
+        throw jxrlib::FormatError("ERROR: Unable to access input source");
+      }
+      readMethod = jenv->GetMethodID(
+        sourceClass, "read", "(JLjava/nio/ByteBuffer;)I");
+      toStringMethod = jenv->GetMethodID(
+        objectClass, "toString", "()Ljava/lang/String;");
+      if (!readMethod || !toStringMethod) {
+        jenv->ExceptionClear();
+        throw jxrlib::FormatError("ERROR: Unable to access input source");
+      }
+      this->source = jenv->NewGlobalRef(source);
+    }
+
+    ~JavaInputSource() {
+      void *env = NULL;
+      if (vm->GetEnv(&env, JNI_VERSION_1_6) == JNI_OK) {
+        ((JNIEnv *) env)->DeleteGlobalRef(source);
+      }
+    }
+
+    size_t read(size_t position, unsigned char *buffer, size_t length) {
+      JNIEnv *jenv = getEnv();
+      jobject window = jenv->NewDirectByteBuffer(buffer, (jlong) length);
+      jint count = -1;
+      if (window) {
+        count = jenv->CallIntMethod(
+          source, readMethod, (jlong) position, window);
+        jenv->DeleteLocalRef(window);
+      }
+      jthrowable exception = jenv->ExceptionOccurred();
+      if (exception) {
+        // the exception cannot propagate through the codec, so its
+        // description becomes the error message
+        jenv->ExceptionClear();
+        std::string msg = "ERROR: Unable to read from input source";
+        jstring description = (jstring) jenv->CallObjectMethod(
+          exception, toStringMethod);
+        if (jenv->ExceptionCheck()) {
+          jenv->ExceptionClear();
+          description = NULL;
+        }
+        if (description) {
+          const char *chars = jenv->GetStringUTFChars(description, NULL);
+          if (chars) {
+            msg = msg + ": " + chars;
+            jenv->ReleaseStringUTFChars(description, chars);
+          }
+          jenv->DeleteLocalRef(description);
+        }
+        jenv->DeleteLocalRef(exception);
+        throw jxrlib::FormatError(msg);
+      }
+      if (!window) {
+        throw jxrlib::FormatError("ERROR: Unable to read from input source");
+      }
+      return count < 0 ? 0 : (size_t) count;
+    }
+  };
 %}
 
 %pragma(java) moduleclassmodifiers="class"
@@ -48,6 +140,27 @@ namespace jxrlib {
     return $null;
   }
 
+  %typemap(javaclassmodifiers) BitstreamTranscoder "class"
+  %apply unsigned char *NIOBUFFER { unsigned char *destination };
+  class BitstreamTranscoder {
+  public:
+    BitstreamTranscoder();
+    void setRegion(size_t x,
+                   size_t y,
+                   size_t width,
+                   size_t height) throw(FormatError);
+    void clearRegion();
+    void setOrientation(unsigned int orientation) throw(FormatError);
+    void setSubband(unsigned int subband) throw(FormatError);
+    void setDropAlpha(bool dropAlpha);
+    size_t transcode(jxrlib::ImageDecoder& decoder) throw(FormatError);
+    size_t transcode(jxrlib::ImageDecoder& decoder,
+                     unsigned char *destination,
+                     size_t capacity) throw(FormatError);
+    size_t getTranscodedSize();
+    void getTranscodedBytes(unsigned char *destination);
+  };
+
   %typemap(javaclassmodifiers) CodecFactory "class"
   class CodecFactory {
   public:
@@ -62,6 +175,19 @@ namespace jxrlib {
       std::string extension) throw(FormatError);
   };
 
+  %typemap(in, numinputs=0) JNIEnv *jenv "$1 = jenv;"
+  %typemap(jstype) jobject source "StreamSource"
+  %typemap(jtype) jobject source "StreamSource"
+  %extend CodecFactory {
+    void decoderFromSource(jxrlib::ImageDecoder& decoder,
+                           JNIEnv *jenv,
+                           jobject source,
+                           size_t windowSize) throw(FormatError) {
+      $self->decoderFromSource(
+        decoder, new JavaInputSource(jenv, source), windowSize);
+    }
+  };
+
   %typemap(javaclassmodifiers) Factory "class"
   class Factory {
   public:
@@ -77,15 +203,82 @@ namespace jxrlib {
   public:
     void initialize() throw(FormatError);
     unsigned int getFrameCount() throw(FormatError);
+    unsigned int getFrame();
     void selectFrame(unsigned int frameNum) throw(FormatError);
     GUID getGUIDPixFormat();
     bool getBlackWhite();
     bool isBGR();
     size_t getWidth();
     size_t getHeight();
+    size_t getImageWidth();
+    size_t getImageHeight();
+    size_t getRegionX();
+    size_t getRegionY();
+    void setRegion(size_t x,
+                   size_t y,
+                   size_t width,
+                   size_t height) throw(FormatError);
+    void clearRegion();
+    size_t getScale();
+    void setScale(size_t scale) throw(FormatError);
+    unsigned int getQuality();
+    void setQuality(unsigned int quality) throw(FormatError);
+    size_t getTileColumnCount();
+    size_t getTileRowCount();
+    size_t getTileX(size_t column) throw(FormatError);
+    size_t getTileY(size_t row) throw(FormatError);
     size_t getBytesPerPixel();
+    size_t getChannelCount();
+    size_t getBytesPerSample() throw(FormatError);
+    bool hasAlpha();
+    bool hasPlanarAlpha();
     jxrlib::Resolution getResolution() throw(FormatError);
     void getRawBytes(unsigned char *NIOBUFFER) throw(FormatError);
+    void getRawBytes(unsigned char *NIOBUFFER,
+                     size_t stride) throw(FormatError);
+    size_t getOutputBytesPerPixel(int format) throw(FormatError);
+    void getConvertedBytes(unsigned char *NIOBUFFER,
+                           size_t stride,
+                           int format) throw(FormatError);
+    void getPlanarBytes(unsigned char *NIOBUFFER,
+                        size_t planeSize,
+                        size_t firstChannel,
+                        size_t channelCount) throw(FormatError);
+    void beginStrips() throw(FormatError);
+    size_t decodeStrip(unsigned char *NIOBUFFER,
+                       size_t stride,
+                       size_t lines) throw(FormatError);
+    bool getMeasureStages();
+    void setMeasureStages(bool measure);
+    void resetStageTimes();
+    double getHeaderTime();
+    double getEntropyDecodeTime();
+    double getInverseTransformTime();
+    double getColorConversionTime();
+  };
+
+  %typemap(javaclassmodifiers) ImageInfo "class"
+  class ImageInfo {
+  public:
+    ImageInfo();
+    void probe(unsigned char *NIOBUFFER,
+               size_t offset,
+               size_t length) throw(FormatError);
+    GUID getPixelFormat();
+    size_t getWidth();
+    size_t getHeight();
+    size_t getBytesPerPixel();
+    bool isBGR();
+    bool hasAlpha();
+    bool hasColorProfile();
+    bool hasXMPMetadata();
+    size_t getTileColumnCount();
+    size_t getTileRowCount();
+    size_t getTileX(size_t column) throw(FormatError);
+    size_t getTileY(size_t row) throw(FormatError);
+    unsigned int getFrameCount();
+    float getResolutionX();
+    float getResolutionY();
   };
 
   %typemap(javaclassmodifiers) ImageEncoder "class"
@@ -97,6 +290,49 @@ namespace jxrlib {
     void close();
   };
 
+  %typemap(javaclassmodifiers) MemoryEncoder "class"
+  %apply unsigned char *NIOBUFFER { unsigned char *pixels,
+                                    unsigned char *destination };
+  class MemoryEncoder {
+  public:
+    MemoryEncoder();
+    void setPixelFormat(GUID pixelFormat) throw(FormatError);
+    GUID getPixelFormat();
+    size_t getMinimumStride(size_t width);
+    void setQuality(float quality) throw(FormatError);
+    void setQuantization(unsigned int quantization) throw(FormatError);
+    void setTileSize(size_t tileWidth, size_t tileHeight) throw(FormatError);
+    size_t encode(unsigned char *pixels,
+                  size_t width,
+                  size_t height,
+                  size_t stride) throw(FormatError);
+    size_t encode(unsigned char *pixels,
+                  size_t width,
+                  size_t height,
+                  size_t stride,
+                  unsigned char *destination,
+                  size_t capacity) throw(FormatError);
+    size_t getEncodedSize();
+    void getEncodedBytes(unsigned char *destination);
+  };
+
+  %typemap(javaclassmodifiers) MemoryTranscoder "class"
+  %apply unsigned char *NIOBUFFER { unsigned char *destination };
+  class MemoryTranscoder {
+  public:
+    MemoryTranscoder();
+    size_t transcode(jxrlib::ImageDecoder& decoder,
+                     std::string format) throw(FormatError);
+    size_t transcode(jxrlib::ImageDecoder& decoder,
+                     std::string format,
+                     unsigned char *destination,
+                     size_t capacity) throw(FormatError);
+    size_t getTranscodedSize();
+    void getTranscodedBytes(unsigned char *destination,
+                            size_t offset,
+                            size_t length) throw(FormatError);
+  };
+
   %typemap(javaclassmodifiers) Resolution "class"
   struct Resolution {};
 
@@ -127,3 +363,149 @@ namespace jxrlib {
                                   size_t *size) throw(FormatError);
   };
 }
+
+%{
+  /*
+   * Decode the first frame of the JPEG-XR data in a Java byte array
+   * directly into another byte array.  Both arrays are pinned with
+   * critical sections instead of being copied, so no other JNI calls
+   * may be made until they are released; exceptions are therefore only
+   * thrown once both arrays have been released.  Returns the decoded
+   * size, which is all that is computed if the destination is null or
+   * too small.
+   */
+  extern "C" SWIGEXPORT jlong JNICALL Java_ome_jxrlib_JXRJNI_decodeInto(
+      JNIEnv *jenv, jclass jcls, jbyteArray source, jlong offset,
+      jlong length, jbyteArray destination, jlong destinationOffset) {
+    (void)jcls;
+    size_t capacity = 0;
+    if (destination) {
+      capacity = jenv->GetArrayLength(destination) - destinationOffset;
+    }
+
+    char *sourceBytes =
+      (char *) jenv->GetPrimitiveArrayCritical(source, NULL);
+    if (!sourceBytes) {
+      return 0;
+    }
+    char *destinationBytes = NULL;
+    if (destination) {
+      destinationBytes =
+        (char *) jenv->GetPrimitiveArrayCritical(destination, NULL);
+      if (!destinationBytes) {
+        jenv->ReleasePrimitiveArrayCritical(source, sourceBytes, JNI_ABORT);
+        return 0;
+      }
+    }
+
+    size_t size = 0;
+    std::string error;
+    try {
+      jxrlib::DecodeContext decodeContext;
+      size = decodeContext.decodeInto(
+        sourceBytes, offset, length,
+        destinationBytes ? destinationBytes + destinationOffset : NULL,
+        capacity);
+    } catch (std::exception &e) {
+      error = e.what();
+    } catch (...) {
+      error = "ERROR: Unable to decode";
+    }
+
+    if (destinationBytes) {
+      jenv->ReleasePrimitiveArrayCritical(destination, destinationBytes, 0);
+    }
+    jenv->ReleasePrimitiveArrayCritical(source, sourceBytes, JNI_ABORT);
+
+    if (!error.empty()) {
+      jclass exception = jenv->FindClass("ome/jxrlib/FormatError");
+      if (exception) {
+        jenv->ThrowNew(exception, error.c_str());
+      }
+      return 0;
+    }
+    return (jlong) size;
+  }
+%}
+%native(decodeInto) jlong decodeInto(jbyteArray source,
+                                     jlong offset,
+                                     jlong length,
+                                     jbyteArray destination,
+                                     jlong destinationOffset);
+
+%{
+  /*
+   * Decode a batch of tiles of JPEG-XR data in one directly allocated
+   * buffer into another, on up to the given number of native threads.
+   * Both buffers are accessed directly, so the threads run without
+   * holding any JNI resources.  The status of each tile is returned
+   * rather than thrown, so that one invalid tile does not fail the
+   * batch; the arrays are expected to be of equal length.
+   */
+  extern "C" SWIGEXPORT jintArray JNICALL Java_ome_jxrlib_JXRJNI_decodeBatch(
+      JNIEnv *jenv, jclass jcls, jobject source, jintArray offsets,
+      jintArray lengths, jobject destination, jintArray destinationOffsets,
+      jint threads) {
+    (void)jcls;
+    unsigned char *sourceBytes =
+      (unsigned char *) jenv->GetDirectBufferAddress(source);
+    unsigned char *destinationBytes =
+      (unsigned char *) jenv->GetDirectBufferAddress(destination);
+    if (!sourceBytes || !destinationBytes) {
+      jclass exception = jenv->FindClass("ome/jxrlib/FormatError");
+      if (exception) {
+        jenv->ThrowNew(exception, "ERROR: Buffers must be allocated direct");
+      }
+      return NULL;
+    }
+
+    jsize count = jenv->GetArrayLength(offsets);
+    jintArray status = jenv->NewIntArray(count);
+    if (!status || count == 0) {
+      return status;
+    }
+    // jint is not int on every platform
+    std::vector<jint> values(3 * (size_t) count);
+    jenv->GetIntArrayRegion(offsets, 0, count, &values[0]);
+    jenv->GetIntArrayRegion(lengths, 0, count, &values[count]);
+    jenv->GetIntArrayRegion(
+      destinationOffsets, 0, count, &values[2 * (size_t) count]);
+    if (jenv->ExceptionCheck()) {
+      return NULL;
+    }
+    std::vector<int> arguments(values.begin(), values.end());
+    std::vector<int> tileStatus(count);
+
+    jxrlib::DecodeContext decodeContext;
+    decodeContext.decodeBatch(
+      sourceBytes, (size_t) jenv->GetDirectBufferCapacity(source),
+      &arguments[0], &arguments[count],
+      destinationBytes, (size_t) jenv->GetDirectBufferCapacity(destination),
+      &arguments[2 * (size_t) count], count, threads > 1 ? threads : 1,
+      &tileStatus[0]);
+
+    std::vector<jint> statusValues(tileStatus.begin(), tileStatus.end());
+    jenv->SetIntArrayRegion(status, 0, count, &statusValues[0]);
+    return status;
+  }
+%}
+%native(decodeBatch) jintArray decodeBatch(jobject source,
+                                           jintArray offsets,
+                                           jintArray lengths,
+                                           jobject destination,
+                                           jintArray destinationOffsets,
+                                           jint threads);
+
+%{
+  /*
+   * Native address of a directly allocated buffer, or 0 if the buffer
+   * is not direct.  Only used to align pooled buffers.
+   */
+  extern "C" SWIGEXPORT jlong JNICALL
+  Java_ome_jxrlib_JXRJNI_directBufferAddress(
+      JNIEnv *jenv, jclass jcls, jobject buffer) {
+    (void)jcls;
+    return (jlong) (size_t) jenv->GetDirectBufferAddress(buffer);
+  }
+%}
+%native(directBufferAddress) jlong directBufferAddress(jobject buffer);
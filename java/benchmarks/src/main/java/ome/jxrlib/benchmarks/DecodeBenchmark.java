@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import ome.jxrlib.Decode;
+import ome.jxrlib.DecodeException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decodes whole images through each public decode entry point, so that
+ * the cost of the JNI and native layers around the codec is measured
+ * along with the codec itself.  Every benchmark constructs its own
+ * decoder, as an application decoding many images would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    /**
+     * Fixture to decode, relative to the fixture directory.  The first
+     * tiles cover 50%, 85% and lossless compression of a 587x246 RGB
+     * image and 85% and lossless compression of 690x690 and 2040x2040
+     * 16-bit images.
+     */
+    @Param({
+        "first-tiles/BF-1scene-nozstack-compression50pct.jxr",
+        "first-tiles/BF-1scene-nozstack-compression85pct.jxr",
+        "first-tiles/BF-1scene-nozstack-compressionlossless.jxr",
+        "first-tiles/FL_3channel_2scenes_noZ_compression85pct.jxr",
+        "first-tiles/FL_3channel_noZ_compression85pct.jxr",
+        "first-tiles/FL_3channel_noZ_compression_lossless.jxr",
+        "sample.jxr",
+        "sample-with-alpha.jxr"
+    })
+    public String fixture;
+
+    private File inputFile;
+    private byte[] data;
+    private ByteBuffer dataBuffer;
+    private ByteBuffer imageBuffer;
+
+    /**
+     * Output file for {@link DecodeBenchmark#toFile(Output)}, which is
+     * removed after every invocation as the decoder does not overwrite
+     * existing files.
+     */
+    @State(Scope.Thread)
+    public static class Output {
+
+        File outputFile;
+
+        @Setup
+        public void setup() throws IOException {
+            outputFile = File.createTempFile("jxrlib-benchmark", ".tif");
+            outputFile.delete();
+        }
+
+        @TearDown(Level.Invocation)
+        public void delete() {
+            outputFile.delete();
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException, DecodeException {
+        inputFile = Fixtures.get(fixture);
+        data = Files.readAllBytes(inputFile.toPath());
+        dataBuffer = ByteBuffer.allocateDirect(data.length);
+        dataBuffer.put(data);
+        try (Decode decode = new Decode(dataBuffer)) {
+            imageBuffer = ByteBuffer.allocateDirect((int) (decode.getWidth()
+                * decode.getHeight() * decode.getBytesPerPixel()));
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer decodeFile() throws DecodeException {
+        try (Decode decode = new Decode(inputFile)) {
+            decode.toBytes(imageBuffer);
+        }
+        return imageBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer decodeByteBuffer() throws DecodeException {
+        try (Decode decode = new Decode(dataBuffer)) {
+            decode.toBytes(imageBuffer);
+        }
+        return imageBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer decodeByteArray() throws DecodeException {
+        try (Decode decode = new Decode(data)) {
+            decode.toBytes(imageBuffer);
+        }
+        return imageBuffer;
+    }
+
+    @Benchmark
+    public byte[] decodeFirstFrame() {
+        return Decode.decodeFirstFrame(data, 0, data.length);
+    }
+
+    @Benchmark
+    public long toFile(Output output) {
+        try (Decode decode = new Decode(inputFile)) {
+            decode.toFile(output.outputFile);
+        }
+        return output.outputFile.length();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib.benchmarks;
+
+import java.io.File;
+
+/**
+ * Locates the JPEG-XR fixtures the benchmarks decode.  The fixture
+ * directory is the <code>fixtures</code> directory of the repository,
+ * which can be overridden with the <code>jxrlib.fixtures</code> system
+ * property.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * @param name path of a fixture relative to the fixture directory
+     * @return the fixture file
+     * @throws IllegalStateException if the fixture does not exist
+     */
+    static File get(String name) {
+        File directory = new File(
+            System.getProperty("jxrlib.fixtures", "../../fixtures"));
+        File fixture = new File(directory, name);
+        if (!fixture.isFile()) {
+            throw new IllegalStateException(String.format(
+                "Fixture %s does not exist; set jxrlib.fixtures to the " +
+                "fixtures directory of the repository.", fixture));
+        }
+        return fixture;
+    }
+}
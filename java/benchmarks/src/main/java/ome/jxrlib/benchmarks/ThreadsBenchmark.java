@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import ome.jxrlib.Decode;
+import ome.jxrlib.DecodeException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decodes whole images with tile-parallel decoding at increasing thread
+ * counts.  The fixtures are encoded with 3x1, 3x3 and 8x8 tiles, which
+ * bounds the number of bands that can be decoded concurrently.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadsBenchmark {
+
+    @Param({
+        "first-tiles/BF-1scene-nozstack-compression85pct.jxr",
+        "first-tiles/FL_3channel_2scenes_noZ_compression85pct.jxr",
+        "first-tiles/FL_3channel_noZ_compression85pct.jxr"
+    })
+    public String fixture;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ByteBuffer dataBuffer;
+    private ByteBuffer imageBuffer;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() throws IOException, DecodeException {
+        byte[] data = Files.readAllBytes(Fixtures.get(fixture).toPath());
+        dataBuffer = ByteBuffer.allocateDirect(data.length);
+        dataBuffer.put(data);
+        try (Decode decode = new Decode(dataBuffer)) {
+            imageBuffer = ByteBuffer.allocateDirect((int) (decode.getWidth()
+                * decode.getHeight() * decode.getBytesPerPixel()));
+        }
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Decode with a thread pool created for the decode.
+     */
+    @Benchmark
+    public ByteBuffer decodeThreads() throws DecodeException {
+        try (Decode decode = new Decode(dataBuffer)) {
+            decode.toBytes(imageBuffer, threads);
+        }
+        return imageBuffer;
+    }
+
+    /**
+     * Decode on a long-lived executor shared by every decode.
+     */
+    @Benchmark
+    public ByteBuffer decodeExecutor() throws DecodeException {
+        try (Decode decode = new Decode(dataBuffer)) {
+            decode.toBytes(imageBuffer, executor);
+        }
+        return imageBuffer;
+    }
+}
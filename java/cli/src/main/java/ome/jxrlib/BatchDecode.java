@@ -0,0 +1,485 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Decodes many files on a pool of threads, each any number of times, and
+ * reports the throughput, the latency of each decode and any decoded data
+ * that does not match its expected MD5.  Files are decoded in one JVM, so
+ * the native libraries are loaded once and the decoder is measured after
+ * warming up rather than per process.
+ * <p>
+ * Inputs are files, directories, which contribute every JPEG-XR file
+ * beneath them, globs such as <code>tiles/*&#47;*.jxr</code>, and list
+ * files prefixed with <code>@</code>.  Each line of a list file names a
+ * file, relative to the list file, optionally followed by whitespace and
+ * the MD5 of its decoded data; blank lines and lines starting with
+ * <code>#</code> are ignored.  Files without an expected MD5 are checked
+ * against their first decode.
+ */
+public class BatchDecode {
+
+    /** Way files are handed to the decoder. */
+    public enum Mode {
+
+        /** {@link Decode#Decode(File)}, reading the file natively. */
+        FILE,
+
+        /** {@link Decode#Decode(ByteBuffer)} over a memory mapped file. */
+        BUFFER,
+
+        /**
+         * {@link Decode#decodeInto(byte[], int, int, byte[], int)} from the
+         * file read into a byte array.
+         */
+        BYTES
+    }
+
+    /** Extensions of the files decoded from directories. */
+    private static final List<String> EXTENSIONS =
+        Arrays.asList(".jxr", ".wdp", ".hdp");
+
+    /** Characters that make an input a glob rather than a file name. */
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    /** MD5 at the end of a line of a list file. */
+    private static final Pattern LIST_MD5 =
+        Pattern.compile("\\s+([0-9a-fA-F]{32})$");
+
+    /** Number of mismatches and failures reported individually. */
+    private static final int MAX_REPORTED = 10;
+
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private static final double BYTES_PER_MEGABYTE = 1e6;
+
+    /** A file to decode and the MD5 its decoded data should have. */
+    private static final class Input {
+
+        final Path path;
+
+        final String md5;
+
+        Input(Path path, String md5) {
+            this.path = path;
+            this.md5 = md5;
+        }
+    }
+
+    /** Outcome of one decode. */
+    private static final class Result {
+
+        final Input input;
+
+        final long nanos;
+
+        final long bytesRead;
+
+        final long bytesDecoded;
+
+        final String md5;
+
+        Result(Input input, long nanos, long bytesRead, long bytesDecoded,
+               String md5) {
+            this.input = input;
+            this.nanos = nanos;
+            this.bytesRead = bytesRead;
+            this.bytesDecoded = bytesDecoded;
+            this.md5 = md5;
+        }
+    }
+
+    private final Mode mode;
+
+    private final int threads;
+
+    private final int repeat;
+
+    /** Stream the progress and the report of a batch are printed to. */
+    private final PrintStream report;
+
+    /** MD5 of the first decode of each file without an expected MD5. */
+    private final ConcurrentMap<Path, String> firstMd5 =
+        new ConcurrentHashMap<Path, String>();
+
+    /**
+     * @param mode way files are handed to the decoder; should be non-null
+     * @param threads number of threads decoding concurrently
+     * @param repeat number of times each file is decoded
+     */
+    public BatchDecode(Mode mode, int threads, int repeat) {
+        this(mode, threads, repeat, System.err);
+    }
+
+    /**
+     * @param mode way files are handed to the decoder; should be non-null
+     * @param threads number of threads decoding concurrently
+     * @param repeat number of times each file is decoded
+     * @param report stream to print the report to; should be non-null
+     */
+    public BatchDecode(Mode mode, int threads, int repeat,
+                       PrintStream report) {
+        if (threads < 1 || repeat < 1) {
+            throw new IllegalArgumentException(String.format(
+                "Threads %d and repeat %d must be positive.",
+                threads, repeat));
+        }
+        this.mode = mode;
+        this.threads = threads;
+        this.repeat = repeat;
+        this.report = report;
+    }
+
+    /**
+     * Decode every file given by the arguments and print a report to the
+     * report stream, standard error unless another was given.
+     *
+     * @param arguments files, directories, globs and <code>@</code>-prefixed
+     *        list files
+     * @return true if every decode succeeded and matched its expected MD5
+     * @throws IOException if an input cannot be listed or read
+     * @throws InterruptedException if interrupted while waiting for the
+     *         decodes to finish
+     */
+    public boolean run(List<String> arguments)
+            throws IOException, InterruptedException {
+        List<Input> inputs = new ArrayList<Input>();
+        for (String argument : arguments) {
+            expand(argument, inputs);
+        }
+        if (inputs.isEmpty()) {
+            report.println("No files to decode.");
+            return false;
+        }
+        report.println(String.format(
+            "Decoding %d files %d times on %d threads using %s",
+            inputs.size(), repeat, threads,
+            mode.name().toLowerCase(Locale.ROOT)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> futures = new ArrayList<Future<Result>>();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < repeat; i++) {
+                for (final Input input : inputs) {
+                    futures.add(executor.submit(new Callable<Result>() {
+                        @Override
+                        public Result call() throws Exception {
+                            return decode(input);
+                        }
+                    }));
+                }
+            }
+
+            List<Result> results = new ArrayList<Result>();
+            int failures = 0;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    if (++failures <= MAX_REPORTED) {
+                        Path path = inputs.get(i % inputs.size()).path;
+                        report.println(String.format(
+                            "FAILED %s: %s", path, e.getCause()));
+                    }
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            return report(results, failures, elapsed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Decode a file once and measure the decode.  The MD5 of the decoded
+     * data is computed after the decode is timed.
+     *
+     * @param input file to decode
+     * @return outcome of the decode
+     * @throws DecodeException if the file cannot be decoded
+     * @throws IOException if the file cannot be read
+     */
+    private Result decode(Input input) throws DecodeException, IOException {
+        long size = Files.size(input.path);
+        long start;
+        long nanos;
+        long decoded;
+        String md5;
+        switch (mode) {
+            case FILE:
+                start = System.nanoTime();
+                try (Decode decode = new Decode(input.path.toFile());
+                     DirectBufferPool.Lease lease = decode.toPooledBuffer()) {
+                    nanos = System.nanoTime() - start;
+                    decoded = lease.getBuffer().capacity();
+                    md5 = Main.md5(lease.getBuffer());
+                }
+                break;
+            case BUFFER:
+                ByteBuffer source;
+                try (FileChannel channel = FileChannel.open(input.path)) {
+                    source = channel.map(
+                        FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                start = System.nanoTime();
+                try (Decode decode = new Decode(source);
+                     DirectBufferPool.Lease lease = decode.toPooledBuffer()) {
+                    nanos = System.nanoTime() - start;
+                    decoded = lease.getBuffer().capacity();
+                    md5 = Main.md5(lease.getBuffer());
+                }
+                break;
+            default:
+                byte[] bytes = Files.readAllBytes(input.path);
+                start = System.nanoTime();
+                byte[] destination = new byte[
+                    Decode.getDecodedSize(bytes, 0, bytes.length)];
+                Decode.decodeInto(bytes, 0, bytes.length, destination, 0);
+                nanos = System.nanoTime() - start;
+                decoded = destination.length;
+                md5 = Main.md5(destination);
+                break;
+        }
+        return new Result(input, nanos, size, decoded, md5);
+    }
+
+    /**
+     * Print the report of a batch.
+     *
+     * @param results outcomes of the successful decodes
+     * @param failures number of decodes that failed
+     * @param elapsed wall clock time of the batch in nanoseconds
+     * @return true if there were no failures or MD5 mismatches
+     */
+    private boolean report(List<Result> results, int failures,
+                           long elapsed) {
+        long[] latencies = new long[results.size()];
+        long bytesRead = 0;
+        long bytesDecoded = 0;
+        int mismatches = 0;
+        for (int i = 0; i < latencies.length; i++) {
+            Result result = results.get(i);
+            latencies[i] = result.nanos;
+            bytesRead += result.bytesRead;
+            bytesDecoded += result.bytesDecoded;
+            String expected = result.input.md5;
+            if (expected == null) {
+                String first = firstMd5.putIfAbsent(
+                    result.input.path, result.md5);
+                expected = first == null ? result.md5 : first;
+            }
+            if (!expected.equalsIgnoreCase(result.md5)
+                    && ++mismatches <= MAX_REPORTED) {
+                report.println(String.format(
+                    "MISMATCH %s: decoded MD5 %s, expected %s",
+                    result.input.path, result.md5, expected));
+            }
+        }
+        Arrays.sort(latencies);
+        double seconds = elapsed / NANOS_PER_SECOND;
+
+        report.println(String.format(
+            "Decoded %d files in %.3f s", results.size(), seconds));
+        report.println(String.format(
+            "Throughput: %.1f files/s, %.1f MB/s decoded, %.1f MB/s read",
+            results.size() / seconds,
+            bytesDecoded / BYTES_PER_MEGABYTE / seconds,
+            bytesRead / BYTES_PER_MEGABYTE / seconds));
+        report.println(String.format(
+            "Latency: p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+            percentile(latencies, 50) / NANOS_PER_MILLI,
+            percentile(latencies, 99) / NANOS_PER_MILLI,
+            percentile(latencies, 100) / NANOS_PER_MILLI));
+        report.println(String.format(
+            "MD5 mismatches: %d, failures: %d", mismatches, failures));
+        return mismatches == 0 && failures == 0;
+    }
+
+    /**
+     * @param sorted values in ascending order
+     * @param percent percentile to find, between 0 and 100
+     * @return smallest value that is at least the given percentage of the
+     *         values, or 0 if there are none
+     */
+    static long percentile(long[] sorted, double percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Add the files given by an argument to the inputs.  Files found in
+     * directories and by globs are added in lexical order.
+     *
+     * @param argument file, directory, glob or <code>@</code>-prefixed
+     *        list file
+     * @param inputs list to add the files to
+     * @throws IOException if the argument cannot be listed or read
+     */
+    static void expand(String argument, List<Input> inputs)
+            throws IOException {
+        if (argument.startsWith("@")) {
+            readList(Paths.get(argument.substring(1)), inputs);
+            return;
+        }
+        int glob = indexOfGlob(argument);
+        if (glob >= 0) {
+            // walk from the deepest directory before the first wildcard
+            int separator = Math.max(argument.lastIndexOf('/', glob),
+                                     argument.lastIndexOf(File.separatorChar,
+                                                          glob));
+            Path base = Paths.get(
+                separator < 0 ? "" : argument.substring(0, separator + 1));
+            final PathMatcher matcher = FileSystems.getDefault()
+                .getPathMatcher("glob:" + argument.substring(separator + 1));
+            addFiles(base, inputs, new PathFilter() {
+                @Override
+                public boolean accept(Path base, Path path) {
+                    return matcher.matches(base.relativize(path));
+                }
+            });
+            return;
+        }
+        Path path = Paths.get(argument);
+        if (Files.isDirectory(path)) {
+            addFiles(path, inputs, new PathFilter() {
+                @Override
+                public boolean accept(Path base, Path path) {
+                    String name = path.getFileName().toString()
+                        .toLowerCase(Locale.ROOT);
+                    for (String extension : EXTENSIONS) {
+                        if (name.endsWith(extension)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+            });
+        } else {
+            inputs.add(new Input(path, null));
+        }
+    }
+
+    /** Selects the files found beneath a directory. */
+    private interface PathFilter {
+
+        /**
+         * @param base directory being walked
+         * @param path regular file beneath the directory
+         * @return true if the file should be decoded
+         */
+        boolean accept(Path base, Path path);
+    }
+
+    /**
+     * Add the regular files beneath a directory that the filter accepts.
+     *
+     * @param base directory to walk
+     * @param inputs list to add the files to
+     * @param filter filter selecting the files
+     * @throws IOException if the directory cannot be walked
+     */
+    private static void addFiles(final Path base, List<Input> inputs,
+                                 PathFilter filter) throws IOException {
+        List<Path> paths = new ArrayList<Path>();
+        try (Stream<Path> walk = Files.walk(base)) {
+            for (Path path : walk.collect(Collectors.toList())) {
+                if (Files.isRegularFile(path) && filter.accept(base, path)) {
+                    paths.add(path);
+                }
+            }
+        }
+        Collections.sort(paths);
+        for (Path path : paths) {
+            inputs.add(new Input(path, null));
+        }
+    }
+
+    /**
+     * Add the files named by a list file.
+     *
+     * @param list file listing a file and optional MD5 on each line
+     * @param inputs list to add the files to
+     * @throws IOException if the list file cannot be read
+     */
+    private static void readList(Path list, List<Input> inputs)
+            throws IOException {
+        Path directory = list.toAbsolutePath().getParent();
+        for (String line : Files.readAllLines(list, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            // file names may contain spaces, MD5s cannot
+            String md5 = null;
+            Matcher matcher = LIST_MD5.matcher(line);
+            if (matcher.find()) {
+                md5 = matcher.group(1);
+                line = line.substring(0, matcher.start());
+            }
+            inputs.add(new Input(directory.resolve(line), md5));
+        }
+    }
+
+    /**
+     * @param argument argument to search
+     * @return index of the first wildcard in the argument, or -1 if none
+     */
+    private static int indexOfGlob(String argument) {
+        for (int i = 0; i < argument.length(); i++) {
+            if (GLOB_CHARACTERS.indexOf(argument.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -18,7 +18,6 @@
 
 package ome.jxrlib;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -68,26 +67,58 @@ public class Main {
     @Option(name="--in-memory-bytes")
     private boolean inMemoryBytes;
 
+    @Option(name="--rows-per-strip",
+            usage="decode in strips of this many rows to bound memory use")
+    private int rowsPerStrip;
+
+    @Option(name="--batch",
+            usage="decode every file given by the arguments, which may be "
+                + "directories, globs or @-prefixed list files, and report "
+                + "throughput, latency and MD5 mismatches")
+    private boolean batch;
+
+    @Option(name="--threads",
+            usage="number of threads decoding concurrently in batch mode")
+    private int threads = 1;
+
+    @Option(name="--repeat",
+            usage="number of times each file is decoded in batch mode")
+    private int repeat = 1;
+
     @Argument
     private List<String> arguments = new ArrayList<String>();
 
     public static void main(String args[])
-            throws DecodeException, IOException, CmdLineException {
-      new Main().go(args);
+            throws DecodeException, IOException, CmdLineException,
+                   InterruptedException {
+      int status = new Main().go(args);
+      if (status != 0) {
+        System.exit(status);
+      }
     }
 
-    public void go(String args[])
-            throws DecodeException, IOException, CmdLineException {
+    /**
+     * @param args command line arguments
+     * @return exit status, non-zero if a batch decode had any MD5
+     *         mismatches or failures
+     */
+    public int go(String args[])
+            throws DecodeException, IOException, CmdLineException,
+                   InterruptedException {
         CmdLineParser parser = new CmdLineParser(this);
         try {
             parser.parseArgument(args);
+            if (threads < 1 || repeat < 1) {
+                throw new CmdLineException(
+                    parser, "--threads and --repeat must be positive");
+            }
         } catch (CmdLineException e) {
             System.err.println(e.getMessage());
             System.err.println("cli [options...] arguments...");
             parser.printUsage(System.err);
             System.err.println();
 
-            return;
+            return 0;
         }
 
         Decode decode;
@@ -98,31 +129,31 @@ public class Main {
             root.setLevel(Level.DEBUG);
         }
 
+        if (batch) {
+            BatchDecode.Mode mode = inMemoryBytes ? BatchDecode.Mode.BYTES
+                : inMemory ? BatchDecode.Mode.BUFFER : BatchDecode.Mode.FILE;
+            // fail acceptance runs on any mismatch or failure
+            return new BatchDecode(mode, threads, repeat).run(arguments)
+                ? 0 : 1;
+        }
+
         if (arguments.isEmpty()) {
-            ByteArrayOutputStream readData = new ByteArrayOutputStream();
-            byte[] buffer = new byte[32 * 1024];
+            // decode while standard input is still being read
+            decode = new Decode(System.in);
 
-            int bytesRead;
-            while ((bytesRead = System.in.read(buffer)) > 0) {
-                readData.write(buffer, 0, bytesRead);
+            System.err.println("Opened decoder for standard input...");
+            try (DirectBufferPool.Lease lease = decode.toPooledBuffer()) {
+                System.err.println(
+                    "Decoded bytes MD5: " + md5(lease.getBuffer()));
             }
-            byte[] bytes = readData.toByteArray();
-
-            decode = new Decode(bytes);
-            ByteBuffer imageBuffer = allocateBuffer(decode);
-
-            System.err.println("Opened decoder for bytes...");
-            decode.toBytes(imageBuffer);
-            System.err.println("Decoded bytes MD5: " + md5(imageBuffer));
         } else if (inMemory || inMemoryBytes) {
             String inputFilename = arguments.get(0);
             System.err.println("input file = " + inputFilename);
             ByteBuffer inputBuffer;
             try (FileChannel channel = FileChannel.open(
                     Paths.get(inputFilename))) {
-              inputBuffer = ByteBuffer.allocateDirect((int) channel.size());
-              channel.read(inputBuffer);
-              channel.position(0);
+              inputBuffer = channel.map(
+                  FileChannel.MapMode.READ_ONLY, 0, channel.size());
             }
 
             System.err.println(
@@ -132,19 +163,24 @@ public class Main {
                 byte[] source = new byte[inputBuffer.capacity()];
                 inputBuffer.position(0);
                 inputBuffer.get(source);
-                byte[] destination = Decode.decodeFirstFrame(
-                    source, 0, source.length);
+                byte[] destination = new byte[
+                    Decode.getDecodedSize(source, 0, source.length)];
+                Decode.decodeInto(source, 0, source.length, destination, 0);
                 System.err.println(
                         "Decoded bytes MD5: " + md5(destination));
-                return;
+                return 0;
             }
             decode = new Decode(inputBuffer);
-            if (arguments.size() == 1) {
-                ByteBuffer imageBuffer = allocateBuffer(decode);
-                System.err.println("Decoding using NIO byte buffers");
-                decode.toBytes(imageBuffer);
+            if (arguments.size() == 1 && rowsPerStrip > 0) {
+                System.err.println("Decoding in strips");
                 System.err.println(
-                    "Decoded bytes MD5: " + md5(imageBuffer));
+                    "Decoded bytes MD5: " + stripMd5(decode));
+            } else if (arguments.size() == 1) {
+                System.err.println("Decoding using NIO byte buffers");
+                try (DirectBufferPool.Lease lease = decode.toPooledBuffer()) {
+                    System.err.println(
+                        "Decoded bytes MD5: " + md5(lease.getBuffer()));
+                }
             } else if (arguments.size() == 2) {
                 decode.toFile(new File(arguments.get(1)));
             } else {
@@ -156,31 +192,48 @@ public class Main {
             File inputFile = new File(inputFilename);
 
             decode = new Decode(inputFile);
-            ByteBuffer imageBuffer = allocateBuffer(decode);
 
             System.err.println("Opened decoder for file: " + inputFilename);
-            if (args.length == 1) {
-                decode.toBytes(imageBuffer);
-                System.err.println("Decoded bytes MD5: " + md5(imageBuffer));
+            if (arguments.size() == 1 && rowsPerStrip > 0) {
+                System.err.println(
+                    "Decoded bytes MD5: " + stripMd5(decode));
+            } else if (args.length == 1) {
+                try (DirectBufferPool.Lease lease = decode.toPooledBuffer()) {
+                    System.err.println(
+                        "Decoded bytes MD5: " + md5(lease.getBuffer()));
+                }
             } else if (args.length == 2) {
                 decode.toFile(new File(args[1]));
             } else {
                 System.err.println("INVALID DECODE COMMAND");
             }
         }
+        return 0;
     }
 
     /**
-     * Allocate a buffer for the given initialized decoder.
+     * Decode in strips, computing the MD5 of the decoded data without
+     * holding the whole image in memory.
      *
      * @param decode non-null decoder
-     * @return directly allocated buffer for storing decoded data
+     * @return MD5 of the decoded data
      */
-    private ByteBuffer allocateBuffer(Decode decode) {
-        long width = decode.getWidth();
-        long height = decode.getHeight();
-        long bpp = decode.getBytesPerPixel();
-        return ByteBuffer.allocateDirect((int) (width * height * bpp));
+    private String stripMd5(Decode decode)
+            throws DecodeException, IOException {
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // This should never happen
+            throw new RuntimeException(e);
+        }
+        decode.decodeStrips(rowsPerStrip, new StripConsumer() {
+            @Override
+            public void accept(ByteBuffer strip, long y, int rows) {
+                md.update(strip);
+            }
+        });
+        return DatatypeConverter.printHexBinary(md.digest()).toLowerCase();
     }
 
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestBatchDecode {
+
+    private static final String FILENAME =
+        "BF-1scene-nozstack-compression50pct.jxr";
+
+    private static final String WRONG_MD5 =
+        "00000000000000000000000000000000";
+
+    private Path file;
+
+    private Path list;
+
+    @BeforeMethod
+    public void writeList() throws IOException, URISyntaxException {
+        file = Paths.get(
+            getClass().getClassLoader().getResource(FILENAME).toURI());
+        list = Files.createTempFile("batch", ".txt");
+        Files.write(list, Arrays.asList(
+            "# the same file with a wrong MD5 and checked against itself",
+            file + " " + WRONG_MD5,
+            "",
+            file.toString()), StandardCharsets.UTF_8);
+    }
+
+    @AfterMethod
+    public void deleteList() throws IOException {
+        Files.delete(list);
+    }
+
+    @Test
+    public void testMismatchReport() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BatchDecode batch = new BatchDecode(
+            BatchDecode.Mode.FILE, 2, 2,
+            new PrintStream(output, true, "UTF-8"));
+        Assert.assertFalse(
+            batch.run(Collections.singletonList("@" + list)));
+
+        String report = output.toString("UTF-8");
+        Assert.assertTrue(report.contains(
+            "Decoding 2 files 2 times on 2 threads using file"), report);
+        Assert.assertTrue(report.contains("Decoded 4 files"), report);
+        Assert.assertTrue(report.contains(
+            "MISMATCH " + file + ": decoded MD5 "), report);
+        Assert.assertTrue(report.contains(
+            ", expected " + WRONG_MD5), report);
+        Assert.assertTrue(report.contains(
+            "MD5 mismatches: 2, failures: 0"), report);
+    }
+
+    @Test
+    public void testExitStatus() throws Exception {
+        Assert.assertEquals(new Main().go(new String[] {
+            "--batch", "--threads", "2", "@" + list.toString()}), 1);
+        Assert.assertEquals(new Main().go(new String[] {
+            "--batch", "--repeat", "2", file.toString()}), 0);
+        Assert.assertEquals(new Main().go(new String[] {
+            "--batch", "--in-memory", file.toString()}), 0);
+    }
+
+    @Test
+    public void testMissingFile() throws Exception {
+        Path missing = list.resolveSibling(list.getFileName() + ".jxr");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BatchDecode batch = new BatchDecode(
+            BatchDecode.Mode.BYTES, 1, 1,
+            new PrintStream(output, true, "UTF-8"));
+        Assert.assertFalse(
+            batch.run(Collections.singletonList(missing.toString())));
+
+        String report = output.toString("UTF-8");
+        Assert.assertTrue(report.contains("FAILED " + missing), report);
+        Assert.assertTrue(report.contains(
+            "MD5 mismatches: 0, failures: 1"), report);
+    }
+}
@@ -19,21 +19,52 @@
 package ome.jxrlib;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Abstract class for decoding JPEG-XR data.
+ * Native resources are released by {@link #close()}, or returned to the
+ * pool for decoders acquired from a {@link DecoderPool}.
  * @see Decode
  */
-abstract class AbstractDecode {
+abstract class AbstractDecode implements AutoCloseable {
 
-    private final Factory factory = new Factory();
-    private final CodecFactory codecFactory = new CodecFactory();
+    /** Size of the chunks transcoded data is written to channels in. */
+    private static final int TRANSCODE_CHUNK_SIZE = 64 * 1024;
+
+    private static final List<DecodeListener> listeners =
+        new CopyOnWriteArrayList<DecodeListener>();
+
+    private final CodecFactory codecFactory;
+    private final DecoderPool.Entry poolEntry;
 
     private final File inputFile;
     private final ByteBuffer dataBuffer;
+    private final int dataOffset;
+    private final int dataLength;
+    private final StreamSource source;
     private final ImageDecoder decoder;
-    private final long frameCount;
+    private volatile boolean closed;
+    // true until the header parsing time has been reported to listeners
+    private volatile boolean headerPending = true;
 
     /**
      * Construct a decoder for the JPEG-XR data in the given file.
@@ -42,11 +73,7 @@ abstract class AbstractDecode {
      *        Should exist and be non-null.
      */
     public AbstractDecode(File inputFile) {
-        this.inputFile = inputFile;
-        this.dataBuffer = null;
-        decoder = new ImageDecoder();
-        codecFactory.decoderFromFile(decoder, inputFile.getAbsolutePath());
-        frameCount = decoder.getFrameCount();
+        this(null, inputFile, null, 0, 0);
     }
 
     /**
@@ -80,28 +107,339 @@ abstract class AbstractDecode {
      */
     AbstractDecode(ByteBuffer dataBuffer, int offset, int length)
             throws DecodeException {
-        if (!dataBuffer.isDirect()) {
-            throw new DecodeException("Buffer must be allocated direct.");
-        }
-        this.inputFile = null;
+        this(null, null, checkDirect(dataBuffer), offset, length);
+    }
+
+    /**
+     * Construct a decoder for the JPEG-XR data stored at the given offset
+     * of a file, such as a subblock of a larger container.  The data is
+     * memory mapped rather than copied and the file is closed once the
+     * mapping has been created.
+     *
+     * @param path file containing JPEG-XR data; should be non-null
+     * @param offset offset of the JPEG-XR data within the file
+     * @param length number of bytes of JPEG-XR data
+     * @throws DecodeException if the range is not within the file or
+     *         the file could not be mapped
+     */
+    AbstractDecode(Path path, long offset, long length)
+            throws DecodeException {
+        this(map(path, offset, length));
+    }
+
+    /**
+     * Construct a decoder for the JPEG-XR data stored at the given offset
+     * of an open file.  The data is memory mapped rather than copied, so
+     * many subblocks of one file can be decoded without reopening it.
+     * The channel may be closed once the decoder has been constructed.
+     *
+     * @param channel open channel of a file containing JPEG-XR data;
+     *        should be non-null and readable
+     * @param offset offset of the JPEG-XR data within the file
+     * @param length number of bytes of JPEG-XR data
+     * @throws DecodeException if the range is not within the file or
+     *         the file could not be mapped
+     */
+    AbstractDecode(FileChannel channel, long offset, long length)
+            throws DecodeException {
+        this(map(channel, offset, length));
+    }
+
+    /**
+     * Construct a decoder that reads the JPEG-XR data in the given channel
+     * as it is needed, through read-ahead windows, instead of buffering
+     * all of it first.  The channel must remain open until this decoder
+     * is closed, and its position is changed by the decoder's reads.
+     *
+     * @param channel open channel containing JPEG-XR data starting at
+     *        position 0; should be non-null and readable
+     */
+    AbstractDecode(SeekableByteChannel channel) {
+        this(new StreamSource.Channel(channel));
+    }
+
+    /**
+     * Construct a decoder that reads the JPEG-XR data in the given stream
+     * as it is needed, so decoding overlaps with the arrival of the data.
+     * The stream is only read forward.  Every byte read is retained in
+     * memory until the decoder is closed, as the codec returns to parts of
+     * the data such as the headers and tile index, so decoding all of an
+     * image holds a copy of all of its data.  As the stream cannot be read
+     * from several places at once, parallel decodes with this decoder run
+     * on the calling thread.  The stream is not closed by the decoder.
+     *
+     * @param stream stream of JPEG-XR data; should be non-null
+     */
+    AbstractDecode(InputStream stream) {
+        this(new StreamSource.Forward(stream));
+    }
+
+    /**
+     * Construct a decoder that reads JPEG-XR data from the given source.
+     *
+     * @param source source of JPEG-XR data
+     */
+    private AbstractDecode(StreamSource source) {
+        this(null, null, null, 0, 0, source);
+    }
+
+    /**
+     * Construct a decoder for the JPEG-XR data in the given file or buffer,
+     * reusing the native codec factory and decoder of the given pool entry.
+     *
+     * @param poolEntry pool entry to decode with, or null to allocate a
+     *        new codec factory and decoder that are released on close
+     * @param inputFile file containing JPEG-XR data, or null
+     * @param dataBuffer directly allocated buffer containing JPEG-XR data,
+     *        used if <code>inputFile</code> is null
+     * @param offset starting offset within the given buffer
+     * @param length number of bytes to read from the given buffer
+     */
+    AbstractDecode(DecoderPool.Entry poolEntry, File inputFile,
+                   ByteBuffer dataBuffer, int offset, int length) {
+        this(poolEntry, inputFile, dataBuffer, offset, length, null);
+    }
+
+    /**
+     * Construct a decoder for the JPEG-XR data in the given file, buffer
+     * or source.
+     *
+     * @param poolEntry pool entry to decode with, or null to allocate a
+     *        new codec factory and decoder that are released on close
+     * @param inputFile file containing JPEG-XR data, or null
+     * @param dataBuffer directly allocated buffer containing JPEG-XR data,
+     *        or null
+     * @param offset starting offset within the given buffer
+     * @param length number of bytes to read from the given buffer
+     * @param source source of JPEG-XR data, used if both
+     *        <code>inputFile</code> and <code>dataBuffer</code> are null
+     */
+    private AbstractDecode(DecoderPool.Entry poolEntry, File inputFile,
+                           ByteBuffer dataBuffer, int offset, int length,
+                           StreamSource source) {
+        this.poolEntry = poolEntry;
+        this.inputFile = inputFile;
         this.dataBuffer = dataBuffer;
-        decoder = new ImageDecoder();
-        codecFactory.decoderFromBytes(decoder, dataBuffer, offset, length);
-        frameCount = decoder.getFrameCount();
+        this.dataOffset = offset;
+        this.dataLength = length;
+        this.source = source;
+        if (poolEntry != null) {
+            codecFactory = poolEntry.codecFactory;
+            decoder = poolEntry.decoder;
+        } else {
+            codecFactory = new CodecFactory();
+            decoder = new ImageDecoder();
+        }
+        try {
+            initializeDecoder(codecFactory, decoder);
+        } catch (Throwable t) {
+            close();
+            throw t;
+        }
+    }
+
+    /**
+     * Initialize a decoder with the JPEG-XR data this instance was
+     * constructed with.  Any data the decoder was previously initialized
+     * with is released.
+     *
+     * @param codecFactory factory used to initialize the decoder
+     * @param imageDecoder decoder to initialize
+     */
+    private void initializeDecoder(
+            CodecFactory codecFactory, ImageDecoder imageDecoder) {
+        if (inputFile != null) {
+            codecFactory.decoderFromFile(
+                imageDecoder, inputFile.getAbsolutePath());
+        } else if (dataBuffer != null) {
+            codecFactory.decoderFromBytes(
+                imageDecoder, dataBuffer, dataOffset, dataLength);
+        } else {
+            codecFactory.decoderFromSource(
+                imageDecoder, source, StreamSource.WINDOW_SIZE);
+        }
+    }
+
+    /**
+     * @return the native decoder
+     * @throws IllegalStateException if this decoder has been closed
+     */
+    private ImageDecoder decoder() {
+        if (closed) {
+            throw new IllegalStateException("Decoder has been closed.");
+        }
+        return decoder;
     }
 
     /**
-     * @return image width in pixels
+     * Release the native resources held by this decoder, or return them to
+     * the pool it was acquired from.  Closing more than once has no effect.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (poolEntry != null) {
+            poolEntry.release();
+        } else {
+            decoder.delete();
+            codecFactory.delete();
+        }
+    }
+
+    /**
+     * @return width in pixels of the selected region,
+     *         or of the whole image if no region is selected
+     * @see #setRegion(int, int, int, int)
      */
     public long getWidth() {
-        return decoder.getWidth();
+        return decoder().getWidth();
     }
 
     /**
-     * @return image height in pixels
+     * @return height in pixels of the selected region,
+     *         or of the whole image if no region is selected
+     * @see #setRegion(int, int, int, int)
      */
     public long getHeight() {
-        return decoder.getHeight();
+        return decoder().getHeight();
+    }
+
+    /**
+     * @return full resolution image width in pixels, regardless of any
+     *         selected region or scale
+     */
+    public long getImageWidth() {
+        return decoder().getImageWidth();
+    }
+
+    /**
+     * @return full resolution image height in pixels, regardless of any
+     *         selected region or scale
+     */
+    public long getImageHeight() {
+        return decoder().getImageHeight();
+    }
+
+    /**
+     * @param scale downscale factor; one of 1, 2, 4, 8 or 16
+     * @return width in pixels of the whole image decoded at the given scale
+     * @throws DecodeException if the scale is not supported
+     */
+    public long getWidth(int scale) throws DecodeException {
+        checkScale(scale);
+        return (getImageWidth() + scale - 1) / scale;
+    }
+
+    /**
+     * @param scale downscale factor; one of 1, 2, 4, 8 or 16
+     * @return height in pixels of the whole image decoded at the given scale
+     * @throws DecodeException if the scale is not supported
+     */
+    public long getHeight(int scale) throws DecodeException {
+        checkScale(scale);
+        return (getImageHeight() + scale - 1) / scale;
+    }
+
+    /**
+     * @return the selected downscale factor; 1 for full resolution
+     * @see #setScale(int)
+     */
+    public int getScale() {
+        return (int) decoder().getScale();
+    }
+
+    /**
+     * Select a reduced resolution.  Subsequent decodes produce the image
+     * downscaled by the given factor, which the codec computes from the
+     * low-pass bands without decoding the full resolution image.  Any
+     * selected region is cleared, as region coordinates are relative to
+     * the downscaled image.
+     *
+     * @param scale downscale factor; one of 1, 2, 4, 8 or 16
+     * @throws DecodeException if the scale is not supported
+     * @see #getWidth(int)
+     * @see #getHeight(int)
+     */
+    public void setScale(int scale) throws DecodeException {
+        checkScale(scale);
+        decoder().setScale(scale);
+    }
+
+    /**
+     * @return the subbands selected for decoding
+     * @see #setQuality(Subband)
+     */
+    public Subband getQuality() {
+        return Subband.valueOf((int) decoder().getQuality());
+    }
+
+    /**
+     * Select the subbands that subsequent decodes produce.  The image keeps
+     * its width and height at every level, so an approximate image can be
+     * shown quickly and replaced by a decode of {@link Subband#ALL}.
+     * The quality is independent of the selected scale and region.
+     *
+     * @param quality subbands to decode; should be non-null
+     */
+    public void setQuality(Subband quality) {
+        decoder().setQuality(quality.code);
+    }
+
+    /**
+     * @return X coordinate of the upper-left corner of the selected region,
+     *         or 0 if no region is selected
+     */
+    public long getRegionX() {
+        return decoder().getRegionX();
+    }
+
+    /**
+     * @return Y coordinate of the upper-left corner of the selected region,
+     *         or 0 if no region is selected
+     */
+    public long getRegionY() {
+        return decoder().getRegionY();
+    }
+
+    /**
+     * Select a region of interest.  Subsequent decodes only produce the
+     * pixels within the region, and only the macroblocks and tiles that
+     * overlap it are decoded.  {@link #getWidth()} and {@link #getHeight()}
+     * report the size of the region until it is cleared.  Coordinates are
+     * relative to the image at the selected scale.
+     *
+     * @param x X coordinate of the upper-left corner of the region
+     * @param y Y coordinate of the upper-left corner of the region
+     * @param width width of the region in pixels
+     * @param height height of the region in pixels
+     * @throws DecodeException if the region is empty or does not lie
+     *         within the image
+     * @see #clearRegion()
+     * @see #setScale(int)
+     */
+    public void setRegion(int x, int y, int width, int height)
+            throws DecodeException {
+        long imageWidth = getWidth(getScale());
+        long imageHeight = getHeight(getScale());
+        if (x < 0 || y < 0 || width <= 0 || height <= 0
+                || x + (long) width > imageWidth
+                || y + (long) height > imageHeight) {
+            throw new DecodeException(String.format(
+                "Region %d, %d, %dx%d is not within the %dx%d image.",
+                x, y, width, height, imageWidth, imageHeight));
+        }
+        decoder().setRegion(x, y, width, height);
+    }
+
+    /**
+     * Clear any selected region of interest so that subsequent decodes
+     * produce the whole image.
+     */
+    public void clearRegion() {
+        decoder().clearRegion();
     }
 
     /**
@@ -109,21 +447,96 @@ abstract class AbstractDecode {
      *         multiplied by the number of bytes per channel
      */
     public long getBytesPerPixel() {
-        return decoder.getBytesPerPixel();
+        return decoder().getBytesPerPixel();
+    }
+
+    /**
+     * @return number of channels in each pixel, including any alpha
+     *         channel and excluding padding
+     */
+    public long getChannelCount() {
+        return decoder().getChannelCount();
+    }
+
+    /**
+     * @return number of bytes in each sample of a channel
+     * @throws DecodeException if samples of the pixel format are packed
+     *         within bytes, so channels cannot be decoded as planes
+     * @see #toPlanes(ByteBuffer)
+     */
+    public long getBytesPerSample() throws DecodeException {
+        try {
+            return decoder().getBytesPerSample();
+        } catch (Exception e) {
+            throw new DecodeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return true if the pixel format has an alpha channel, which is
+     *         always the last channel
+     */
+    public boolean hasAlpha() {
+        return decoder().hasAlpha();
+    }
+
+    /**
+     * @return true if the alpha channel is stored in its own plane of
+     *         the JPEG-XR data, so that it can be decoded on its own
+     * @see #toAlpha(ByteBuffer)
+     */
+    public boolean hasPlanarAlpha() {
+        return decoder().hasPlanarAlpha();
     }
 
     /**
      * @return the pixel format
      */
     public GUID getPixelFormat() {
-        return decoder.getGUIDPixFormat();
+        return decoder().getGUIDPixFormat();
     }
 
     /**
      * @return true if channels are returned in BGR order
      */
     public boolean isBGR() {
-        return decoder.isBGR();
+        return decoder().isBGR();
+    }
+
+    /**
+     * @return number of frames in the container.  The container is only
+     *         scanned for frames other than the first when the frame count
+     *         or a frame is first requested.
+     */
+    public long getFrameCount() {
+        return decoder().getFrameCount();
+    }
+
+    /**
+     * @return index of the selected frame
+     * @see #selectFrame(long)
+     */
+    public long getFrame() {
+        return decoder().getFrame();
+    }
+
+    /**
+     * Select the frame that subsequent decodes produce.  The offset of
+     * every frame is recorded when the container is first scanned, so any
+     * frame can be selected without reading the ones before it.  As frames
+     * may differ in size, any selected region is cleared; the selected
+     * scale is kept.
+     *
+     * @param frame index of the frame to select
+     * @throws DecodeException if there is no such frame
+     * @see #getFrameCount()
+     */
+    public void selectFrame(long frame) throws DecodeException {
+        checkFrame(frame);
+        if (frame != getFrame()) {
+            headerPending = true;
+        }
+        decoder().selectFrame(frame);
     }
 
     /**
@@ -131,40 +544,1179 @@ abstract class AbstractDecode {
      *
      * @param imageBuffer directly allocated buffer to store decoded data
      * @throws DecodeException if the buffer is not directly allocated
+     *         or is too small to hold the decoded data
      */
     public void toBytes(ByteBuffer imageBuffer) throws DecodeException {
-        if (!imageBuffer.isDirect()) {
-            throw new DecodeException("Buffer must be allocated direct.");
+        long size = getWidth() * getHeight() * getBytesPerPixel();
+        checkBuffer(imageBuffer, size);
+        boolean measured = startMetrics(decoder());
+        long start = System.nanoTime();
+        decoder().getRawBytes(imageBuffer);
+        if (measured) {
+            reportMetrics(decoder(), start, size);
+        }
+    }
+
+    /**
+     * @param format layout of the decoded pixel data
+     * @return number of bytes per pixel when decoding to the given format
+     * @throws DecodeException if the pixel format of the image cannot be
+     *         converted to the given format
+     * @see #toBytes(ByteBuffer, OutputFormat)
+     */
+    public long getBytesPerPixel(OutputFormat format)
+            throws DecodeException {
+        try {
+            return decoder().getOutputBytesPerPixel(format.code);
+        } catch (Exception e) {
+            throw new DecodeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decode the current JPEG-XR data into the given buffer, converting
+     * the pixel data to the given format as each macroblock row is
+     * decoded.  Rows are stored without padding.
+     *
+     * @param imageBuffer directly allocated buffer to store decoded data
+     * @param format layout of the decoded pixel data
+     * @throws DecodeException if the pixel format of the image cannot be
+     *         converted to the given format, or the buffer is not directly
+     *         allocated or is too small to hold the decoded data
+     * @see #getBytesPerPixel(OutputFormat)
+     */
+    public void toBytes(ByteBuffer imageBuffer, OutputFormat format)
+            throws DecodeException {
+        long rowBytes = getWidth() * getBytesPerPixel(format);
+        checkBuffer(imageBuffer, rowBytes * getHeight());
+        boolean measured = startMetrics(decoder());
+        long start = System.nanoTime();
+        try {
+            decoder().getConvertedBytes(imageBuffer, rowBytes, format.code);
+        } catch (Exception e) {
+            throw new DecodeException(e.getMessage(), e);
+        }
+        if (measured) {
+            reportMetrics(decoder(), start, rowBytes * getHeight());
+        }
+    }
+
+    /**
+     * Decode the current JPEG-XR data into the given buffer as one plane
+     * per channel.  Each plane holds the samples of one channel row by
+     * row, without padding, and immediately follows the previous one.
+     * Color channels are in RGB order, whatever order the pixel format
+     * stores them in, followed by any alpha channel.
+     *
+     * @param planes directly allocated buffer to store decoded data
+     * @throws DecodeException if the pixel format cannot be decoded as
+     *         planes, or the buffer is not directly allocated or is too
+     *         small to hold the decoded data
+     * @see #getChannelCount()
+     * @see #getBytesPerSample()
+     */
+    public void toPlanes(ByteBuffer planes) throws DecodeException {
+        toPlanes(planes, 0, (int) getChannelCount());
+    }
+
+    /**
+     * Decode a range of channels of the current JPEG-XR data into the
+     * given buffer as one plane per channel, laid out as by
+     * {@link #toPlanes(ByteBuffer)}.  Only the selected channels are
+     * copied out of the decoded pixels.
+     *
+     * @param planes directly allocated buffer to store decoded data
+     * @param firstChannel index of the first channel to decode
+     * @param channelCount number of channels to decode
+     * @throws DecodeException if the channels are not within the pixel
+     *         format, the pixel format cannot be decoded as planes, or
+     *         the buffer is not directly allocated or is too small to hold
+     *         the decoded data
+     */
+    public void toPlanes(ByteBuffer planes, int firstChannel,
+                         int channelCount) throws DecodeException {
+        long channels = getChannelCount();
+        if (firstChannel < 0 || channelCount < 1
+                || firstChannel + (long) channelCount > channels) {
+            throw new DecodeException(String.format(
+                "Channels %d to %d are not within the %d channels.",
+                firstChannel, firstChannel + channelCount - 1, channels));
+        }
+        long planeSize = getWidth() * getHeight() * getBytesPerSample();
+        checkBuffer(planes, planeSize * channelCount);
+        boolean measured = startMetrics(decoder());
+        long start = System.nanoTime();
+        try {
+            decoder().getPlanarBytes(
+                planes, planeSize, firstChannel, channelCount);
+        } catch (Exception e) {
+            throw new DecodeException(e.getMessage(), e);
+        }
+        if (measured) {
+            reportMetrics(decoder(), start, planeSize * channelCount);
+        }
+    }
+
+    /**
+     * Decode a single channel of the current JPEG-XR data into the given
+     * buffer.
+     *
+     * @param channel index of the channel; color channels are in RGB
+     *        order, followed by any alpha channel
+     * @param plane directly allocated buffer to store decoded data
+     * @throws DecodeException if there is no such channel, the pixel
+     *         format cannot be decoded as planes, or the buffer is not
+     *         directly allocated or is too small to hold the decoded data
+     * @see #toPlanes(ByteBuffer, int, int)
+     */
+    public void toChannel(int channel, ByteBuffer plane)
+            throws DecodeException {
+        toPlanes(plane, channel, 1);
+    }
+
+    /**
+     * Decode the alpha channel of the current JPEG-XR data into the given
+     * buffer.  If the alpha channel is stored in its own plane, only that
+     * plane is decoded; the color planes are skipped entirely.
+     *
+     * @param plane directly allocated buffer to store decoded data
+     * @throws DecodeException if the pixel format has no alpha channel or
+     *         cannot be decoded as planes, or the buffer is not directly
+     *         allocated or is too small to hold the decoded data
+     * @see #hasPlanarAlpha()
+     */
+    public void toAlpha(ByteBuffer plane) throws DecodeException {
+        if (!hasAlpha()) {
+            throw new DecodeException("Pixel format has no alpha channel.");
+        }
+        toChannel((int) getChannelCount() - 1, plane);
+    }
+
+    /**
+     * Decode the current JPEG-XR data into a buffer leased from the
+     * default {@link DirectBufferPool}.
+     *
+     * @return lease of a buffer holding exactly the decoded data, which
+     *         should be closed once the data is no longer needed
+     * @throws DecodeException if the decoded data is too large for a
+     *         buffer
+     * @see #toPooledBuffer(DirectBufferPool)
+     */
+    public DirectBufferPool.Lease toPooledBuffer() throws DecodeException {
+        return toPooledBuffer(DirectBufferPool.getDefault());
+    }
+
+    /**
+     * Decode the current JPEG-XR data into a buffer leased from the given
+     * pool.  The buffer is returned to the pool if decoding fails.
+     *
+     * @param pool pool to lease the buffer from
+     * @return lease of a buffer holding exactly the decoded data, which
+     *         should be closed once the data is no longer needed
+     * @throws DecodeException if the decoded data is too large for a
+     *         buffer
+     */
+    public DirectBufferPool.Lease toPooledBuffer(DirectBufferPool pool)
+            throws DecodeException {
+        long size = getWidth() * getHeight() * getBytesPerPixel();
+        if (size > Integer.MAX_VALUE) {
+            throw new DecodeException(String.format(
+                "Decoded size %d is larger than a buffer can hold.", size));
+        }
+        DirectBufferPool.Lease lease = pool.acquire(size);
+        boolean decoded = false;
+        try {
+            toBytes(lease.getBuffer());
+            decoded = true;
+            return lease;
+        } finally {
+            if (!decoded) {
+                lease.close();
+            }
+        }
+    }
+
+    /**
+     * Decode the current JPEG-XR data into part of a larger buffer, such
+     * as a tile of a mosaic.  The first decoded row starts at the given
+     * offset and each subsequent row starts <code>rowStride</code> bytes
+     * after the previous one; bytes between rows are left untouched.  The
+     * position and limit of the buffer are ignored.
+     *
+     * @param canvas directly allocated buffer to store decoded data
+     * @param byteOffset offset of the first decoded pixel in the buffer
+     * @param rowStride number of bytes between the starts of
+     *        consecutive rows in the buffer; must be a multiple of the
+     *        number of bytes per pixel
+     * @throws DecodeException if the offset is negative, the stride is
+     *         less than the size of a decoded row or not a multiple of the
+     *         pixel size, or the buffer is not
+     *         directly allocated or is too small to hold the decoded data
+     *         at the given offset and stride
+     */
+    public void toBytes(ByteBuffer canvas, int byteOffset, int rowStride)
+            throws DecodeException {
+        long bytesPerPixel = getBytesPerPixel();
+        long rowBytes = getWidth() * bytesPerPixel;
+        if (byteOffset < 0) {
+            throw new DecodeException(String.format(
+                "Offset %d is negative.", byteOffset));
+        }
+        if (rowStride < rowBytes) {
+            throw new DecodeException(String.format(
+                "Row stride %d is less than the %d bytes in a row.",
+                rowStride, rowBytes));
+        }
+        // the codec steps between rows in units of samples
+        if (rowStride % bytesPerPixel != 0) {
+            throw new DecodeException(String.format(
+                "Row stride %d is not a multiple of the %d byte pixel size.",
+                rowStride, bytesPerPixel));
+        }
+        // the last row does not need to be padded out to the stride
+        checkBuffer(canvas,
+                    byteOffset + (getHeight() - 1) * rowStride + rowBytes);
+        ByteBuffer target = canvas.duplicate();
+        target.clear();
+        target.position(byteOffset);
+        boolean measured = startMetrics(decoder());
+        long start = System.nanoTime();
+        decoder().getRawBytes(target.slice(), rowStride);
+        if (measured) {
+            reportMetrics(decoder(), start, rowBytes * getHeight());
+        }
+    }
+
+    /**
+     * Decode the current JPEG-XR data into the given buffer, using up to
+     * the given number of threads.  Images encoded with multiple tiles are
+     * split into bands of whole tile columns (or tile rows, if there is
+     * only one tile column) that are decoded concurrently into disjoint
+     * parts of the buffer.  Images with a single tile, and data read from
+     * an {@link InputStream}, are decoded on the calling thread.
+     *
+     * @param imageBuffer directly allocated buffer to store decoded data
+     * @param threads maximum number of threads to decode with
+     * @throws DecodeException if the thread count is not positive, the
+     *         buffer is not directly allocated or is too small to hold the
+     *         decoded data, or a band could not be decoded
+     * @see #toBytes(ByteBuffer, ExecutorService)
+     */
+    public void toBytes(ByteBuffer imageBuffer, int threads)
+            throws DecodeException {
+        if (threads < 1) {
+            throw new DecodeException(String.format(
+                "Thread count %d is not positive.", threads));
+        }
+        List<long[]> bands = getTileBands(threads);
+        if (bands.size() < 2 || isForwardOnly()) {
+            toBytes(imageBuffer);
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(bands.size());
+        try {
+            toBytes(imageBuffer, bands, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Decode the current JPEG-XR data into the given buffer, decoding
+     * bands of tiles concurrently on the given executor.  At most one band
+     * per available processor is submitted; the calling thread waits for
+     * all of them to complete, so it should not itself be one of the
+     * executor's threads.  Data read from an {@link InputStream} is
+     * decoded on the calling thread instead.
+     *
+     * @param imageBuffer directly allocated buffer to store decoded data
+     * @param executor executor to decode bands of tiles on
+     * @throws DecodeException if the buffer is not directly allocated or
+     *         is too small to hold the decoded data, or a band could not be
+     *         decoded
+     * @see #toBytes(ByteBuffer, int)
+     */
+    public void toBytes(ByteBuffer imageBuffer, ExecutorService executor)
+            throws DecodeException {
+        if (isForwardOnly()) {
+            toBytes(imageBuffer);
+            return;
+        }
+        toBytes(imageBuffer,
+                getTileBands(Runtime.getRuntime().availableProcessors()),
+                executor);
+    }
+
+    /**
+     * Split the selected region along tile boundaries into at most the
+     * given number of bands.  Tile columns are preferred as every band
+     * then spans all macroblock rows, and the codec only entropy decodes
+     * the tiles that overlap the band.
+     *
+     * @param maximum maximum number of bands
+     * @return list of <code>{x, y, width, height}</code> bands
+     */
+    private List<long[]> getTileBands(int maximum) {
+        long regionX = getRegionX();
+        long regionY = getRegionY();
+        long width = getWidth();
+        long height = getHeight();
+        boolean columns = decoder().getTileColumnCount() > 1;
+        long tiles = columns
+            ? decoder().getTileColumnCount() : decoder().getTileRowCount();
+        long start = columns ? regionX : regionY;
+        long end = start + (columns ? width : height);
+
+        List<Long> edges = new ArrayList<Long>();
+        edges.add(start);
+        for (long tile = 1; tile < tiles; tile++) {
+            long edge = columns
+                ? decoder().getTileX(tile) : decoder().getTileY(tile);
+            if (edge > edges.get(edges.size() - 1) && edge < end) {
+                edges.add(edge);
+            }
+        }
+        edges.add(end);
+
+        int count = edges.size() - 1;
+        int bandCount = Math.min(count, maximum);
+        List<long[]> bands = new ArrayList<long[]>(bandCount);
+        for (int band = 0; band < bandCount; band++) {
+            long from = edges.get(band * count / bandCount);
+            long to = edges.get((band + 1) * count / bandCount);
+            if (columns) {
+                bands.add(new long[] {from, regionY, to - from, height});
+            } else {
+                bands.add(new long[] {regionX, from, width, to - from});
+            }
+        }
+        return bands;
+    }
+
+    /**
+     * Decode each of the given bands on the given executor, with a
+     * separate decoder per band, into the corresponding part of the buffer.
+     *
+     * @param imageBuffer directly allocated buffer to store decoded data
+     * @param bands list of <code>{x, y, width, height}</code> bands within
+     *        the selected region
+     * @param executor executor to decode bands on
+     * @throws DecodeException if the buffer is not directly allocated or
+     *         is too small to hold the decoded data, or a band could not be
+     *         decoded
+     */
+    private void toBytes(ByteBuffer imageBuffer, List<long[]> bands,
+                         ExecutorService executor) throws DecodeException {
+        final long bytesPerPixel = getBytesPerPixel();
+        final long stride = getWidth() * bytesPerPixel;
+        checkBuffer(imageBuffer, stride * getHeight());
+        final int scale = getScale();
+        final Subband quality = getQuality();
+        final long frame = getFrame();
+        long regionX = getRegionX();
+        long regionY = getRegionY();
+        final boolean measured = !listeners.isEmpty();
+        long start = System.nanoTime();
+
+        List<DecodeTask<double[]>> tasks =
+            new ArrayList<DecodeTask<double[]>>();
+        for (final long[] band : bands) {
+            ByteBuffer target = imageBuffer.duplicate();
+            target.position((int) ((band[1] - regionY) * stride
+                + (band[0] - regionX) * bytesPerPixel));
+            final ByteBuffer bandBuffer = target.slice();
+            tasks.add(new DecodeTask<double[]>() {
+                @Override
+                double[] decode() throws Exception {
+                    CodecFactory bandFactory = new CodecFactory();
+                    ImageDecoder bandDecoder = new ImageDecoder();
+                    try {
+                        initializeDecoder(bandFactory, bandDecoder);
+                        bandDecoder.selectFrame(frame);
+                        bandDecoder.setScale(scale);
+                        bandDecoder.setQuality(quality.code);
+                        bandDecoder.setRegion(
+                            band[0], band[1], band[2], band[3]);
+                        bandDecoder.setMeasureStages(measured);
+                        bandDecoder.getRawBytes(bandBuffer, stride);
+                        return getStageTimes(bandDecoder);
+                    } finally {
+                        bandDecoder.delete();
+                        bandFactory.delete();
+                    }
+                }
+            });
+        }
+
+        List<double[]> results = runAll(executor, tasks, "tile band");
+        if (measured) {
+            // band decoders parse their own headers, which count towards
+            // the header time
+            double[] times = new double[4];
+            if (headerPending) {
+                times[0] = decoder().getHeaderTime();
+                headerPending = false;
+            }
+            for (double[] bandTimes : results) {
+                for (int i = 0; i < times.length; i++) {
+                    times[i] += bandTimes[i];
+                }
+            }
+            reportMetrics(times, start, stride * getHeight(),
+                          getTileCount(decoder()));
+        }
+    }
+
+    /**
+     * Decode the given frame into the given buffer.  The frame remains
+     * selected after decoding.
+     *
+     * @param frame index of the frame to decode
+     * @param imageBuffer directly allocated buffer to store decoded data
+     * @throws DecodeException if there is no such frame, or the buffer is
+     *         not directly allocated or is too small to hold the frame
+     * @see #selectFrame(long)
+     */
+    public void toBytesFrame(long frame, ByteBuffer imageBuffer)
+            throws DecodeException {
+        selectFrame(frame);
+        toBytes(imageBuffer);
+    }
+
+    /**
+     * Decode every frame concurrently on the given executor, each with its
+     * own decoder over the same JPEG-XR data, at the selected scale and
+     * quality.  The frame selected on this decoder is unchanged.  The
+     * calling thread waits for all of the frames to be decoded, so it
+     * should not itself be one of the executor's threads.  Frames of data
+     * read from an {@link InputStream} are decoded one after another on
+     * the calling thread instead.
+     *
+     * @param executor executor to decode frames on
+     * @return directly allocated buffers holding the decoded frames,
+     *         in frame order
+     * @throws DecodeException if a frame could not be decoded
+     */
+    public List<ByteBuffer> decodeAllFrames(ExecutorService executor)
+            throws DecodeException {
+        final int scale = getScale();
+        final Subband quality = getQuality();
+        final boolean measured = !listeners.isEmpty();
+        long count = getFrameCount();
+
+        List<DecodeTask<ByteBuffer>> tasks =
+            new ArrayList<DecodeTask<ByteBuffer>>();
+        for (long frame = 0; frame < count; frame++) {
+            final long index = frame;
+            tasks.add(new DecodeTask<ByteBuffer>() {
+                @Override
+                ByteBuffer decode() throws Exception {
+                    CodecFactory frameFactory = new CodecFactory();
+                    ImageDecoder frameDecoder = new ImageDecoder();
+                    long start = System.nanoTime();
+                    try {
+                        initializeDecoder(frameFactory, frameDecoder);
+                        double header = frameDecoder.getHeaderTime();
+                        frameDecoder.setScale(scale);
+                        frameDecoder.setQuality(quality.code);
+                        frameDecoder.selectFrame(index);
+                        if (index != 0) {
+                            header += frameDecoder.getHeaderTime();
+                        }
+                        long size = frameDecoder.getWidth()
+                            * frameDecoder.getHeight()
+                            * frameDecoder.getBytesPerPixel();
+                        if (size > Integer.MAX_VALUE) {
+                            throw new DecodeException(String.format(
+                                "Frame %d of %d bytes is too large.",
+                                index, size));
+                        }
+                        ByteBuffer frameBuffer =
+                            ByteBuffer.allocateDirect((int) size);
+                        frameDecoder.setMeasureStages(measured);
+                        frameDecoder.getRawBytes(frameBuffer);
+                        if (measured) {
+                            double[] times = getStageTimes(frameDecoder);
+                            times[0] = header;
+                            reportMetrics(times, start, size,
+                                          getTileCount(frameDecoder));
+                        }
+                        return frameBuffer;
+                    } finally {
+                        frameDecoder.delete();
+                        frameFactory.delete();
+                    }
+                }
+            });
+        }
+        return runAll(isForwardOnly() ? null : executor, tasks, "frame");
+    }
+
+    /**
+     * @return true if the JPEG-XR data is read forward from a stream, so
+     *         that decoding it on several threads at once would only
+     *         contend for the stream
+     */
+    private boolean isForwardOnly() {
+        return source != null && source.isForwardOnly();
+    }
+
+    /**
+     * Run every one of the given tasks on the given executor and wait for
+     * them to complete, so that nothing is still writing to their output
+     * when this returns or throws.  If the calling thread is interrupted,
+     * tasks that have not started are withdrawn, those that have are
+     * still waited for, and the interrupt status is restored.
+     *
+     * @param executor executor to run the tasks on, or null to run them
+     *        one after another on the calling thread
+     * @param tasks tasks to run
+     * @param task description of a single task, for exception messages
+     * @return results of the tasks, in order
+     * @throws DecodeException if a task failed, or the calling thread was
+     *         interrupted
+     */
+    private static <T> List<T> runAll(
+            ExecutorService executor, List<? extends DecodeTask<T>> tasks,
+            String task) throws DecodeException {
+        if (executor == null) {
+            List<T> results = new ArrayList<T>(tasks.size());
+            for (DecodeTask<T> t : tasks) {
+                try {
+                    results.add(t.call());
+                } catch (Exception e) {
+                    throw new DecodeException(
+                        "Unable to decode " + task + ".", e);
+                }
+            }
+            return results;
+        }
+
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        for (DecodeTask<T> t : tasks) {
+            futures.add(executor.submit(t));
+        }
+
+        List<T> results = new ArrayList<T>(tasks.size());
+        DecodeException failure = null;
+        InterruptedException interrupted = null;
+        for (Future<T> future : futures) {
+            while (true) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = new DecodeException(
+                            "Unable to decode " + task + ".", e.getCause());
+                    }
+                } catch (CancellationException e) {
+                    // withdrawn before it started
+                } catch (InterruptedException e) {
+                    if (interrupted == null) {
+                        interrupted = e;
+                        for (int i = 0; i < tasks.size(); i++) {
+                            if (tasks.get(i).withdraw()) {
+                                futures.get(i).cancel(false);
+                            }
+                        }
+                    }
+                    // keep waiting for a task that has already started
+                    continue;
+                }
+                break;
+            }
+        }
+        if (interrupted != null) {
+            Thread.currentThread().interrupt();
+            throw new DecodeException(
+                "Interrupted while decoding " + task + "s.", interrupted);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    /**
+     * Decode a region of the current JPEG-XR data into the given buffer.
+     * The region remains selected after decoding.
+     *
+     * @param x X coordinate of the upper-left corner of the region
+     * @param y Y coordinate of the upper-left corner of the region
+     * @param width width of the region in pixels
+     * @param height height of the region in pixels
+     * @param imageBuffer directly allocated buffer to store decoded data
+     * @throws DecodeException if the region is invalid, or the buffer is
+     *         not directly allocated or is too small to hold the region
+     * @see #setRegion(int, int, int, int)
+     */
+    public void toBytes(
+            int x, int y, int width, int height, ByteBuffer imageBuffer)
+                    throws DecodeException {
+        setRegion(x, y, width, height);
+        toBytes(imageBuffer);
+    }
+
+    /**
+     * Decode the current JPEG-XR data at a reduced resolution into the
+     * given buffer.  The scale remains selected after decoding.
+     *
+     * @param scale downscale factor; one of 1, 2, 4, 8 or 16
+     * @param imageBuffer directly allocated buffer to store decoded data
+     * @throws DecodeException if the scale is not supported, or the buffer
+     *         is not directly allocated or is too small to hold the
+     *         downscaled image
+     * @see #setScale(int)
+     */
+    public void toBytes(int scale, ByteBuffer imageBuffer)
+            throws DecodeException {
+        setScale(scale);
+        toBytes(imageBuffer);
+    }
+
+    /**
+     * Decode the current JPEG-XR data a strip of rows at a time, handing
+     * each strip to the given consumer in order from the top of the
+     * selected region.  A single buffer of <code>rowsPerStrip</code> rows
+     * is reused for every strip, and the codec only holds a few macroblock
+     * rows at a time, so memory use does not depend on the image height.
+     *
+     * @param rowsPerStrip number of rows in each strip; the last strip
+     *        may have fewer
+     * @param consumer consumer of the decoded strips
+     * @throws DecodeException if the number of rows is not positive or the
+     *         strip is too large to be allocated
+     * @throws IOException if the consumer fails to consume a strip
+     */
+    public void decodeStrips(int rowsPerStrip, StripConsumer consumer)
+            throws DecodeException, IOException {
+        if (rowsPerStrip < 1) {
+            throw new DecodeException(String.format(
+                "Rows per strip %d is not positive.", rowsPerStrip));
+        }
+        long rowBytes = getWidth() * getBytesPerPixel();
+        long stripBytes = Math.min(rowsPerStrip, getHeight()) * rowBytes;
+        if (stripBytes > Integer.MAX_VALUE) {
+            throw new DecodeException(String.format(
+                "Strip of %d bytes is too large.", stripBytes));
+        }
+
+        ByteBuffer strip = ByteBuffer.allocateDirect((int) stripBytes);
+        boolean measured = startMetrics(decoder());
+        long start = System.nanoTime();
+        decoder().beginStrips();
+        long y = 0;
+        while (y < getHeight()) {
+            int rows =
+                (int) decoder().decodeStrip(strip, rowBytes, rowsPerStrip);
+            strip.clear();
+            strip.limit((int) (rows * rowBytes));
+            consumer.accept(strip, y, rows);
+            y += rows;
+        }
+        if (measured) {
+            reportMetrics(decoder(), start, rowBytes * getHeight());
         }
-        decoder.getRawBytes(imageBuffer);
     }
 
     /**
      * Transcode the current JPEG-XR data to a file in a supported output
-     * format (e.g. BMP).
-     * The file extension is used to determine the output format.
+     * format (e.g. BMP).  The file extension is used to determine the
+     * output format.
      *
-     * @param outputFile location to write data,
-     *        should be neither null nor an existing file
+     * @param outputFile location to write data; should be non-null.
+     *        An existing file is replaced.
+     * @throws UncheckedDecodeException if the data cannot be transcoded to
+     *         the format of the file extension
+     * @throws UncheckedIOException if the file cannot be written
+     * @see #transcode(String, WritableByteChannel)
      */
     public void toFile(File outputFile) {
         String fileName = outputFile.getName();
         String extension = fileName.substring(fileName.lastIndexOf('.') + 1);
 
-        for (long i = 0 ; i < frameCount ; i++) {
-            decoder.selectFrame(i);
-            FormatConverter converter = codecFactory.createFormatConverter(decoder, extension);
-            System.err.println("Created format converter for extension: " + extension);
-            Stream outputStream = factory.createStreamFromFilename(outputFile.getAbsolutePath());
-            System.err.println("Created output stream for file: " + fileName);
-            ImageEncoder encoder = new ImageEncoder(outputStream, "." + extension);
-            System.err.println("Created image encoder");
-            encoder.initializeWithDecoder(decoder);
-            encoder.writeSource(converter);
-            encoder.close();
+        try (FileChannel channel = FileChannel.open(
+                outputFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            transcode(extension, channel);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (DecodeException e) {
+            throw new UncheckedDecodeException(e);
+        }
+    }
+
+    /**
+     * Transcode the current JPEG-XR data to a supported output format
+     * into the given buffer.  The selected frame is written with the
+     * selected region and scale, except for TIFF, which holds every frame
+     * of a multi-frame image as a page at the selected scale.  The data
+     * is written from the start of the buffer; its position and limit are
+     * unchanged.
+     *
+     * @param format output format, such as <code>"bmp"</code>,
+     *        <code>"tif"</code> or <code>"pnm"</code>
+     * @param output buffer to write the transcoded data to.  Should be
+     *        non-null and directly allocated.
+     * @return number of bytes written to <code>output</code>
+     * @throws DecodeException if the buffer was not directly allocated,
+     *         the transcoded data does not fit in the buffer, or the data
+     *         cannot be transcoded to the given format
+     */
+    public int transcode(String format, ByteBuffer output)
+            throws DecodeException {
+        checkDirect(output);
+        MemoryTranscoder transcoder = new MemoryTranscoder();
+        try {
+            return (int) transcoder.transcode(
+                decoder(), format, output, output.capacity());
+        } catch (Exception e) {
+            throw new DecodeException(e.getMessage(), e);
+        } finally {
+            transcoder.delete();
         }
     }
 
+    /**
+     * Transcode the current JPEG-XR data to a supported output format and
+     * write it to the given channel.  The data is transcoded to native
+     * memory, as the output formats are not written sequentially, then
+     * written to the channel in chunks.
+     *
+     * @param format output format, such as <code>"bmp"</code>,
+     *        <code>"tif"</code> or <code>"pnm"</code>
+     * @param output channel to write the transcoded data to; should be
+     *        non-null and open
+     * @return number of bytes written to <code>output</code>
+     * @throws DecodeException if the data cannot be transcoded to the
+     *         given format
+     * @throws IOException if the channel cannot be written
+     * @see #transcode(String, ByteBuffer)
+     */
+    public long transcode(String format, WritableByteChannel output)
+            throws DecodeException, IOException {
+        MemoryTranscoder transcoder = new MemoryTranscoder();
+        try {
+            long size;
+            try {
+                size = transcoder.transcode(decoder(), format);
+            } catch (Exception e) {
+                throw new DecodeException(e.getMessage(), e);
+            }
+            ByteBuffer chunk = ByteBuffer.allocateDirect(
+                (int) Math.min(size, TRANSCODE_CHUNK_SIZE));
+            long offset = 0;
+            while (offset < size) {
+                int length = (int) Math.min(size - offset, chunk.capacity());
+                transcoder.getTranscodedBytes(chunk, offset, length);
+                chunk.clear();
+                chunk.limit(length);
+                while (chunk.hasRemaining()) {
+                    output.write(chunk);
+                }
+                offset += length;
+            }
+            return size;
+        } finally {
+            transcoder.delete();
+        }
+    }
+
+    /**
+     * Start measuring the stages of a decode with the given decoder if any
+     * listener is registered.
+     *
+     * @param imageDecoder decoder about to decode
+     * @return true if the decode is measured and should be reported
+     */
+    private static boolean startMetrics(ImageDecoder imageDecoder) {
+        boolean measured = !listeners.isEmpty();
+        imageDecoder.setMeasureStages(measured);
+        if (measured) {
+            imageDecoder.resetStageTimes();
+        }
+        return measured;
+    }
+
+    /**
+     * @param imageDecoder decoder that has measured a decode
+     * @return header, entropy decode, inverse transform and color
+     *         conversion times of the decoder in nanoseconds
+     */
+    private static double[] getStageTimes(ImageDecoder imageDecoder) {
+        return new double[] {
+            imageDecoder.getHeaderTime(),
+            imageDecoder.getEntropyDecodeTime(),
+            imageDecoder.getInverseTransformTime(),
+            imageDecoder.getColorConversionTime()
+        };
+    }
+
+    /**
+     * Report a decode with the given decoder that has completed
+     * successfully to every listener.
+     *
+     * @param imageDecoder decoder that has measured the decode
+     * @param start {@link System#nanoTime()} when the decode started
+     * @param bytesOut number of bytes decoded
+     */
+    private void reportMetrics(
+            ImageDecoder imageDecoder, long start, long bytesOut) {
+        double[] times = getStageTimes(imageDecoder);
+        if (!headerPending) {
+            times[0] = 0;
+        }
+        headerPending = false;
+        reportMetrics(times, start, bytesOut, getTileCount(imageDecoder));
+    }
+
+    /**
+     * Report a decode that has completed successfully to every listener.
+     *
+     * @param times stage times as returned by
+     *        {@link #getStageTimes(ImageDecoder)}, with a header time only
+     *        if it has not already been reported
+     * @param start {@link System#nanoTime()} when the decode started
+     * @param bytesOut number of bytes decoded
+     * @param tileCount number of tiles overlapping the decoded region
+     */
+    private void reportMetrics(
+            double[] times, long start, long bytesOut, long tileCount) {
+        long totalNanos = System.nanoTime() - start;
+        long bytesIn = inputFile != null ? inputFile.length()
+            : dataBuffer != null ? dataLength : source.getLength();
+        DecodeMetrics metrics = new DecodeMetrics(
+            (long) times[0], (long) times[1], (long) times[2],
+            (long) times[3], totalNanos, bytesIn, bytesOut, tileCount);
+        for (DecodeListener listener : listeners) {
+            listener.decoded(metrics);
+        }
+    }
+
+    /**
+     * @param imageDecoder decoder with the region to count tiles of
+     * @return number of tiles overlapping the selected region
+     */
+    private static long getTileCount(ImageDecoder imageDecoder) {
+        long x = imageDecoder.getRegionX();
+        long y = imageDecoder.getRegionY();
+        long columns = 1;
+        long rows = 1;
+        for (long c = 1; c < imageDecoder.getTileColumnCount(); c++) {
+            long edge = imageDecoder.getTileX(c);
+            if (edge > x && edge < x + imageDecoder.getWidth()) {
+                columns++;
+            }
+        }
+        for (long r = 1; r < imageDecoder.getTileRowCount(); r++) {
+            long edge = imageDecoder.getTileY(r);
+            if (edge > y && edge < y + imageDecoder.getHeight()) {
+                rows++;
+            }
+        }
+        return columns * rows;
+    }
+
+    /**
+     * Check that the given buffer can be handed to the native decoder.
+     *
+     * @param buffer buffer that will be written to
+     * @param size number of bytes that will be written
+     * @throws DecodeException if the buffer is not directly allocated
+     *         or its capacity is less than <code>size</code>
+     */
+    static void checkBuffer(ByteBuffer buffer, long size)
+            throws DecodeException {
+        if (!buffer.isDirect()) {
+            throw new DecodeException("Buffer must be allocated direct.");
+        }
+        if (buffer.capacity() < size) {
+            throw new DecodeException(String.format(
+                "Buffer capacity %d is less than the %d bytes required.",
+                buffer.capacity(), size));
+        }
+    }
+
+    /**
+     * Check that the given buffer can hold JPEG-XR data for the native
+     * decoder.
+     *
+     * @param dataBuffer buffer containing JPEG-XR data
+     * @return the given buffer
+     * @throws DecodeException if the buffer is not directly allocated
+     */
+    static ByteBuffer checkDirect(ByteBuffer dataBuffer)
+            throws DecodeException {
+        if (!dataBuffer.isDirect()) {
+            throw new DecodeException("Buffer must be allocated direct.");
+        }
+        return dataBuffer;
+    }
+
+    /**
+     * Memory map a range of the given file.
+     *
+     * @param path file to map
+     * @param offset offset of the range within the file
+     * @param length number of bytes in the range
+     * @return read-only buffer backed by the mapped range
+     * @throws DecodeException if the range is not within the file or
+     *         the file could not be mapped
+     */
+    static ByteBuffer map(Path path, long offset, long length)
+            throws DecodeException {
+        try (FileChannel channel =
+                FileChannel.open(path, StandardOpenOption.READ)) {
+            return map(channel, offset, length);
+        } catch (IOException e) {
+            throw new DecodeException("Unable to open " + path, e);
+        }
+    }
+
+    /**
+     * Memory map a range of the given file.  The mapping remains valid
+     * after the channel is closed.
+     *
+     * @param channel open channel of the file to map
+     * @param offset offset of the range within the file
+     * @param length number of bytes in the range
+     * @return read-only buffer backed by the mapped range
+     * @throws DecodeException if the range is not within the file or
+     *         the file could not be mapped
+     */
+    static ByteBuffer map(FileChannel channel, long offset, long length)
+            throws DecodeException {
+        try {
+            long size = channel.size();
+            if (offset < 0 || length <= 0 || length > Integer.MAX_VALUE
+                    || offset > size - length) {
+                throw new DecodeException(String.format(
+                    "Range of %d bytes at offset %d is not within the " +
+                    "%d byte file.", length, offset, size));
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } catch (IOException e) {
+            throw new DecodeException(String.format(
+                "Unable to map %d bytes at offset %d.", length, offset), e);
+        }
+    }
+
+    /**
+     * Check that the given frame exists.
+     *
+     * @param frame index of a frame
+     * @throws DecodeException if the frame index is negative or not less
+     *         than the number of frames
+     */
+    private void checkFrame(long frame) throws DecodeException {
+        long count = getFrameCount();
+        if (frame < 0 || frame >= count) {
+            throw new DecodeException(String.format(
+                "Frame %d is not within the %d frames.", frame, count));
+        }
+    }
+
+    /**
+     * Check that the given downscale factor is supported by the codec.
+     *
+     * @param scale downscale factor
+     * @throws DecodeException if the scale is not a power of two
+     *         between 1 and 16
+     */
+    static void checkScale(int scale) throws DecodeException {
+        if (scale < 1 || scale > 16 || Integer.bitCount(scale) != 1) {
+            throw new DecodeException(String.format(
+                "Scale %d is not one of 1, 2, 4, 8 or 16.", scale));
+        }
+    }
+
+    /**
+     * Register a listener to receive the metrics of every subsequent
+     * decode by any decoder into a buffer or strips.  The stages of
+     * decodes are only measured while a listener is registered.
+     *
+     * @param listener listener to register; registering the same listener
+     *        more than once reports every decode to it more than once
+     * @see #removeDecodeListener(DecodeListener)
+     */
+    protected static void addDecodeListener(DecodeListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("Listener is null.");
+        }
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop reporting decodes to the given listener.
+     *
+     * @param listener listener to remove
+     * @return true if the listener was registered
+     */
+    protected static boolean removeDecodeListener(DecodeListener listener) {
+        return listeners.remove(listener);
+    }
+
+    /**
+     * Calculate the size of the first JPEG-XR frame in the given byte
+     * array once decoded, without decoding it.
+     *
+     * @param source byte array containing JPEG-XR data
+     * @param offset starting index in the source byte array
+     * @param length number of valid bytes in the array starting at offset
+     * @return number of bytes required to hold the decoded frame
+     * @throws DecodeException if the range is not within the array or
+     *         the data could not be read
+     */
+    protected static int getDecodedSize(
+            byte[] source, int offset, int length) throws DecodeException {
+        return decodeInto(source, offset, length, null, 0);
+    }
+
+    /**
+     * Decode the first JPEG-XR frame from the given byte array directly
+     * into another, without the intermediate copies made by
+     * {@link #decodeFirstFrame(byte[], int, int)}.  Both arrays are pinned
+     * while decoding, which may delay garbage collection until the decode
+     * is complete.
+     *
+     * @param source byte array containing JPEG-XR data
+     * @param offset starting index in the source byte array
+     * @param length number of valid bytes in the array starting at offset
+     * @param destination byte array to decode into, or null to only
+     *        calculate the decoded size; must not be the source array
+     * @param destinationOffset starting index in the destination array
+     * @return number of bytes decoded into the destination array
+     * @throws DecodeException if either range is not within its array,
+     *         the destination is too small or the data could not be
+     *         decoded
+     * @see #getDecodedSize(byte[], int, int)
+     */
+    protected static int decodeInto(
+            byte[] source, int offset, int length,
+            byte[] destination, int destinationOffset)
+                throws DecodeException {
+        checkRange(source, offset, length);
+        if (destination != null) {
+            if (destination == source) {
+                throw new DecodeException(
+                    "Source and destination must be different arrays.");
+            }
+            checkRange(destination, destinationOffset,
+                       destination.length - destinationOffset);
+        }
+        long size;
+        try {
+            size = JXR.decodeInto(
+                source, offset, length, destination, destinationOffset);
+        } catch (Exception e) {
+            throw new DecodeException(e.getMessage(), e);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new DecodeException(String.format(
+                "Decoded size %d is larger than an array can hold.", size));
+        }
+        if (destination != null
+                && size > destination.length - destinationOffset) {
+            throw new DecodeException(String.format(
+                "Buffer capacity %d is less than the %d bytes required.",
+                destination.length - destinationOffset, size));
+        }
+        return (int) size;
+    }
+
+    /**
+     * Check that the given range is within the given byte array.
+     *
+     * @param array byte array
+     * @param offset starting index of the range
+     * @param length number of bytes in the range
+     * @throws DecodeException if the range is not within the array
+     */
+    private static void checkRange(byte[] array, int offset, int length)
+            throws DecodeException {
+        if (offset < 0 || length < 0 || offset > array.length - length) {
+            throw new DecodeException(String.format(
+                "Range of %d bytes at offset %d is not within the " +
+                "%d byte array.", length, offset, array.length));
+        }
+    }
+
+    /**
+     * Decode many small JPEG-XR images, such as the subblocks of a
+     * mosaic, from one buffer into another on the calling thread.
+     *
+     * @see #decodeBatch(ByteBuffer, int[], int[], ByteBuffer, int[], int)
+     */
+    protected static TileStatus[] decodeBatch(
+            ByteBuffer source, int[] offsets, int[] lengths,
+            ByteBuffer destination, int[] destinationOffsets)
+                throws DecodeException {
+        return decodeBatch(
+            source, offsets, lengths, destination, destinationOffsets, 1);
+    }
+
+    /**
+     * Decode many small JPEG-XR images, such as the subblocks of a
+     * mosaic, from one buffer into another with a single native call.
+     * The first frame of each tile is decoded as by
+     * {@link #toBytes(ByteBuffer)}, starting at its offset in the
+     * destination buffer.  Each native thread creates one codec factory
+     * and decoder and reinitializes the decoder for every tile, as a
+     * {@link DecoderPool} does, so only each tile's headers are parsed
+     * anew while the codec's working memory is kept from tile to tile.
+     * No Java objects are created per tile.  Offsets are from the start
+     * of each buffer; the positions and limits of the buffers are
+     * ignored.
+     * <p>
+     * A tile that cannot be decoded does not fail the batch; its status
+     * is reported instead and its part of the destination buffer is left
+     * in an undefined state.  Tiles are decoded in any order, so their
+     * parts of the destination buffer should not overlap.
+     *
+     * @param source directly allocated buffer containing the JPEG-XR
+     *        data of every tile
+     * @param offsets offset of each tile's data in the source buffer
+     * @param lengths number of bytes of each tile's data
+     * @param destination directly allocated buffer to store decoded data
+     * @param destinationOffsets offset of each decoded tile in the
+     *        destination buffer
+     * @param threads maximum number of native threads to decode with,
+     *        including the calling thread
+     * @return status of each tile
+     * @throws DecodeException if a buffer is not directly allocated, the
+     *         arrays differ in length or the thread count is not positive
+     */
+    protected static TileStatus[] decodeBatch(
+            ByteBuffer source, int[] offsets, int[] lengths,
+            ByteBuffer destination, int[] destinationOffsets, int threads)
+                throws DecodeException {
+        checkDirect(source);
+        checkDirect(destination);
+        if (lengths.length != offsets.length
+                || destinationOffsets.length != offsets.length) {
+            throw new DecodeException(String.format(
+                "Array lengths %d, %d and %d differ.", offsets.length,
+                lengths.length, destinationOffsets.length));
+        }
+        if (threads < 1) {
+            throw new DecodeException(String.format(
+                "Thread count %d is not positive.", threads));
+        }
+        int[] codes;
+        try {
+            codes = JXR.decodeBatch(source, offsets, lengths, destination,
+                                    destinationOffsets, threads);
+        } catch (Exception e) {
+            throw new DecodeException(e.getMessage(), e);
+        }
+        TileStatus[] status = new TileStatus[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            status[i] = TileStatus.valueOf(codes[i]);
+        }
+        return status;
+    }
+
     /**
      * Decode the first JPEG-XR frame from the given byte array.
      *
@@ -178,4 +1730,33 @@ abstract class AbstractDecode {
         DecodeContext decodeContext = new DecodeContext();
         return decodeContext.decodeFirstFrame(source, offset, length);
     }
+
+    /**
+     * Decode task that runs at most once, and that can be withdrawn if it
+     * has not yet started.
+     */
+    private abstract static class DecodeTask<T> implements Callable<T> {
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        /**
+         * @return result of the decode
+         * @throws Exception if the decode failed
+         */
+        abstract T decode() throws Exception;
+
+        @Override
+        public T call() throws Exception {
+            return claimed.compareAndSet(false, true) ? decode() : null;
+        }
+
+        /**
+         * Prevent this task from starting.
+         *
+         * @return whether the task had not started
+         */
+        boolean withdraw() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
 }
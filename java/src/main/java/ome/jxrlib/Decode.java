@@ -19,20 +19,23 @@
 package ome.jxrlib;
 
 import java.io.File;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
-
-import org.scijava.nativelib.NativeLibraryUtil;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
 
 /**
  * Concrete class for decoding JPEG-XR data.
- * Automatically loads the relevant native libraries.
+ * Automatically loads the relevant native libraries, using the variant
+ * optimized for the host CPU where one is available.
  *
  * @see AbstractDecode
  */
 public class Decode extends AbstractDecode {
 
     static {
-        NativeLibraryUtil.loadNativeLibrary(Decode.class, "jxrjava");
+        NativeLoader.load();
     }
 
     /**
@@ -64,6 +67,86 @@ public class Decode extends AbstractDecode {
         super(dataBuffer, offset, length);
     }
 
+    /**
+     * @see AbstractDecode(Path, long, long)
+     */
+    public Decode(Path path, long offset, long length)
+            throws DecodeException {
+        super(path, offset, length);
+    }
+
+    /**
+     * @see AbstractDecode(FileChannel, long, long)
+     */
+    public Decode(FileChannel channel, long offset, long length)
+            throws DecodeException {
+        super(channel, offset, length);
+    }
+
+    /**
+     * @see AbstractDecode(SeekableByteChannel)
+     */
+    public Decode(SeekableByteChannel channel) {
+        super(channel);
+    }
+
+    /**
+     * Every byte read from the stream is retained until this decoder is
+     * closed.
+     *
+     * @see AbstractDecode(InputStream)
+     */
+    public Decode(InputStream stream) {
+        super(stream);
+    }
+
+    /**
+     * @see AbstractDecode(DecoderPool.Entry, File, ByteBuffer, int, int)
+     */
+    Decode(DecoderPool.Entry poolEntry, File inputFile,
+           ByteBuffer dataBuffer, int offset, int length) {
+        super(poolEntry, inputFile, dataBuffer, offset, length);
+    }
+
+    /**
+     * @see AbstractDecode#decodeBatch(ByteBuffer, int[], int[], ByteBuffer,
+     *      int[])
+     */
+    public static TileStatus[] decodeBatch(
+            ByteBuffer source, int[] offsets, int[] lengths,
+            ByteBuffer destination, int[] destinationOffsets)
+                throws DecodeException {
+        return AbstractDecode.decodeBatch(
+            source, offsets, lengths, destination, destinationOffsets);
+    }
+
+    /**
+     * @see AbstractDecode#decodeBatch(ByteBuffer, int[], int[], ByteBuffer,
+     *      int[], int)
+     */
+    public static TileStatus[] decodeBatch(
+            ByteBuffer source, int[] offsets, int[] lengths,
+            ByteBuffer destination, int[] destinationOffsets, int threads)
+                throws DecodeException {
+        return AbstractDecode.decodeBatch(source, offsets, lengths,
+                                          destination, destinationOffsets,
+                                          threads);
+    }
+
+    /**
+     * @see AbstractDecode#addDecodeListener(DecodeListener)
+     */
+    public static void addDecodeListener(DecodeListener listener) {
+        AbstractDecode.addDecodeListener(listener);
+    }
+
+    /**
+     * @see AbstractDecode#removeDecodeListener(DecodeListener)
+     */
+    public static boolean removeDecodeListener(DecodeListener listener) {
+        return AbstractDecode.removeDecodeListener(listener);
+    }
+
     /**
      * @see AbstractDecode#decodeFirstFrame(byte[], int, int)
      */
@@ -71,4 +154,23 @@ public class Decode extends AbstractDecode {
             byte[] source, int offset, int length) {
         return AbstractDecode.decodeFirstFrame(source, offset, length);
     }
+
+    /**
+     * @see AbstractDecode#getDecodedSize(byte[], int, int)
+     */
+    public static int getDecodedSize(byte[] source, int offset, int length)
+            throws DecodeException {
+        return AbstractDecode.getDecodedSize(source, offset, length);
+    }
+
+    /**
+     * @see AbstractDecode#decodeInto(byte[], int, int, byte[], int)
+     */
+    public static int decodeInto(
+            byte[] source, int offset, int length,
+            byte[] destination, int destinationOffset)
+                throws DecodeException {
+        return AbstractDecode.decodeInto(
+            source, offset, length, destination, destinationOffset);
+    }
 }
@@ -28,4 +28,8 @@ public class DecodeException extends Exception {
     public DecodeException(String message) {
         super(message);
     }
+
+    public DecodeException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+/**
+ * Receives the metrics of every completed decode while registered with
+ * {@link Decode#addDecodeListener(DecodeListener)}.  Decodes are only
+ * measured while at least one listener is registered.
+ * <p>
+ * Listeners are called on the decoding thread, possibly from several
+ * threads at once, and should return quickly.  An exception thrown by a
+ * listener propagates to the caller of the decode.
+ *
+ * @see DecodeStatistics
+ */
+public interface DecodeListener {
+
+    /**
+     * Called once a decode has completed successfully.
+     *
+     * @param metrics measurements of the decode
+     */
+    void decoded(DecodeMetrics metrics);
+
+}
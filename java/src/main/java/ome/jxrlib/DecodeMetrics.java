@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+/**
+ * Measurements of a single decode, as reported to a
+ * {@link DecodeListener}.  Times are in nanoseconds.
+ * <p>
+ * Stage times are summed over every thread that took part in the
+ * decode, so for decodes split into bands of tiles they may add up to
+ * more than the elapsed time.  The header time is that of parsing the
+ * container and image headers when the decoder was constructed or a frame
+ * was selected, and is only reported by the first decode that follows.
+ */
+public final class DecodeMetrics {
+
+    private final long headerNanos;
+    private final long entropyDecodeNanos;
+    private final long inverseTransformNanos;
+    private final long colorConversionNanos;
+    private final long totalNanos;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long tileCount;
+
+    DecodeMetrics(long headerNanos, long entropyDecodeNanos,
+                  long inverseTransformNanos, long colorConversionNanos,
+                  long totalNanos, long bytesIn, long bytesOut,
+                  long tileCount) {
+        this.headerNanos = headerNanos;
+        this.entropyDecodeNanos = entropyDecodeNanos;
+        this.inverseTransformNanos = inverseTransformNanos;
+        this.colorConversionNanos = colorConversionNanos;
+        this.totalNanos = totalNanos;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.tileCount = tileCount;
+    }
+
+    /**
+     * @return time spent parsing headers before this decode, or 0 if it
+     *         was already reported by an earlier decode
+     */
+    public long getHeaderNanos() {
+        return headerNanos;
+    }
+
+    /**
+     * @return time spent entropy decoding, predicting and dequantizing
+     *         coefficients
+     */
+    public long getEntropyDecodeNanos() {
+        return entropyDecodeNanos;
+    }
+
+    /**
+     * @return time spent in the inverse transform and overlap filtering
+     */
+    public long getInverseTransformNanos() {
+        return inverseTransformNanos;
+    }
+
+    /**
+     * @return time spent converting decoded macroblock rows to the output
+     *         pixel format and copying them out
+     */
+    public long getColorConversionNanos() {
+        return colorConversionNanos;
+    }
+
+    /**
+     * @return elapsed time of the decode on the calling thread
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return size of the JPEG-XR data being decoded
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * @return number of bytes of decoded pixel data
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @return number of tiles overlapping the decoded region
+     */
+    public long getTileCount() {
+        return tileCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "DecodeMetrics[header=%d, entropyDecode=%d, " +
+            "inverseTransform=%d, colorConversion=%d, total=%d ns, " +
+            "bytesIn=%d, bytesOut=%d, tiles=%d]",
+            headerNanos, entropyDecodeNanos, inverseTransformNanos,
+            colorConversionNanos, totalNanos, bytesIn, bytesOut, tileCount);
+    }
+
+}
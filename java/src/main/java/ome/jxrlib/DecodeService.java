@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Decodes JPEG-XR images asynchronously on a fixed number of dedicated
+ * platform threads, so that callers such as virtual thread request
+ * handlers never block in native code.  Each thread reuses its native
+ * decoder through a {@link DecoderPool}.
+ * <p>
+ * Two limits apply backpressure.  At most <code>maxQueued</code> images
+ * may be waiting for a thread; submitting another one either blocks the
+ * caller until one is taken or is rejected, depending on the
+ * {@link OverflowPolicy}.  Decoded images of at most
+ * <code>maxBytes</code> bytes in total may be held at any one time; an
+ * image counts against this limit from when its buffer is allocated until
+ * the caller closes the {@link DecodedImage}, or until its decode fails
+ * or its future is cancelled.  A thread whose image does not fit waits
+ * for earlier images to be closed or, with {@link OverflowPolicy#REJECT},
+ * fails that image.  Rejected images complete their future exceptionally
+ * with a {@link RejectedExecutionException}.  With
+ * {@link OverflowPolicy#BLOCK}, callers should close images as they
+ * complete rather than in submission order: an image that has not
+ * completed may be waiting for the bytes held by later ones.
+ * <p>
+ * Cancelling a returned future before a thread has started decoding it
+ * removes the image from the queue and no native work is done.  Once
+ * decoding has started it runs to completion and the result is
+ * discarded, releasing its bytes.
+ * Automatically loads the relevant native libraries.
+ *
+ * @see Decode
+ */
+public class DecodeService implements AutoCloseable {
+
+    static {
+        NativeLoader.load();
+    }
+
+    /**
+     * What to do with an image when a limit has been reached.
+     */
+    public enum OverflowPolicy {
+        /** Wait until the image fits within the limit. */
+        BLOCK,
+        /** Fail the image with a {@link RejectedExecutionException}. */
+        REJECT
+    }
+
+    /**
+     * JPEG-XR data to be opened by a thread of the service.
+     */
+    private interface Source {
+
+        /**
+         * @param pool pool of the calling thread's decoder
+         * @return decoder for the JPEG-XR data
+         * @throws DecodeException if the data could not be read
+         */
+        Decode open(DecoderPool pool) throws DecodeException;
+    }
+
+    /**
+     * Image waiting for or being decoded by a thread of the service.
+     */
+    private final class Task implements Runnable {
+
+        final Source source;
+        final CompletableFuture<DecodedImage> future =
+            new CompletableFuture<DecodedImage>();
+        private final AtomicBoolean dequeued = new AtomicBoolean();
+
+        Task(Source source) {
+            this.source = source;
+        }
+
+        /**
+         * Free this task's queue slot, once.
+         */
+        void dequeue() {
+            if (dequeued.compareAndSet(false, true)) {
+                executor.remove(this);
+                queueSlots.release();
+            }
+        }
+
+        @Override
+        public void run() {
+            dequeue();
+            if (future.isDone()) {
+                return;
+            }
+            try (Decode decode = source.open(pool)) {
+                DecodedImage image = decode(decode);
+                if (image != null && !future.complete(image)) {
+                    // cancelled while decoding, so nobody will close it
+                    image.close();
+                }
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Decode within the byte limit.
+         *
+         * @return decoded image, which holds its bytes of the limit until
+         *         it is closed, or null if the task was cancelled while
+         *         waiting for the byte limit
+         */
+        private DecodedImage decode(Decode decode) throws DecodeException {
+            final long size = decode.getWidth() * decode.getHeight()
+                    * decode.getBytesPerPixel();
+            if (size > maxBytes || size > Integer.MAX_VALUE) {
+                throw new DecodeException(String.format(
+                    "Decoded image of %d bytes exceeds the %d byte limit.",
+                    size, Math.min(maxBytes, Integer.MAX_VALUE)));
+            }
+            reserve(size);
+            boolean reserved = true;
+            try {
+                if (future.isDone()) {
+                    return null;
+                }
+                ByteBuffer pixels = ByteBuffer.allocateDirect((int) size);
+                decode.toBytes(pixels);
+                DecodedImage image = new DecodedImage(
+                    decode, pixels, new Runnable() {
+                        @Override
+                        public void run() {
+                            release(size);
+                        }
+                    });
+                reserved = false;
+                return image;
+            } finally {
+                if (reserved) {
+                    release(size);
+                }
+            }
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final DecoderPool pool = new DecoderPool();
+    private final Semaphore queueSlots;
+    private final int maxQueued;
+    private final long maxBytes;
+    private final OverflowPolicy policy;
+    private final Object budget = new Object();
+    private long bytesInFlight;
+    private volatile boolean closed;
+
+    /**
+     * Construct a service and start its threads.
+     *
+     * @param threads number of threads to decode with
+     * @param maxQueued maximum number of images waiting for a thread
+     * @param maxBytes maximum total size of the decoded images held at any
+     *        one time; no single image may be larger
+     * @param policy what to do with images that exceed a limit
+     * @throws IllegalArgumentException if a limit is not positive
+     */
+    public DecodeService(
+            int threads, int maxQueued, long maxBytes, OverflowPolicy policy) {
+        if (threads < 1) {
+            throw new IllegalArgumentException(String.format(
+                "Thread count %d is not positive.", threads));
+        }
+        if (maxQueued < 1) {
+            throw new IllegalArgumentException(String.format(
+                "Queue depth %d is not positive.", maxQueued));
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException(String.format(
+                "Byte limit %d is not positive.", maxBytes));
+        }
+        this.maxQueued = maxQueued;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        queueSlots = new Semaphore(maxQueued);
+        executor = new ThreadPoolExecutor(
+            threads, threads, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(
+                        r, "jxrlib-decode-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Decode the JPEG-XR data in the given file.
+     *
+     * @param inputFile file containing JPEG-XR data.
+     *        Should exist and be non-null.
+     * @return future completed with the decoded image
+     */
+    public CompletableFuture<DecodedImage> submit(final File inputFile) {
+        return submit(new Source() {
+            @Override
+            public Decode open(DecoderPool pool) {
+                return pool.acquire(inputFile);
+            }
+        });
+    }
+
+    /**
+     * Decode the JPEG-XR data stored at the given offset of a file.
+     * The data is memory mapped rather than copied.
+     *
+     * @param path file containing JPEG-XR data; should be non-null
+     * @param offset offset of the JPEG-XR data within the file
+     * @param length number of bytes of JPEG-XR data
+     * @return future completed with the decoded image
+     */
+    public CompletableFuture<DecodedImage> submit(
+            final Path path, final long offset, final long length) {
+        return submit(new Source() {
+            @Override
+            public Decode open(DecoderPool pool) throws DecodeException {
+                return pool.acquire(path, offset, length);
+            }
+        });
+    }
+
+    /**
+     * Decode the JPEG-XR data in the given byte array.  The array should
+     * not be modified until the returned future completes.
+     *
+     * @param data array containing JPEG-XR data; should be non-null
+     * @param offset starting index in the array
+     * @param length number of bytes to read from the array
+     * @return future completed with the decoded image
+     */
+    public CompletableFuture<DecodedImage> submit(
+            final byte[] data, final int offset, final int length) {
+        return submit(new Source() {
+            @Override
+            public Decode open(DecoderPool pool) throws DecodeException {
+                return pool.acquire(data, offset, length);
+            }
+        });
+    }
+
+    /**
+     * Decode the JPEG-XR data in the given buffer.  The buffer should not
+     * be modified until the returned future completes.
+     *
+     * @param dataBuffer buffer containing JPEG-XR data.
+     *        Should be non-null and directly allocated.
+     * @return future completed with the decoded image
+     */
+    public CompletableFuture<DecodedImage> submit(
+            final ByteBuffer dataBuffer) {
+        return submit(new Source() {
+            @Override
+            public Decode open(DecoderPool pool) throws DecodeException {
+                return pool.acquire(dataBuffer);
+            }
+        });
+    }
+
+    /**
+     * @return number of images waiting for a thread
+     */
+    public int getQueuedCount() {
+        return maxQueued - queueSlots.availablePermits();
+    }
+
+    /**
+     * @return total size of the decoded images that are being filled or
+     * have completed but not yet been closed
+     */
+    public long getBytesInFlight() {
+        synchronized (budget) {
+            return bytesInFlight;
+        }
+    }
+
+    /**
+     * Stop the service's threads.  Images that are still waiting for a
+     * thread are cancelled; images that are being decoded complete
+     * normally.  The native resources held by the service are released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Runnable task : executor.shutdownNow()) {
+            ((Task) task).future.cancel(false);
+        }
+        pool.close();
+    }
+
+    /**
+     * Queue a task for the given source, applying the queue depth limit.
+     */
+    private CompletableFuture<DecodedImage> submit(Source source) {
+        final Task task = new Task(source);
+        if (closed) {
+            task.future.completeExceptionally(new RejectedExecutionException(
+                "Decode service has been closed."));
+            return task.future;
+        }
+        if (policy == OverflowPolicy.BLOCK) {
+            try {
+                queueSlots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                task.future.completeExceptionally(e);
+                return task.future;
+            }
+        } else if (!queueSlots.tryAcquire()) {
+            task.future.completeExceptionally(new RejectedExecutionException(
+                String.format("Decode queue is full with %d images.",
+                              maxQueued)));
+            return task.future;
+        }
+        task.future.whenComplete(new BiConsumer<DecodedImage, Throwable>() {
+            @Override
+            public void accept(DecodedImage image, Throwable t) {
+                if (task.future.isCancelled()) {
+                    task.dequeue();
+                }
+            }
+        });
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.dequeue();
+            task.future.completeExceptionally(new RejectedExecutionException(
+                "Decode service has been closed.", e));
+        }
+        return task.future;
+    }
+
+    /**
+     * Reserve the given number of bytes of the byte limit, waiting for
+     * other images to release them if the policy allows.
+     *
+     * @throws RejectedExecutionException if the bytes are not available
+     *         and the policy is {@link OverflowPolicy#REJECT}, or the
+     *         service was closed while waiting
+     */
+    private void reserve(long size) {
+        synchronized (budget) {
+            while (bytesInFlight + size > maxBytes) {
+                if (policy == OverflowPolicy.REJECT) {
+                    throw new RejectedExecutionException(String.format(
+                        "%d of the %d byte limit are already in use.",
+                        bytesInFlight, maxBytes));
+                }
+                try {
+                    budget.wait();
+                } catch (InterruptedException e) {
+                    throw new RejectedExecutionException(
+                        "Decode service has been closed.", e);
+                }
+            }
+            bytesInFlight += size;
+        }
+    }
+
+    /**
+     * Return the given number of bytes to the byte limit.
+     */
+    private void release(long size) {
+        synchronized (budget) {
+            bytesInFlight -= size;
+            budget.notifyAll();
+        }
+    }
+
+}
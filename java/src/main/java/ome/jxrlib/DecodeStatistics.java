@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Aggregates the metrics of decodes into totals and per-stage latency
+ * histograms.  Statistics only receive metrics once added as a listener,
+ * either directly with {@link Decode#addDecodeListener(DecodeListener)}
+ * or by {@link #register()}, which also exposes them through JMX.
+ * <p>
+ * Statistics are thread-safe.
+ */
+public class DecodeStatistics
+        implements DecodeListener, DecodeStatisticsMXBean {
+
+    /** Name under which {@link #register()} exposes statistics. */
+    public static final String OBJECT_NAME =
+        "ome.jxrlib:type=DecodeStatistics";
+
+    private static final double NANOS_PER_MICRO = 1000;
+
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong tiles = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final Histogram header = new Histogram();
+    private final Histogram entropyDecode = new Histogram();
+    private final Histogram inverseTransform = new Histogram();
+    private final Histogram colorConversion = new Histogram();
+    private final Histogram total = new Histogram();
+
+    @Override
+    public void decoded(DecodeMetrics metrics) {
+        bytesIn.addAndGet(metrics.getBytesIn());
+        bytesOut.addAndGet(metrics.getBytesOut());
+        tiles.addAndGet(metrics.getTileCount());
+        totalNanos.addAndGet(metrics.getTotalNanos());
+        // only the first decode after the headers are parsed reports them
+        if (metrics.getHeaderNanos() > 0) {
+            header.record(metrics.getHeaderNanos());
+        }
+        entropyDecode.record(metrics.getEntropyDecodeNanos());
+        inverseTransform.record(metrics.getInverseTransformNanos());
+        colorConversion.record(metrics.getColorConversionNanos());
+        total.record(metrics.getTotalNanos());
+    }
+
+    /**
+     * Start receiving the metrics of every decode and register these
+     * statistics with the platform MBean server under
+     * {@link #OBJECT_NAME}.
+     *
+     * @throws JMException if statistics are already registered under that
+     *         name
+     */
+    public void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, new ObjectName(OBJECT_NAME));
+        Decode.addDecodeListener(this);
+    }
+
+    /**
+     * Stop receiving metrics and unregister these statistics from the
+     * platform MBean server.
+     *
+     * @throws JMException if these statistics are not registered
+     */
+    public void unregister() throws JMException {
+        Decode.removeDecodeListener(this);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.unregisterMBean(new ObjectName(OBJECT_NAME));
+    }
+
+    @Override
+    public long getDecodeCount() {
+        return total.getCount();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    @Override
+    public long getTileCount() {
+        return tiles.get();
+    }
+
+    @Override
+    public double getMegabytesPerSecond() {
+        long nanos = totalNanos.get();
+        // bytes per nanosecond are thousands of megabytes per second
+        return nanos == 0 ? 0 : bytesOut.get() * 1000.0 / nanos;
+    }
+
+    @Override
+    public LatencySummary getHeaderTime() {
+        return header.summarize(NANOS_PER_MICRO);
+    }
+
+    @Override
+    public LatencySummary getEntropyDecodeTime() {
+        return entropyDecode.summarize(NANOS_PER_MICRO);
+    }
+
+    @Override
+    public LatencySummary getInverseTransformTime() {
+        return inverseTransform.summarize(NANOS_PER_MICRO);
+    }
+
+    @Override
+    public LatencySummary getColorConversionTime() {
+        return colorConversion.summarize(NANOS_PER_MICRO);
+    }
+
+    @Override
+    public LatencySummary getTotalTime() {
+        return total.summarize(NANOS_PER_MICRO);
+    }
+
+    @Override
+    public void reset() {
+        bytesIn.set(0);
+        bytesOut.set(0);
+        tiles.set(0);
+        totalNanos.set(0);
+        header.reset();
+        entropyDecode.reset();
+        inverseTransform.reset();
+        colorConversion.reset();
+        total.reset();
+    }
+
+}
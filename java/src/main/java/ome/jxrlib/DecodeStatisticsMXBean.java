@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+/**
+ * Management interface of {@link DecodeStatistics}.  Times are in
+ * microseconds.
+ */
+public interface DecodeStatisticsMXBean {
+
+    /**
+     * @return number of decodes measured since the last reset
+     */
+    long getDecodeCount();
+
+    /**
+     * @return total size of the JPEG-XR data decoded
+     */
+    long getBytesIn();
+
+    /**
+     * @return total number of bytes of decoded pixel data
+     */
+    long getBytesOut();
+
+    /**
+     * @return total number of tiles decoded
+     */
+    long getTileCount();
+
+    /**
+     * @return decoded megabytes (10<sup>6</sup> bytes) per second of
+     *         decode time
+     */
+    double getMegabytesPerSecond();
+
+    /**
+     * @return distribution of the header parsing time
+     */
+    LatencySummary getHeaderTime();
+
+    /**
+     * @return distribution of the entropy decoding time
+     */
+    LatencySummary getEntropyDecodeTime();
+
+    /**
+     * @return distribution of the inverse transform time
+     */
+    LatencySummary getInverseTransformTime();
+
+    /**
+     * @return distribution of the color conversion time
+     */
+    LatencySummary getColorConversionTime();
+
+    /**
+     * @return distribution of the elapsed time of each decode
+     */
+    LatencySummary getTotalTime();
+
+    /**
+     * Discard all measurements.
+     */
+    void reset();
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decoded pixel data of a JPEG-XR image together with its dimensions and
+ * pixel format.  Pixels are stored row by row, without padding, in a
+ * directly allocated buffer.
+ * <p>
+ * Images produced by a {@link DecodeService} count against its byte limit
+ * until they are closed, so callers should close each image as soon as
+ * they are done with its pixel data and should not use the pixel data
+ * afterwards.  Closing other images has no effect.
+ *
+ * @see DecodeService
+ */
+public final class DecodedImage implements AutoCloseable {
+
+    private final long width;
+    private final long height;
+    private final long bytesPerPixel;
+    private final GUID pixelFormat;
+    private final boolean bgr;
+    private final ByteBuffer pixels;
+    private final Runnable onClose;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Capture the dimensions and pixel format of the given decoder along
+     * with the pixel data it decoded.
+     *
+     * @param decode decoder the pixel data was decoded with
+     * @param pixels buffer containing the decoded pixel data
+     */
+    DecodedImage(AbstractDecode decode, ByteBuffer pixels) {
+        this(decode, pixels, null);
+    }
+
+    /**
+     * Capture the dimensions and pixel format of the given decoder along
+     * with the pixel data it decoded.
+     *
+     * @param decode decoder the pixel data was decoded with
+     * @param pixels buffer containing the decoded pixel data
+     * @param onClose run once when the image is first closed, or
+     *        <code>null</code>
+     */
+    DecodedImage(AbstractDecode decode, ByteBuffer pixels, Runnable onClose) {
+        this.width = decode.getWidth();
+        this.height = decode.getHeight();
+        this.bytesPerPixel = decode.getBytesPerPixel();
+        this.pixelFormat = decode.getPixelFormat();
+        this.bgr = decode.isBGR();
+        this.pixels = pixels;
+        this.onClose = onClose;
+    }
+
+    /**
+     * @return width of the decoded image in pixels
+     */
+    public long getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of the decoded image in pixels
+     */
+    public long getHeight() {
+        return height;
+    }
+
+    /**
+     * @return number of bytes in each decoded pixel
+     */
+    public long getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+    /**
+     * @return GUID of the decoded pixel format
+     */
+    public GUID getPixelFormat() {
+        return pixelFormat;
+    }
+
+    /**
+     * @return true if color channels are stored in BGR order
+     */
+    public boolean isBGR() {
+        return bgr;
+    }
+
+    /**
+     * @return new view of the directly allocated buffer containing the
+     * decoded pixel data; its position is 0 and its limit is the size of
+     * the pixel data
+     */
+    public ByteBuffer getPixels() {
+        return pixels.duplicate();
+    }
+
+    /**
+     * Release the image's share of the byte limit of the
+     * {@link DecodeService} that decoded it.  Closing an image more than
+     * once has no further effect.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true) && onClose != null) {
+            onClose.run();
+        }
+    }
+
+}
@@ -0,0 +1,526 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package ome.jxrlib;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of decoded tiles, so that repeated requests for the same frame,
+ * region, scale and quality of an image do not decode it again.  Decoded
+ * pixels are kept in directly allocated buffers leased from a
+ * {@link DirectBufferPool}, and the least recently used tiles are evicted
+ * once their total size exceeds the cache's byte budget.
+ * <p>
+ * Tiles are looked up with {@link #get(Key, Source)}, which decodes a
+ * missing tile with a decoder opened from the given source.  Concurrent
+ * requests for a tile that is being decoded wait for that decode rather
+ * than starting their own, so each tile is decoded only once however many
+ * threads ask for it.  A failed decode is not cached; every request
+ * waiting for it fails with the same exception.
+ * <p>
+ * Requests return a {@link Tile}, which keeps the decoded pixels valid
+ * until it is closed even if the tile is evicted meanwhile.  The buffer
+ * of an evicted tile is returned to the pool once its last
+ * {@link Tile} is closed.
+ * <p>
+ * Caches are thread-safe.
+ * Automatically loads the relevant native libraries.
+ *
+ * @see DecoderPool
+ */
+public class DecodedTileCache {
+
+    static {
+        NativeLoader.load();
+    }
+
+    /**
+     * JPEG-XR data to decode a missing tile from.
+     */
+    public interface Source {
+
+        /**
+         * @return decoder for the JPEG-XR data, which the cache closes
+         *         once the tile is decoded
+         * @throws DecodeException if the data could not be read
+         */
+        Decode open() throws DecodeException;
+    }
+
+    /**
+     * Identifies a decoded tile: the image it is decoded from and the
+     * frame, region, scale and quality it is decoded at.
+     */
+    public static final class Key {
+
+        private final Object source;
+        private final long frame;
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+        private final int scale;
+        private final Subband quality;
+
+        /**
+         * Identify a whole frame.
+         *
+         * @see #Key(Object, long, int, int, int, int, int, Subband)
+         */
+        public Key(Object source, long frame, int scale, Subband quality) {
+            this(source, frame, 0, 0, 0, 0, scale, quality);
+        }
+
+        /**
+         * Identify a region of a frame.
+         *
+         * @param source identity of the JPEG-XR data, compared with
+         *        {@link Object#equals(Object)}, such as its
+         *        {@link java.nio.file.Path}; should be non-null and should
+         *        not equal the identity of any other data
+         * @param frame index of the frame
+         * @param x X coordinate of the upper-left corner of the region
+         * @param y Y coordinate of the upper-left corner of the region
+         * @param width width of the region in pixels, or 0 for the whole
+         *        frame
+         * @param height height of the region in pixels, or 0 for the whole
+         *        frame
+         * @param scale downscale factor; region coordinates are relative to
+         *        the downscaled frame
+         * @param quality subbands to decode; should be non-null
+         * @see AbstractDecode#setRegion(int, int, int, int)
+         * @see AbstractDecode#setScale(int)
+         * @see AbstractDecode#setQuality(Subband)
+         */
+        public Key(Object source, long frame, int x, int y,
+                   int width, int height, int scale, Subband quality) {
+            this.source = source;
+            this.frame = frame;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.scale = scale;
+            this.quality = quality;
+        }
+
+        /**
+         * @return identity of the JPEG-XR data
+         */
+        public Object getSource() {
+            return source;
+        }
+
+        /**
+         * Select this key's frame, scale, quality and region.
+         */
+        void apply(AbstractDecode decode) throws DecodeException {
+            decode.selectFrame(frame);
+            decode.setScale(scale);
+            decode.setQuality(quality);
+            if (width == 0 || height == 0) {
+                decode.clearRegion();
+            } else {
+                decode.setRegion(x, y, width, height);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return source.equals(other.source) && frame == other.frame
+                && x == other.x && y == other.y
+                && width == other.width && height == other.height
+                && scale == other.scale && quality == other.quality;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = source.hashCode();
+            hash = 31 * hash + (int) (frame ^ (frame >>> 32));
+            hash = 31 * hash + x;
+            hash = 31 * hash + y;
+            hash = 31 * hash + width;
+            hash = 31 * hash + height;
+            hash = 31 * hash + scale;
+            return 31 * hash + quality.hashCode();
+        }
+    }
+
+    /**
+     * Reference to a cached tile, which keeps its pixels valid until
+     * closed.  The pixels must not be used once the reference is closed.
+     */
+    public static final class Tile implements AutoCloseable {
+
+        private final Entry entry;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Tile(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * @return decoded tile, whose pixels are read-only and remain valid
+         *         until this reference is closed; closing the image itself
+         *         has no effect
+         */
+        public DecodedImage getImage() {
+            return entry.image;
+        }
+
+        /**
+         * Release the reference.  Closing more than once has no effect.
+         */
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                entry.release();
+            }
+        }
+    }
+
+    /**
+     * Decoded tile, counting the references held by the cache and by
+     * open {@link Tile}s.  The buffer is returned to its pool when the
+     * count drops to zero.
+     */
+    private static final class Entry {
+
+        final CompletableFuture<Entry> future;
+        final DirectBufferPool.Lease lease;
+        final DecodedImage image;
+        final long size;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Entry(CompletableFuture<Entry> future, DirectBufferPool.Lease lease,
+              DecodedImage image) {
+            this.future = future;
+            this.lease = lease;
+            this.image = image;
+            this.size = lease.getBuffer().capacity();
+        }
+
+        /**
+         * @return false if the buffer has already been returned to its pool
+         */
+        boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                lease.close();
+            }
+        }
+    }
+
+    private final long maxBytes;
+    private final DirectBufferPool pool;
+    // completed or in-flight decode of every key that has not been evicted
+    private final ConcurrentHashMap<Key, CompletableFuture<Entry>> loads =
+        new ConcurrentHashMap<Key, CompletableFuture<Entry>>();
+    // cached entries from least to most recently used; guards cachedBytes
+    // and every removal from loads of a completed decode
+    private final LinkedHashMap<Key, Entry> lru =
+        new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private long cachedBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Construct an empty cache leasing buffers from the
+     * {@link DirectBufferPool#getDefault() default pool}.
+     *
+     * @see #DecodedTileCache(long, DirectBufferPool)
+     */
+    public DecodedTileCache(long maxBytes) {
+        this(maxBytes, DirectBufferPool.getDefault());
+    }
+
+    /**
+     * Construct an empty cache.
+     *
+     * @param maxBytes maximum total size of the cached tiles; tiles
+     *        larger than this are decoded but never cached
+     * @param pool pool to lease the buffers of decoded tiles from;
+     *        evicted buffers are returned to it for reuse
+     * @throws IllegalArgumentException if the maximum is negative
+     */
+    public DecodedTileCache(long maxBytes, DirectBufferPool pool) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException(String.format(
+                "Maximum cached size %d is negative.", maxBytes));
+        }
+        this.maxBytes = maxBytes;
+        this.pool = pool;
+    }
+
+    /**
+     * Look up a tile, decoding it if it is not cached.  If another thread
+     * is already decoding the tile, wait for that decode instead.
+     *
+     * @param key tile to look up
+     * @param source data to decode the tile from if it is not cached;
+     *        only opened by the thread that decodes the tile
+     * @return reference to the tile, which should be closed once its
+     *         pixels are no longer needed
+     * @throws DecodeException if the tile could not be decoded
+     */
+    public Tile get(Key key, Source source) throws DecodeException {
+        while (true) {
+            CompletableFuture<Entry> future = loads.get(key);
+            if (future == null) {
+                CompletableFuture<Entry> created =
+                    new CompletableFuture<Entry>();
+                future = loads.putIfAbsent(key, created);
+                if (future == null) {
+                    misses.incrementAndGet();
+                    return load(key, source, created);
+                }
+            }
+            Entry entry = await(future);
+            if (entry.retain()) {
+                hits.incrementAndGet();
+                synchronized (lru) {
+                    // mark as most recently used
+                    lru.get(key);
+                }
+                return new Tile(entry);
+            }
+            // evicted and released since it was looked up; look up again
+        }
+    }
+
+    /**
+     * Remove a tile from the cache.  A decode of the tile that is in
+     * progress completes but is not cached.
+     *
+     * @param key tile to remove
+     */
+    public void invalidate(Key key) {
+        Entry entry;
+        synchronized (lru) {
+            loads.remove(key);
+            entry = lru.remove(key);
+            if (entry != null) {
+                cachedBytes -= entry.size;
+            }
+        }
+        if (entry != null) {
+            entry.release();
+        }
+    }
+
+    /**
+     * Remove every tile decoded from the given data, for example once it
+     * has changed.
+     *
+     * @param source identity of the JPEG-XR data
+     * @see Key#getSource()
+     */
+    public void invalidateSource(Object source) {
+        invalidateMatching(source);
+    }
+
+    /**
+     * Remove every tile from the cache.
+     */
+    public void invalidateAll() {
+        invalidateMatching(null);
+    }
+
+    /**
+     * @return maximum total size of the cached tiles
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return total size of the tiles currently cached
+     */
+    public long getCachedBytes() {
+        synchronized (lru) {
+            return cachedBytes;
+        }
+    }
+
+    /**
+     * @return number of tiles currently cached
+     */
+    public int getTileCount() {
+        synchronized (lru) {
+            return lru.size();
+        }
+    }
+
+    /**
+     * @return number of requests answered by a cached tile or by another
+     *         request's decode
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of requests that decoded their tile
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of tiles evicted to stay within the maximum size
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Decode a missing tile, cache it and complete its future.  The
+     * future fails and is forgotten if the tile cannot be decoded.
+     */
+    private Tile load(Key key, Source source, CompletableFuture<Entry> future)
+            throws DecodeException {
+        Entry entry;
+        try (Decode decode = source.open()) {
+            key.apply(decode);
+            DirectBufferPool.Lease lease = decode.toPooledBuffer(pool);
+            entry = new Entry(future, lease,
+                new DecodedImage(decode, lease.getBuffer().asReadOnlyBuffer()));
+        } catch (Throwable t) {
+            loads.remove(key, future);
+            future.completeExceptionally(t);
+            throw t;
+        }
+        // the caller's reference; the initial one belongs to the cache
+        entry.retain();
+        insert(key, entry);
+        future.complete(entry);
+        return new Tile(entry);
+    }
+
+    /**
+     * Cache a decoded tile, evicting the least recently used tiles until
+     * the cache is within its maximum size again.
+     */
+    private void insert(Key key, Entry entry) {
+        List<Entry> released = new ArrayList<Entry>();
+        synchronized (lru) {
+            if (entry.size > maxBytes || loads.get(key) != entry.future) {
+                // too large, or invalidated while it was being decoded
+                loads.remove(key, entry.future);
+                released.add(entry);
+            } else {
+                lru.put(key, entry);
+                cachedBytes += entry.size;
+                Iterator<Map.Entry<Key, Entry>> eldest =
+                    lru.entrySet().iterator();
+                while (cachedBytes > maxBytes) {
+                    Map.Entry<Key, Entry> evicted = eldest.next();
+                    eldest.remove();
+                    loads.remove(evicted.getKey(), evicted.getValue().future);
+                    cachedBytes -= evicted.getValue().size;
+                    evictions.incrementAndGet();
+                    released.add(evicted.getValue());
+                }
+            }
+        }
+        for (Entry r : released) {
+            r.release();
+        }
+    }
+
+    /**
+     * Remove every tile decoded from the given data, or every tile if the
+     * data is null.
+     */
+    private void invalidateMatching(Object source) {
+        List<Entry> released = new ArrayList<Entry>();
+        synchronized (lru) {
+            Iterator<Key> keys = loads.keySet().iterator();
+            while (keys.hasNext()) {
+                Key key = keys.next();
+                if (source == null || source.equals(key.source)) {
+                    keys.remove();
+                }
+            }
+            Iterator<Map.Entry<Key, Entry>> entries =
+                lru.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<Key, Entry> cached = entries.next();
+                if (source == null
+                        || source.equals(cached.getKey().source)) {
+                    entries.remove();
+                    cachedBytes -= cached.getValue().size;
+                    released.add(cached.getValue());
+                }
+            }
+        }
+        for (Entry r : released) {
+            r.release();
+        }
+    }
+
+    /**
+     * Wait for a decode started by another request.
+     */
+    private static Entry await(CompletableFuture<Entry> future)
+            throws DecodeException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DecodeException) {
+                throw (DecodeException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new DecodeException(cause.getMessage(), cause);
+        }
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pool of native decoders, one per thread, that are reinitialized with
+ * new JPEG-XR data instead of being reallocated.  A pooled decoder keeps
+ * its native codec factory and decoder, and the codec's main working
+ * memory, which holds the macroblock row buffers and is only allocated
+ * again when an image needs more of it than was kept.  Intended for
+ * decoding many small images, where allocating these and waiting for
+ * them to be finalized would dominate the decode time.
+ * <p>
+ * A decoder acquired from the pool must be closed to return it to the
+ * pool.  While it is open, further decoders acquired on the same thread
+ * are allocated normally.  The native resources of threads that have
+ * terminated are released when the pool next creates an entry for a
+ * thread, or when it is closed.
+ *
+ * @see Decode
+ */
+public class DecoderPool implements AutoCloseable {
+
+    static {
+        NativeLoader.load();
+    }
+
+    /**
+     * Native codec factory and decoder owned by one thread.
+     */
+    static final class Entry {
+
+        final CodecFactory codecFactory = new CodecFactory();
+        final ImageDecoder decoder = new ImageDecoder();
+
+        private final DecoderPool pool;
+        private final Thread owner = Thread.currentThread();
+        private final AtomicBoolean inUse = new AtomicBoolean();
+        private ByteBuffer inputBuffer;
+        private boolean disposed;
+
+        Entry(DecoderPool pool) {
+            this.pool = pool;
+        }
+
+        /**
+         * Copy JPEG-XR data into this entry's input buffer, growing it if
+         * required.
+         *
+         * @param data array containing JPEG-XR data
+         * @param offset starting index in the array
+         * @param length number of bytes to copy
+         * @return directly allocated buffer containing the data
+         */
+        ByteBuffer copy(byte[] data, int offset, int length) {
+            if (inputBuffer == null || inputBuffer.capacity() < length) {
+                inputBuffer = ByteBuffer.allocateDirect(length);
+            }
+            inputBuffer.clear();
+            inputBuffer.put(data, offset, length);
+            return inputBuffer;
+        }
+
+        /**
+         * Return this entry to the pool.
+         */
+        void release() {
+            inUse.set(false);
+            if (pool.closed) {
+                dispose();
+            }
+        }
+
+        /**
+         * Release the native resources held by this entry.
+         */
+        synchronized void dispose() {
+            if (!disposed) {
+                disposed = true;
+                decoder.delete();
+                codecFactory.delete();
+                inputBuffer = null;
+            }
+        }
+    }
+
+    private final ThreadLocal<Entry> entries = new ThreadLocal<Entry>();
+    private final Queue<Entry> allEntries = new ConcurrentLinkedQueue<Entry>();
+    private volatile boolean closed;
+
+    /**
+     * Acquire a decoder for the JPEG-XR data in the given file.
+     *
+     * @param inputFile file containing JPEG-XR data.
+     *        Should exist and be non-null.
+     * @return decoder, which should be closed to return it to the pool
+     */
+    public Decode acquire(File inputFile) {
+        Entry entry = takeEntry();
+        if (entry == null) {
+            return new Decode(inputFile);
+        }
+        return new Decode(entry, inputFile, null, 0, 0);
+    }
+
+    /**
+     * Acquire a decoder for the JPEG-XR data in the given byte array.
+     * The data is copied into a direct buffer that is reused by the
+     * pooled decoder.
+     *
+     * @param data array containing JPEG-XR data; should be non-null
+     * @param offset starting index in the array
+     * @param length number of bytes to read from the array
+     * @return decoder, which should be closed to return it to the pool
+     * @throws DecodeException if the data could not be copied
+     */
+    public Decode acquire(byte[] data, int offset, int length)
+            throws DecodeException {
+        Entry entry = takeEntry();
+        if (entry == null) {
+            ByteBuffer dataBuffer = ByteBuffer.allocateDirect(length);
+            dataBuffer.put(data, offset, length);
+            return new Decode(dataBuffer);
+        }
+        return new Decode(
+            entry, null, entry.copy(data, offset, length), 0, length);
+    }
+
+    /**
+     * Acquire a decoder for the JPEG-XR data in the given buffer.
+     *
+     * @param dataBuffer buffer containing JPEG-XR data.
+     *        Should be non-null and directly allocated.
+     * @return decoder, which should be closed to return it to the pool
+     * @throws DecodeException if the buffer was not directly allocated
+     */
+    public Decode acquire(ByteBuffer dataBuffer) throws DecodeException {
+        return acquire(dataBuffer, 0, dataBuffer.capacity());
+    }
+
+    /**
+     * Acquire a decoder for the JPEG-XR data in the given buffer.
+     *
+     * @param dataBuffer buffer containing JPEG-XR data.
+     *        Should be non-null and directly allocated.
+     * @param offset starting offset within the given buffer
+     * @param length number of bytes to read from the given buffer
+     * @return decoder, which should be closed to return it to the pool
+     * @throws DecodeException if the buffer was not directly allocated
+     */
+    public Decode acquire(ByteBuffer dataBuffer, int offset, int length)
+            throws DecodeException {
+        AbstractDecode.checkDirect(dataBuffer);
+        Entry entry = takeEntry();
+        if (entry == null) {
+            return new Decode(dataBuffer, offset, length);
+        }
+        return new Decode(entry, null, dataBuffer, offset, length);
+    }
+
+    /**
+     * Acquire a decoder for the JPEG-XR data stored at the given offset
+     * of a file.  The data is memory mapped rather than copied.
+     *
+     * @param path file containing JPEG-XR data; should be non-null
+     * @param offset offset of the JPEG-XR data within the file
+     * @param length number of bytes of JPEG-XR data
+     * @return decoder, which should be closed to return it to the pool
+     * @throws DecodeException if the range is not within the file or
+     *         the file could not be mapped
+     */
+    public Decode acquire(Path path, long offset, long length)
+            throws DecodeException {
+        ByteBuffer dataBuffer = AbstractDecode.map(path, offset, length);
+        return acquire(dataBuffer, 0, dataBuffer.capacity());
+    }
+
+    /**
+     * Acquire a decoder for the JPEG-XR data stored at the given offset
+     * of an open file.  The data is memory mapped rather than copied.
+     *
+     * @param channel open channel of a file containing JPEG-XR data;
+     *        should be non-null and readable
+     * @param offset offset of the JPEG-XR data within the file
+     * @param length number of bytes of JPEG-XR data
+     * @return decoder, which should be closed to return it to the pool
+     * @throws DecodeException if the range is not within the file or
+     *         the file could not be mapped
+     */
+    public Decode acquire(FileChannel channel, long offset, long length)
+            throws DecodeException {
+        ByteBuffer dataBuffer = AbstractDecode.map(channel, offset, length);
+        return acquire(dataBuffer, 0, dataBuffer.capacity());
+    }
+
+    /**
+     * Release the native resources held by the pool.  Decoders that are
+     * still open release theirs when they are closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Entry entry : allEntries) {
+            if (entry.inUse.compareAndSet(false, true)) {
+                entry.dispose();
+            }
+        }
+        allEntries.clear();
+    }
+
+    /**
+     * @return the calling thread's entry, or null if it is in use
+     * @throws IllegalStateException if the pool has been closed
+     */
+    private Entry takeEntry() {
+        if (closed) {
+            throw new IllegalStateException("Decoder pool has been closed.");
+        }
+        Entry entry = entries.get();
+        if (entry == null) {
+            releaseTerminated();
+            entry = new Entry(this);
+            entries.set(entry);
+            allEntries.add(entry);
+        }
+        return entry.inUse.compareAndSet(false, true) ? entry : null;
+    }
+
+    /**
+     * Release the entries of threads that have terminated and that are
+     * not in use.  These can no longer be taken by their threads.
+     */
+    private void releaseTerminated() {
+        Iterator<Entry> iterator = allEntries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (!entry.owner.isAlive()
+                    && entry.inUse.compareAndSet(false, true)) {
+                iterator.remove();
+                entry.dispose();
+            }
+        }
+    }
+}
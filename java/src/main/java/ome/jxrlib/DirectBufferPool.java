@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of directly allocated buffers for decoded data, avoiding the cost
+ * of allocating direct memory for every decode and of waiting for the
+ * garbage collector to free it.
+ * <p>
+ * Requested sizes are rounded up to a size class; there are four classes
+ * between consecutive powers of two, so at most a quarter of a buffer is
+ * unused.  Every buffer starts at a 128 byte aligned address, except
+ * those within 128 bytes of the largest possible buffer.  Buffers
+ * are leased with {@link #acquire(long)} and returned to the pool when
+ * the lease is closed, unless the pool already retains its maximum number
+ * of bytes, in which case the buffer is left to the garbage collector.
+ * <p>
+ * Pools are thread-safe.
+ * Automatically loads the relevant native libraries.
+ *
+ * @see AbstractDecode#toPooledBuffer(DirectBufferPool)
+ */
+public class DirectBufferPool {
+
+    static {
+        NativeLoader.load();
+    }
+
+    /** Alignment in bytes of the start of every pooled buffer. */
+    public static final int ALIGNMENT = 128;
+
+    /** Maximum number of bytes retained by the default pool. */
+    public static final long DEFAULT_MAX_RETAINED_BYTES = 256L << 20;
+
+    /** Smallest size class. */
+    static final long MIN_CLASS_SIZE = 4096;
+
+    private static final class DefaultHolder {
+        static final DirectBufferPool POOL =
+            new DirectBufferPool(DEFAULT_MAX_RETAINED_BYTES);
+    }
+
+    /**
+     * Lease of a pooled buffer, which returns the buffer to its pool when
+     * closed.  The buffer must not be used once the lease is closed.
+     */
+    public static final class Lease implements AutoCloseable {
+
+        private final DirectBufferPool pool;
+        private final ByteBuffer pooled;
+        private final ByteBuffer buffer;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Lease(DirectBufferPool pool, ByteBuffer pooled, int size) {
+            this.pool = pool;
+            this.pooled = pooled;
+            ByteBuffer view = pooled.duplicate();
+            view.clear();
+            view.limit(size);
+            this.buffer = view.slice();
+        }
+
+        /**
+         * @return directly allocated, 128 byte aligned buffer whose
+         * capacity is the requested size
+         */
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * Return the buffer to the pool.  Closing a lease more than once
+         * has no effect.
+         */
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                pool.release(pooled);
+            }
+        }
+    }
+
+    private final long maxRetainedBytes;
+    private final ConcurrentHashMap<Long, Deque<ByteBuffer>> free =
+        new ConcurrentHashMap<Long, Deque<ByteBuffer>>();
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong discards = new AtomicLong();
+
+    /**
+     * Construct an empty pool.
+     *
+     * @param maxRetainedBytes maximum total capacity of the buffers kept
+     *        for reuse; 0 disables retention entirely
+     * @throws IllegalArgumentException if the maximum is negative
+     */
+    public DirectBufferPool(long maxRetainedBytes) {
+        if (maxRetainedBytes < 0) {
+            throw new IllegalArgumentException(String.format(
+                "Maximum retained size %d is negative.", maxRetainedBytes));
+        }
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /**
+     * @return pool shared by {@link AbstractDecode#toPooledBuffer()},
+     * retaining at most {@link #DEFAULT_MAX_RETAINED_BYTES}
+     */
+    public static DirectBufferPool getDefault() {
+        return DefaultHolder.POOL;
+    }
+
+    /**
+     * Lease a buffer of the given size, reusing a pooled buffer of the
+     * same size class if one is available.  The contents of the buffer
+     * are undefined.
+     *
+     * @param size capacity of the buffer in bytes
+     * @return lease of the buffer, which should be closed to return the
+     *         buffer to the pool
+     * @throws IllegalArgumentException if the size is negative or larger
+     *         than a buffer can be
+     */
+    public Lease acquire(long size) {
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format(
+                "Buffer size %d is not between 0 and %d.",
+                size, Integer.MAX_VALUE));
+        }
+        long classSize = classSize(size);
+        Deque<ByteBuffer> buffers = free.get(classSize);
+        ByteBuffer pooled = buffers == null ? null : buffers.pollFirst();
+        if (pooled != null) {
+            retainedBytes.addAndGet(-classSize);
+            hits.incrementAndGet();
+        } else {
+            pooled = allocate(classSize);
+            misses.incrementAndGet();
+        }
+        return new Lease(this, pooled, (int) size);
+    }
+
+    /**
+     * Drop all retained buffers, leaving them to the garbage collector.
+     */
+    public void clear() {
+        for (Deque<ByteBuffer> buffers : free.values()) {
+            ByteBuffer pooled;
+            while ((pooled = buffers.pollFirst()) != null) {
+                retainedBytes.addAndGet(-pooled.capacity());
+            }
+        }
+    }
+
+    /**
+     * @return maximum total capacity of the buffers kept for reuse
+     */
+    public long getMaxRetainedBytes() {
+        return maxRetainedBytes;
+    }
+
+    /**
+     * @return total capacity of the buffers currently kept for reuse
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * @return number of leases that reused a pooled buffer
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of leases that allocated a new buffer
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of buffers not retained because the pool was full
+     */
+    public long getDiscards() {
+        return discards.get();
+    }
+
+    /**
+     * @param size requested size in bytes
+     * @return capacity of the buffers in the size class of the given size
+     */
+    static long classSize(long size) {
+        if (size <= MIN_CLASS_SIZE) {
+            return MIN_CLASS_SIZE;
+        }
+        // size is in (power, 2 * power], split into four classes
+        long step = Long.highestOneBit(size - 1) / 4;
+        long classSize = (size + step - 1) / step * step;
+        // too large to be padded for alignment; use the exact size
+        if (classSize > Integer.MAX_VALUE - ALIGNMENT) {
+            return size;
+        }
+        return classSize;
+    }
+
+    /**
+     * Allocate a buffer of the given capacity, starting at an aligned
+     * address.
+     */
+    private static ByteBuffer allocate(long capacity) {
+        if (capacity > Integer.MAX_VALUE - ALIGNMENT) {
+            return ByteBuffer.allocateDirect((int) capacity);
+        }
+        ByteBuffer raw =
+            ByteBuffer.allocateDirect((int) capacity + ALIGNMENT - 1);
+        long address = JXR.directBufferAddress(raw);
+        int offset = (int) ((ALIGNMENT - address % ALIGNMENT) % ALIGNMENT);
+        raw.position(offset);
+        raw.limit(offset + (int) capacity);
+        return raw.slice();
+    }
+
+    /**
+     * Keep the given buffer for reuse if the pool has room for it.
+     */
+    private void release(ByteBuffer pooled) {
+        long capacity = pooled.capacity();
+        long retained;
+        do {
+            retained = retainedBytes.get();
+            if (retained + capacity > maxRetainedBytes) {
+                discards.incrementAndGet();
+                return;
+            }
+        } while (!retainedBytes.compareAndSet(retained, retained + capacity));
+        Deque<ByteBuffer> buffers = free.get(capacity);
+        if (buffers == null) {
+            free.putIfAbsent(capacity, new ConcurrentLinkedDeque<ByteBuffer>());
+            buffers = free.get(capacity);
+        }
+        buffers.offerFirst(pooled);
+    }
+
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes uncompressed pixel data to JPEG-XR entirely in memory.
+ * Pixels are read from a directly allocated buffer and the bitstream is
+ * written to a directly allocated buffer; no temporary files are used
+ * except by the codec itself for images too large to buffer in memory.
+ * Images are encoded losslessly unless a quality or quantization is set.
+ * An instance may encode any number of images of its pixel format but
+ * is not thread-safe.  Native resources are released by {@link #close()}.
+ * Automatically loads the relevant native libraries.
+ */
+public class Encode implements AutoCloseable {
+
+    static {
+        NativeLoader.load();
+    }
+
+    private final MemoryEncoder encoder;
+    private volatile boolean closed;
+
+    /**
+     * Construct an encoder for pixel data in the given format.
+     *
+     * @param pixelFormat pixel format of the data to encode, as reported
+     *        by {@link Decode#getPixelFormat()}; should be non-null
+     */
+    public Encode(GUID pixelFormat) {
+        encoder = new MemoryEncoder();
+        try {
+            encoder.setPixelFormat(pixelFormat);
+        } catch (Throwable t) {
+            close();
+            throw t;
+        }
+    }
+
+    /**
+     * @return the native encoder
+     * @throws IllegalStateException if this encoder has been closed
+     */
+    private MemoryEncoder encoder() {
+        if (closed) {
+            throw new IllegalStateException("Encoder has been closed.");
+        }
+        return encoder;
+    }
+
+    /**
+     * Release the native resources held by this encoder.  Closing more
+     * than once has no effect.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        encoder.delete();
+    }
+
+    /**
+     * @return the pixel format
+     */
+    public GUID getPixelFormat() {
+        return encoder().getPixelFormat();
+    }
+
+    /**
+     * @param width image width in pixels
+     * @return number of bytes in one row of pixels of the given width
+     */
+    public long getMinimumStride(int width) {
+        return encoder().getMinimumStride(width);
+    }
+
+    /**
+     * Set the image quality, mapped to quantization, chroma subsampling
+     * and overlap filtering in the same way as the reference encoder's
+     * <code>-q</code> option.  Replaces any quantization that was set.
+     *
+     * @param quality image quality between 0 and 1; 1 is lossless
+     * @throws EncodeException if the quality is out of range
+     * @see #setQuantization(int)
+     */
+    public void setQuality(float quality) throws EncodeException {
+        if (!(quality >= 0 && quality <= 1)) {
+            throw new EncodeException(String.format(
+                "Quality %f is not between 0 and 1.", quality));
+        }
+        encoder().setQuality(quality);
+    }
+
+    /**
+     * Set the quantization parameter used for all channels.  Replaces any
+     * quality that was set.
+     *
+     * @param quantization quantization parameter index between 1 and 255;
+     *        1 is lossless
+     * @throws EncodeException if the quantization is out of range
+     * @see #setQuality(float)
+     */
+    public void setQuantization(int quantization) throws EncodeException {
+        if (quantization < 1 || quantization > 255) {
+            throw new EncodeException(String.format(
+                "Quantization %d is not between 1 and 255.", quantization));
+        }
+        encoder().setQuantization(quantization);
+    }
+
+    /**
+     * Set the size of the tiles the image is divided into.  Tiles can be
+     * decoded independently, for example by {@link Decode#setRegion} or
+     * {@link Decode#toBytes(ByteBuffer, int)}.  The last tile in each row
+     * and column may be smaller.
+     *
+     * @param tileWidth tile width in pixels; a multiple of 16, or 0 for a
+     *        single column of tiles
+     * @param tileHeight tile height in pixels; a multiple of 16, or 0 for a
+     *        single row of tiles
+     * @throws EncodeException if the tile size is not a multiple of 16
+     */
+    public void setTileSize(int tileWidth, int tileHeight)
+            throws EncodeException {
+        if (tileWidth < 0 || tileHeight < 0
+                || tileWidth % 16 != 0 || tileHeight % 16 != 0) {
+            throw new EncodeException(String.format(
+                "Tile size %dx%d is not a multiple of 16.",
+                tileWidth, tileHeight));
+        }
+        encoder().setTileSize(tileWidth, tileHeight);
+    }
+
+    /**
+     * Encode an image with tightly packed rows into the given buffer.
+     *
+     * @see #encode(ByteBuffer, int, int, int, ByteBuffer)
+     */
+    public int encode(ByteBuffer pixels, int width, int height,
+                      ByteBuffer output) throws EncodeException {
+        return encode(pixels, width, height,
+                      (int) getMinimumStride(width), output);
+    }
+
+    /**
+     * Encode an image into the given buffer.  The bitstream is written
+     * from the start of the buffer; its position and limit are unchanged.
+     *
+     * @param pixels buffer containing the pixels to encode, starting at the
+     *        beginning of the buffer.  Should be non-null and directly
+     *        allocated.
+     * @param width image width in pixels
+     * @param height image height in pixels
+     * @param stride number of bytes between the start of each row
+     * @param output buffer to write the bitstream to.  Should be non-null
+     *        and directly allocated.
+     * @return number of bytes written to <code>output</code>
+     * @throws EncodeException if either buffer is not directly allocated,
+     *         the pixel buffer is too small, the bitstream does not fit in
+     *         the output buffer or the image cannot be encoded
+     */
+    public int encode(ByteBuffer pixels, int width, int height, int stride,
+                      ByteBuffer output) throws EncodeException {
+        checkPixels(pixels, width, height, stride);
+        if (!output.isDirect()) {
+            throw new EncodeException("Buffer must be allocated direct.");
+        }
+        MemoryEncoder encoder = encoder();
+        try {
+            return (int) encoder.encode(
+                pixels, width, height, stride, output, output.capacity());
+        } catch (Exception e) {
+            throw new EncodeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Encode an image with tightly packed rows into a new buffer.
+     *
+     * @see #encode(ByteBuffer, int, int, int)
+     */
+    public ByteBuffer encode(ByteBuffer pixels, int width, int height)
+            throws EncodeException {
+        return encode(pixels, width, height, (int) getMinimumStride(width));
+    }
+
+    /**
+     * Encode an image into a new buffer.  The bitstream is written to
+     * native memory that grows as required, then copied to a directly
+     * allocated buffer of exactly the encoded size.
+     *
+     * @param pixels buffer containing the pixels to encode, starting at the
+     *        beginning of the buffer.  Should be non-null and directly
+     *        allocated.
+     * @param width image width in pixels
+     * @param height image height in pixels
+     * @param stride number of bytes between the start of each row
+     * @return directly allocated buffer containing the bitstream
+     * @throws EncodeException if the pixel buffer is not directly allocated
+     *         or is too small, or the image cannot be encoded
+     */
+    public ByteBuffer encode(ByteBuffer pixels, int width, int height,
+                             int stride) throws EncodeException {
+        checkPixels(pixels, width, height, stride);
+        MemoryEncoder encoder = encoder();
+        long size;
+        try {
+            size = encoder.encode(pixels, width, height, stride);
+        } catch (Exception e) {
+            throw new EncodeException(e.getMessage(), e);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new EncodeException(String.format(
+                "Encoded size %d is larger than a buffer can hold.", size));
+        }
+        ByteBuffer output = ByteBuffer.allocateDirect((int) size);
+        encoder.getEncodedBytes(output);
+        return output;
+    }
+
+    /**
+     * Check that the given buffer holds an image of the given size.
+     *
+     * @param pixels buffer containing pixels to encode
+     * @param width image width in pixels
+     * @param height image height in pixels
+     * @param stride number of bytes between the start of each row
+     * @throws EncodeException if the size or stride is invalid, or the
+     *         buffer is not directly allocated or is too small
+     */
+    private void checkPixels(ByteBuffer pixels, int width, int height,
+                             int stride) throws EncodeException {
+        if (width <= 0 || height <= 0) {
+            throw new EncodeException(String.format(
+                "Image size %dx%d is empty.", width, height));
+        }
+        long rowSize = getMinimumStride(width);
+        if (stride < rowSize) {
+            throw new EncodeException(String.format(
+                "Stride %d is less than the %d bytes in a row.",
+                stride, rowSize));
+        }
+        if (!pixels.isDirect()) {
+            throw new EncodeException("Buffer must be allocated direct.");
+        }
+        long size = (long) stride * (height - 1) + rowSize;
+        if (pixels.capacity() < size) {
+            throw new EncodeException(String.format(
+                "Buffer capacity %d is less than the %d bytes required.",
+                pixels.capacity(), size));
+        }
+    }
+}
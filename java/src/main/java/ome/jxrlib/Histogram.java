@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values in fixed memory.  Every
+ * power of two is split into 16 buckets, so percentiles are accurate to
+ * within 1/16 of the value; values below 32 are counted exactly.
+ * <p>
+ * Values may be recorded concurrently.  A concurrent {@link #reset()} may
+ * leave some of the values recorded meanwhile partly counted.
+ */
+final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = bucket(Long.MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value value to count; negative values count as 0
+     */
+    void record(long value) {
+        value = Math.max(value, 0);
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get())
+                && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return largest recorded value, or 0 if there are none
+     */
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return mean of the recorded values, or 0 if there are none
+     */
+    double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return upper bound of the bucket holding the given percentile of
+     *         the recorded values, or 0 if there are none
+     */
+    long getValueAtPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @param scale divisor applied to every value, such as 1000 to
+     *        summarize nanoseconds as microseconds
+     * @return summary of the recorded values
+     */
+    LatencySummary summarize(double scale) {
+        return new LatencySummary(
+            getCount(), getMean() / scale,
+            getValueAtPercentile(50) / scale,
+            getValueAtPercentile(90) / scale,
+            getValueAtPercentile(99) / scale,
+            getMax() / scale);
+    }
+
+    /**
+     * Discard all recorded values.
+     */
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @param value non-negative value
+     * @return index of the bucket counting the given value
+     */
+    static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        // keep the top five bits: 16 buckets between powers of two
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @param bucket index of a bucket
+     * @return largest value counted by the given bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long mantissa = bucket - (long) shift * SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Immutable summary of a JPEG-XR image, read from the container and image
+ * headers only.  Probing creates a glue decoder object to parse the
+ * headers, but never initializes the codec, so none of the codec working
+ * buffers are allocated.  It is suitable for quickly scanning large
+ * numbers of images before deciding how to decode them.  Properties
+ * describe the first frame at full resolution, as decoded by
+ * {@link Decode}.
+ * Automatically loads the relevant native libraries.
+ */
+public final class JxrInfo {
+
+    static {
+        NativeLoader.load();
+    }
+
+    private final long width;
+    private final long height;
+    private final GUID pixelFormat;
+    private final long bytesPerPixel;
+    private final boolean bgr;
+    private final boolean alpha;
+    private final boolean colorProfile;
+    private final boolean xmpMetadata;
+    private final long[] tileX;
+    private final long[] tileY;
+    private final long frameCount;
+    private final float resolutionX;
+    private final float resolutionY;
+
+    private JxrInfo(ImageInfo info) {
+        width = info.getWidth();
+        height = info.getHeight();
+        pixelFormat = info.getPixelFormat();
+        bytesPerPixel = info.getBytesPerPixel();
+        bgr = info.isBGR();
+        alpha = info.hasAlpha();
+        colorProfile = info.hasColorProfile();
+        xmpMetadata = info.hasXMPMetadata();
+        tileX = new long[(int) info.getTileColumnCount()];
+        for (int column = 0; column < tileX.length; column++) {
+            tileX[column] = info.getTileX(column);
+        }
+        tileY = new long[(int) info.getTileRowCount()];
+        for (int row = 0; row < tileY.length; row++) {
+            tileY[row] = info.getTileY(row);
+        }
+        frameCount = info.getFrameCount();
+        resolutionX = info.getResolutionX();
+        resolutionY = info.getResolutionY();
+    }
+
+    /**
+     * Read the headers of the JPEG-XR data in the given buffer.
+     *
+     * @param dataBuffer buffer containing JPEG-XR data.
+     *        Should be non-null and directly allocated.
+     * @return summary of the image
+     * @throws DecodeException if the buffer was not directly allocated or
+     *         the headers could not be read
+     */
+    public static JxrInfo probe(ByteBuffer dataBuffer)
+            throws DecodeException {
+        return probe(dataBuffer, 0, dataBuffer.capacity());
+    }
+
+    /**
+     * Read the headers of the JPEG-XR data in the given buffer.
+     *
+     * @param dataBuffer buffer containing JPEG-XR data.
+     *        Should be non-null and directly allocated.
+     * @param offset starting offset within the given buffer
+     * @param length number of bytes of JPEG-XR data in the given buffer
+     * @return summary of the image
+     * @throws DecodeException if the buffer was not directly allocated or
+     *         the headers could not be read
+     */
+    public static JxrInfo probe(ByteBuffer dataBuffer, int offset, int length)
+            throws DecodeException {
+        AbstractDecode.checkDirect(dataBuffer);
+        if (offset < 0 || length < 0
+                || offset > dataBuffer.capacity() - length) {
+            throw new DecodeException(String.format(
+                "Range of %d bytes at offset %d is not within the " +
+                "%d byte buffer.", length, offset, dataBuffer.capacity()));
+        }
+        ImageInfo info = new ImageInfo();
+        try {
+            info.probe(dataBuffer, offset, length);
+            return new JxrInfo(info);
+        } catch (Exception e) {
+            throw new DecodeException(e.getMessage(), e);
+        } finally {
+            info.delete();
+        }
+    }
+
+    /**
+     * Read the headers of the JPEG-XR data stored at the given offset of a
+     * file, such as a subblock of a larger container.  The file is memory
+     * mapped, so only the parts of it that are read are loaded.
+     *
+     * @param path file containing JPEG-XR data; should be non-null
+     * @param offset offset of the JPEG-XR data within the file
+     * @return summary of the image
+     * @throws DecodeException if the offset is not within the file, the
+     *         file could not be mapped or the headers could not be read
+     */
+    public static JxrInfo probe(Path path, long offset)
+            throws DecodeException {
+        ByteBuffer dataBuffer;
+        try (FileChannel channel =
+                FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = Math.min(
+                channel.size() - offset, Integer.MAX_VALUE);
+            dataBuffer = AbstractDecode.map(channel, offset, length);
+        } catch (IOException e) {
+            throw new DecodeException("Unable to open " + path, e);
+        }
+        return probe(dataBuffer);
+    }
+
+    /**
+     * @return width of the image in pixels
+     */
+    public long getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of the image in pixels
+     */
+    public long getHeight() {
+        return height;
+    }
+
+    /**
+     * @return pixel format of decoded data
+     */
+    public GUID getPixelFormat() {
+        return pixelFormat;
+    }
+
+    /**
+     * @return number of bytes per pixel of decoded data
+     */
+    public long getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+    /**
+     * @return whether decoded data is in BGR rather than RGB order
+     */
+    public boolean isBGR() {
+        return bgr;
+    }
+
+    /**
+     * @return whether the pixel format has an alpha channel
+     */
+    public boolean hasAlpha() {
+        return alpha;
+    }
+
+    /**
+     * @return whether the container includes an ICC color profile
+     */
+    public boolean hasColorProfile() {
+        return colorProfile;
+    }
+
+    /**
+     * @return whether the container includes XMP metadata
+     */
+    public boolean hasXMPMetadata() {
+        return xmpMetadata;
+    }
+
+    /**
+     * @return number of tile columns the image was encoded with
+     */
+    public int getTileColumnCount() {
+        return tileX.length;
+    }
+
+    /**
+     * @return number of tile rows the image was encoded with
+     */
+    public int getTileRowCount() {
+        return tileY.length;
+    }
+
+    /**
+     * @param column index of a tile column
+     * @return X coordinate of the left edge of the tile column in pixels
+     * @throws IndexOutOfBoundsException if the column does not exist
+     */
+    public long getTileX(int column) {
+        return tileX[column];
+    }
+
+    /**
+     * @param row index of a tile row
+     * @return Y coordinate of the top edge of the tile row in pixels
+     * @throws IndexOutOfBoundsException if the row does not exist
+     */
+    public long getTileY(int row) {
+        return tileY[row];
+    }
+
+    /**
+     * @return number of frames in the container
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return horizontal resolution in pixels per inch
+     */
+    public float getResolutionX() {
+        return resolutionX;
+    }
+
+    /**
+     * @return vertical resolution in pixels per inch
+     */
+    public float getResolutionY() {
+        return resolutionY;
+    }
+}
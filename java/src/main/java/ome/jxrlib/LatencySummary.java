@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Distribution of the time taken by a decode stage, in microseconds.
+ * Percentiles are accurate to within 1/16 of their value.
+ *
+ * @see DecodeStatistics
+ */
+public final class LatencySummary {
+
+    private final long count;
+    private final double mean;
+    private final double p50;
+    private final double p90;
+    private final double p99;
+    private final double max;
+
+    @ConstructorProperties({"count", "mean", "p50", "p90", "p99", "max"})
+    public LatencySummary(long count, double mean, double p50, double p90,
+                          double p99, double max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    /**
+     * @return number of measured decodes
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return mean time
+     */
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return median time
+     */
+    public double getP50() {
+        return p50;
+    }
+
+    /**
+     * @return 90th percentile time
+     */
+    public double getP90() {
+        return p90;
+    }
+
+    /**
+     * @return 99th percentile time
+     */
+    public double getP99() {
+        return p99;
+    }
+
+    /**
+     * @return longest time
+     */
+    public double getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "count=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f max=%.1f us",
+            count, mean, p50, p90, p99, max);
+    }
+
+}
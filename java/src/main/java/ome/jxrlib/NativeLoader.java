@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.scijava.nativelib.NativeLibraryUtil;
+
+/**
+ * Loads the <code>jxrjava</code> native library exactly once, preferring
+ * the most optimized variant the host CPU supports.
+ * <p>
+ * On Linux x86_64 the native artifact may contain, next to the baseline
+ * library, variants built for SSE4.2 (<code>jxrjava-sse42</code>) and
+ * AVX2 (<code>jxrjava-avx2</code>).  The CPU flags reported by
+ * <code>/proc/cpuinfo</code> decide which of them may be used; any
+ * variant that is missing or fails to load falls back to the next one,
+ * ending with the baseline library.  The choice can be forced with the
+ * <code>jxrlib.native.variant</code> system property, set to one of
+ * <code>avx2</code>, <code>sse42</code> or <code>baseline</code>; any
+ * other value is rejected with an {@link IllegalArgumentException}.
+ */
+final class NativeLoader {
+
+    /** System property overriding the detected variant. */
+    static final String VARIANT_PROPERTY = "jxrlib.native.variant";
+
+    static final String BASELINE = "baseline";
+
+    private static final String LIBRARY = "jxrjava";
+
+    /** Variants in order of preference. */
+    private static final String[] VARIANTS = { "avx2", "sse42" };
+
+    /** CPU flags required by each entry of {@link #VARIANTS}. */
+    private static final String[][] REQUIRED_FLAGS = {
+        { "avx2", "bmi1", "bmi2", "abm", "popcnt", "sse4_2" },
+        { "sse4_2", "popcnt" }
+    };
+
+    private static String loaded;
+
+    private NativeLoader() {
+    }
+
+    /**
+     * Load the native library unless it has already been loaded.
+     *
+     * @throws IllegalArgumentException if {@link #VARIANT_PROPERTY} names
+     * an unknown variant
+     */
+    static synchronized void load() {
+        if (loaded != null) {
+            return;
+        }
+        String requested = System.getProperty(VARIANT_PROPERTY);
+        Set<String> flags = requested == null
+                ? cpuFlags() : Collections.<String>emptySet();
+        for (String variant : chooseVariants(requested, flags)) {
+            if (loadLibrary(LIBRARY + "-" + variant)) {
+                loaded = variant;
+                return;
+            }
+        }
+        NativeLibraryUtil.loadNativeLibrary(NativeLoader.class, LIBRARY);
+        loaded = BASELINE;
+    }
+
+    /**
+     * @return name of the variant that was loaded, <code>baseline</code>
+     * if no optimized variant could be used or <code>null</code> if the
+     * native library has not been loaded yet
+     */
+    static synchronized String getLoadedVariant() {
+        return loaded;
+    }
+
+    /**
+     * Choose the optimized variants that may be loaded, most preferred
+     * first.  The baseline library is always the last resort and is not
+     * included.
+     *
+     * @param requested value of {@link #VARIANT_PROPERTY}, or
+     * <code>null</code> to choose from the CPU flags
+     * @param flags CPU flags of the host, used only if no variant is
+     * requested
+     * @return variants to try in order; empty if only the baseline library
+     * may be used
+     * @throws IllegalArgumentException if the requested variant is unknown
+     */
+    static List<String> chooseVariants(String requested, Set<String> flags) {
+        List<String> variants = new ArrayList<String>();
+        if (requested == null) {
+            for (int i = 0; i < VARIANTS.length; i++) {
+                if (flags.containsAll(Arrays.asList(REQUIRED_FLAGS[i]))) {
+                    variants.add(VARIANTS[i]);
+                }
+            }
+            return variants;
+        }
+        if (requested.equals(BASELINE)) {
+            return variants;
+        }
+        if (!Arrays.asList(VARIANTS).contains(requested)) {
+            throw new IllegalArgumentException(String.format(
+                    "Unknown %s '%s'; expected one of %s or %s",
+                    VARIANT_PROPERTY, requested, Arrays.toString(VARIANTS),
+                    BASELINE));
+        }
+        variants.add(requested);
+        return variants;
+    }
+
+    private static boolean loadLibrary(String name) {
+        try {
+            return NativeLibraryUtil.loadNativeLibrary(
+                    NativeLoader.class, name);
+        } catch (UnsatisfiedLinkError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return flags of the first processor listed in
+     * <code>/proc/cpuinfo</code>, or an empty set on anything other than
+     * Linux x86_64 or if the flags cannot be read
+     */
+    static Set<String> cpuFlags() {
+        String os = System.getProperty("os.name", "").toLowerCase(Locale.ROOT);
+        String arch = System.getProperty("os.arch", "");
+        if (!os.startsWith("linux")
+                || !(arch.equals("amd64") || arch.equals("x86_64"))) {
+            return Collections.emptySet();
+        }
+        Path cpuinfo = Paths.get("/proc/cpuinfo");
+        try (BufferedReader reader =
+                Files.newBufferedReader(cpuinfo, StandardCharsets.US_ASCII)) {
+            return parseFlags(reader);
+        } catch (IOException e) {
+            // Fall through to the baseline library
+        }
+        return Collections.emptySet();
+    }
+
+    /**
+     * @param cpuinfo contents in the format of <code>/proc/cpuinfo</code>
+     * @return flags of the first processor listed, or an empty set if
+     * there are none
+     * @throws IOException if the contents cannot be read
+     */
+    static Set<String> parseFlags(Reader cpuinfo) throws IOException {
+        BufferedReader reader = cpuinfo instanceof BufferedReader
+                ? (BufferedReader) cpuinfo : new BufferedReader(cpuinfo);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int colon = line.indexOf(':');
+            if (colon > 0
+                    && line.substring(0, colon).trim().equals("flags")) {
+                return new HashSet<String>(Arrays.asList(
+                        line.substring(colon + 1).trim().split("\\s+")));
+            }
+        }
+        return Collections.emptySet();
+    }
+
+}
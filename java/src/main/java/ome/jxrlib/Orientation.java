@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+/**
+ * Flip or rotation applied by {@link Transcode} to the transform
+ * coefficients of an image.  Rotations are by 90 degrees clockwise and are
+ * applied before any flip; they swap the width and height of the image.
+ */
+public enum Orientation {
+
+    /** The image is left as it is. */
+    NONE(0),
+
+    /** The image is flipped top to bottom. */
+    FLIP_VERTICAL(1),
+
+    /** The image is flipped left to right. */
+    FLIP_HORIZONTAL(2),
+
+    /** The image is flipped both ways, i.e. rotated by 180 degrees. */
+    FLIP_BOTH(3),
+
+    /** The image is rotated by 90 degrees clockwise. */
+    ROTATE_90(4),
+
+    /** The image is rotated by 90 degrees clockwise, then flipped top to
+     *  bottom. */
+    ROTATE_90_FLIP_VERTICAL(5),
+
+    /** The image is rotated by 90 degrees clockwise, then flipped left to
+     *  right, i.e. transposed. */
+    ROTATE_90_FLIP_HORIZONTAL(6),
+
+    /** The image is rotated by 90 degrees clockwise, then flipped both
+     *  ways, i.e. rotated by 270 degrees. */
+    ROTATE_90_FLIP_BOTH(7);
+
+    /** Value of the orientation understood by the native transcoder. */
+    final int code;
+
+    Orientation(int code) {
+        this.code = code;
+    }
+
+}
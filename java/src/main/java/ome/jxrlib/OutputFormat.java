@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package ome.jxrlib;
+
+/**
+ * Layout of the pixel data produced by
+ * {@link AbstractDecode#toBytes(java.nio.ByteBuffer, OutputFormat)}.
+ * <p>
+ * Every format other than {@link #RAW} is converted from the decoded
+ * pixel format natively, one macroblock row at a time as the image is
+ * decoded, so no intermediate buffer of the whole image is needed.
+ * Converted color channels are always in RGB order, whatever order the
+ * pixel format stores them in.  Gray images are supported by
+ * {@link #FLOAT32} and {@link #UINT16_LE}, which keep their single
+ * channel, and by the 8-bit formats, which replicate it.  Fixed point,
+ * half and float samples are clamped to the range 0 to 1 when converted
+ * to integer formats.
+ */
+public enum OutputFormat {
+
+    /** Samples exactly as decoded; see {@link AbstractDecode#isBGR()}. */
+    RAW(0),
+
+    /** Three 8-bit samples per pixel in RGB order. */
+    RGB8(1),
+
+    /** Four 8-bit samples per pixel in RGBA order; opaque if no alpha. */
+    RGBA8(2),
+
+    /**
+     * One 32-bit integer per pixel, alpha in the most significant byte
+     * followed by red, green and blue, in native byte order; view the
+     * buffer with <code>order(ByteOrder.nativeOrder()).asIntBuffer()</code>.
+     */
+    ARGB_INT(3),
+
+    /**
+     * One 32-bit float per channel, in native byte order; integer samples
+     * are normalized to the range 0 to 1.
+     */
+    FLOAT32(4),
+
+    /** One 16-bit little-endian unsigned integer per channel. */
+    UINT16_LE(5);
+
+    /** Value of the format understood by the native decoder. */
+    final int code;
+
+    OutputFormat(int code) {
+        this.code = code;
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Source of JPEG-XR data that the native decoder reads on demand, through
+ * read-ahead windows, instead of from a fully buffered copy.  Reads are
+ * made by whichever thread is decoding, including the threads of
+ * parallel decodes, so sources are thread-safe.
+ */
+abstract class StreamSource {
+
+    /** Size in bytes of each of the native decoder's read-ahead windows. */
+    static final int WINDOW_SIZE = 64 * 1024;
+
+    /**
+     * Read data into the given buffer.  Called by the native decoder.
+     *
+     * @param position position within the data of the first byte to read
+     * @param buffer buffer to read into, up to its limit
+     * @return number of bytes read, which is at least one, or -1 if the
+     *         position is at or beyond the end of the data
+     * @throws IOException if the data could not be read
+     */
+    abstract int read(long position, ByteBuffer buffer) throws IOException;
+
+    /**
+     * @return number of bytes of data read so far, up to the furthest
+     *         position read
+     */
+    abstract long getLength();
+
+    /**
+     * @return true if the data can only be read forward, so that reads
+     *         from several places at once contend for the same data
+     */
+    boolean isForwardOnly() {
+        return false;
+    }
+
+    /**
+     * Source reading from a channel at any position.
+     */
+    static final class Channel extends StreamSource {
+
+        private final SeekableByteChannel channel;
+        private long length;
+
+        /**
+         * @param channel open channel containing JPEG-XR data; reads
+         *        change its position
+         */
+        Channel(SeekableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        synchronized int read(long position, ByteBuffer buffer)
+                throws IOException {
+            int count;
+            if (channel instanceof FileChannel) {
+                count = ((FileChannel) channel).read(buffer, position);
+            } else {
+                channel.position(position);
+                count = channel.read(buffer);
+            }
+            if (count > 0) {
+                length = Math.max(length, position + count);
+            }
+            return count;
+        }
+
+        @Override
+        synchronized long getLength() {
+            return length;
+        }
+
+    }
+
+    /**
+     * Source reading forward from a stream.  The stream is only read as
+     * far as the decoder has asked for, so decoding starts while the rest
+     * of the data is still arriving.  The codec may return to data it has
+     * already read, such as the headers, so every byte read is retained.
+     */
+    static final class Forward extends StreamSource {
+
+        // arrays this large are not supported by every JVM
+        private static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+        private final InputStream stream;
+        private byte[] data = new byte[WINDOW_SIZE];
+        private int length;
+        private boolean ended;
+
+        /**
+         * @param stream stream of JPEG-XR data
+         */
+        Forward(InputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        synchronized int read(long position, ByteBuffer buffer)
+                throws IOException {
+            long end = position + buffer.remaining();
+            while (!ended && length < end) {
+                if (length == data.length) {
+                    if (length == MAX_LENGTH) {
+                        throw new IOException(String.format(
+                            "Stream is larger than %d bytes.", MAX_LENGTH));
+                    }
+                    data = Arrays.copyOf(
+                        data, (int) Math.min(2L * length, MAX_LENGTH));
+                }
+                int count = stream.read(data, length, data.length - length);
+                if (count < 0) {
+                    ended = true;
+                } else {
+                    length += count;
+                }
+            }
+            if (position >= length) {
+                return -1;
+            }
+            int count = (int) (Math.min(end, length) - position);
+            buffer.put(data, (int) position, count);
+            return count;
+        }
+
+        @Override
+        synchronized long getLength() {
+            return length;
+        }
+
+        @Override
+        boolean isForwardOnly() {
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives decoded pixel data one strip of rows at a time.
+ * @see AbstractDecode#decodeStrips(int, StripConsumer)
+ */
+public interface StripConsumer {
+
+    /**
+     * Consume one strip of decoded rows.  The buffer is reused for the
+     * next strip, so its contents must be copied or written out before
+     * returning.
+     *
+     * @param strip buffer positioned at the first byte of the strip, with
+     *        its limit set after the last byte of the strip
+     * @param y index of the first row of the strip within the decoded image
+     * @param rows number of rows in the strip
+     * @throws IOException if the strip could not be consumed
+     */
+    void accept(ByteBuffer strip, long y, int rows) throws IOException;
+}
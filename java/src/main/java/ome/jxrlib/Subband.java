@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+/**
+ * Frequency subbands of the transform coefficients kept by
+ * {@link Transcode} or decoded by {@link AbstractDecode}.  Each level drops
+ * more of the detail of the image while keeping its width and height,
+ * making a transcoded bitstream smaller and a decode faster.  Subbands that
+ * were dropped when the image was encoded cannot be restored.  Only images
+ * encoded in frequency order, the default of {@link Encode} and the
+ * reference encoder, hold the subbands separately; images in spatial order
+ * are always decoded with every subband.
+ */
+public enum Subband {
+
+    /** Every subband is kept. */
+    ALL(0),
+
+    /** The refinement bits of the highpass coefficients are dropped. */
+    NO_FLEXBITS(1),
+
+    /** The highpass coefficients and their refinement bits are dropped. */
+    NO_HIGHPASS(2),
+
+    /**
+     * The lowpass and highpass coefficients are dropped, keeping only the
+     * DC coefficient of each macroblock.
+     */
+    DC_ONLY(3);
+
+    /** Value of the subband understood by the native codec. */
+    final int code;
+
+    Subband(int code) {
+        this.code = code;
+    }
+
+    /**
+     * @param code value of a subband understood by the native codec
+     * @return subband with the given value
+     * @throws IllegalArgumentException if there is no such subband
+     */
+    static Subband valueOf(int code) {
+        for (Subband subband : values()) {
+            if (subband.code == code) {
+                return subband;
+            }
+        }
+        throw new IllegalArgumentException(String.format(
+            "Unknown subband %d.", code));
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+/**
+ * Outcome of decoding one tile of a batch with
+ * {@link AbstractDecode#decodeBatch(java.nio.ByteBuffer, int[], int[],
+ * java.nio.ByteBuffer, int[], int)}.
+ */
+public enum TileStatus {
+
+    /** The tile was decoded into the destination buffer. */
+    DECODED(0),
+
+    /** The tile's range is not within the source buffer. */
+    INVALID_RANGE(1),
+
+    /** The tile's data could not be decoded. */
+    DECODE_FAILED(2),
+
+    /** The decoded tile does not fit in the destination buffer. */
+    DESTINATION_TOO_SMALL(3);
+
+    /** Value of the status reported by the native decoder. */
+    final int code;
+
+    TileStatus(int code) {
+        this.code = code;
+    }
+
+    /**
+     * @param code value of a status reported by the native decoder
+     * @return status with the given value
+     * @throws IllegalArgumentException if there is no such status
+     */
+    static TileStatus valueOf(int code) {
+        for (TileStatus status : values()) {
+            if (status.code == code) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException(String.format(
+            "Unknown tile status %d.", code));
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Transcodes JPEG-XR data to a new JPEG-XR bitstream entirely in memory
+ * and in the compressed domain.  The image can be cropped, flipped or
+ * rotated, reduced to fewer subbands and stripped of its alpha channel
+ * without decoding it to pixels and encoding again, which is much cheaper
+ * than a round trip through {@link Decode} and {@link Encode} and loses
+ * no further precision.  Cropping is cheapest on macroblock (16 pixel)
+ * or tile boundaries.  As flips and rotations are applied to the
+ * transform coefficients, the transcoded image may differ by rounding
+ * from the flipped or rotated pixels of the original.
+ * <p>
+ * The settings apply to every subsequent transcode.  An instance may
+ * transcode any number of images but is not thread-safe.  Native
+ * resources are released by {@link #close()}.  Automatically loads the
+ * relevant native libraries.
+ */
+public class Transcode implements AutoCloseable {
+
+    static {
+        NativeLoader.load();
+    }
+
+    private final BitstreamTranscoder transcoder;
+    private long frame;
+    private volatile boolean closed;
+
+    /**
+     * Construct a transcoder that copies the first frame of the input
+     * unchanged until any setting is changed.
+     */
+    public Transcode() {
+        transcoder = new BitstreamTranscoder();
+    }
+
+    /**
+     * @return the native transcoder
+     * @throws IllegalStateException if this transcoder has been closed
+     */
+    private BitstreamTranscoder transcoder() {
+        if (closed) {
+            throw new IllegalStateException("Transcoder has been closed.");
+        }
+        return transcoder;
+    }
+
+    /**
+     * Release the native resources held by this transcoder.  Closing more
+     * than once has no effect.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        transcoder.delete();
+    }
+
+    /**
+     * Select the frame of multi-frame inputs that is transcoded.
+     *
+     * @param frame index of the frame to transcode
+     * @throws TranscodeException if the index is negative
+     */
+    public void setFrame(long frame) throws TranscodeException {
+        if (frame < 0) {
+            throw new TranscodeException(String.format(
+                "Frame %d is negative.", frame));
+        }
+        this.frame = frame;
+    }
+
+    /**
+     * Select the region of the image to keep, before any flip or
+     * rotation.  The region must be within the image when transcoding.
+     *
+     * @param x left edge of the region in pixels
+     * @param y top edge of the region in pixels
+     * @param width region width in pixels
+     * @param height region height in pixels
+     * @throws TranscodeException if the region is empty or negative
+     * @see #clearRegion()
+     */
+    public void setRegion(int x, int y, int width, int height)
+            throws TranscodeException {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0) {
+            throw new TranscodeException(String.format(
+                "Region %d, %d, %dx%d is invalid.", x, y, width, height));
+        }
+        transcoder().setRegion(x, y, width, height);
+    }
+
+    /**
+     * Keep the whole image.
+     *
+     * @see #setRegion(int, int, int, int)
+     */
+    public void clearRegion() {
+        transcoder().clearRegion();
+    }
+
+    /**
+     * Set the flip or rotation applied to the region.  Images with 4:2:2
+     * chroma subsampling cannot be rotated.
+     *
+     * @param orientation orientation to apply; should be non-null
+     */
+    public void setOrientation(Orientation orientation) {
+        transcoder().setOrientation(orientation.code);
+    }
+
+    /**
+     * Set the subbands to keep.  The transcoded image keeps its width and
+     * height but loses the detail of the dropped subbands.
+     *
+     * @param subband subbands to keep; should be non-null
+     */
+    public void setSubband(Subband subband) {
+        transcoder().setSubband(subband.code);
+    }
+
+    /**
+     * Set whether the alpha channel is dropped.  Only alpha stored as a
+     * separate plane with straight, not premultiplied, colors can be
+     * dropped; the pixel format becomes the matching format without
+     * alpha.
+     *
+     * @param dropAlpha true to drop the alpha channel
+     */
+    public void setDropAlpha(boolean dropAlpha) {
+        transcoder().setDropAlpha(dropAlpha);
+    }
+
+    /**
+     * Transcode JPEG-XR data into the given buffer.  The bitstream is
+     * written from the start of the buffer; its position and limit are
+     * unchanged.
+     *
+     * @param input buffer containing JPEG-XR data from the beginning to the
+     *        capacity of the buffer.  Should be non-null and directly
+     *        allocated.
+     * @param output buffer to write the bitstream to.  Should be non-null
+     *        and directly allocated.
+     * @return number of bytes written to <code>output</code>
+     * @throws TranscodeException if either buffer is not directly
+     *         allocated, the bitstream does not fit in the output buffer or
+     *         the image cannot be transcoded with the current settings
+     */
+    public int transcode(ByteBuffer input, ByteBuffer output)
+            throws TranscodeException {
+        checkDirect(input);
+        checkDirect(output);
+        BitstreamTranscoder transcoder = transcoder();
+        CodecFactory codecFactory = new CodecFactory();
+        ImageDecoder decoder = new ImageDecoder();
+        try {
+            initializeDecoder(codecFactory, decoder, input);
+            return (int) transcoder.transcode(
+                decoder, output, output.capacity());
+        } catch (Exception e) {
+            throw new TranscodeException(e.getMessage(), e);
+        } finally {
+            decoder.delete();
+            codecFactory.delete();
+        }
+    }
+
+    /**
+     * Transcode JPEG-XR data into a new buffer.  The bitstream is written
+     * to native memory that grows as required, then copied to a directly
+     * allocated buffer of exactly the transcoded size.
+     *
+     * @param input buffer containing JPEG-XR data from the beginning to the
+     *        capacity of the buffer.  Should be non-null and directly
+     *        allocated.
+     * @return directly allocated buffer containing the bitstream
+     * @throws TranscodeException if the input buffer is not directly
+     *         allocated or the image cannot be transcoded with the current
+     *         settings
+     */
+    public ByteBuffer transcode(ByteBuffer input) throws TranscodeException {
+        checkDirect(input);
+        BitstreamTranscoder transcoder = transcoder();
+        CodecFactory codecFactory = new CodecFactory();
+        ImageDecoder decoder = new ImageDecoder();
+        long size;
+        try {
+            initializeDecoder(codecFactory, decoder, input);
+            size = transcoder.transcode(decoder);
+        } catch (Exception e) {
+            throw new TranscodeException(e.getMessage(), e);
+        } finally {
+            decoder.delete();
+            codecFactory.delete();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new TranscodeException(String.format(
+                "Transcoded size %d is larger than a buffer can hold.",
+                size));
+        }
+        ByteBuffer output = ByteBuffer.allocateDirect((int) size);
+        transcoder.getTranscodedBytes(output);
+        return output;
+    }
+
+    /**
+     * Initialize a decoder with the given JPEG-XR data and select the
+     * frame to transcode.
+     *
+     * @param codecFactory factory used to initialize the decoder
+     * @param decoder decoder to initialize
+     * @param input buffer containing JPEG-XR data
+     */
+    private void initializeDecoder(CodecFactory codecFactory,
+                                   ImageDecoder decoder, ByteBuffer input) {
+        codecFactory.decoderFromBytes(decoder, input, 0, input.capacity());
+        if (frame != 0) {
+            decoder.selectFrame(frame);
+        }
+    }
+
+    /**
+     * @param buffer buffer to pass to the native transcoder
+     * @throws TranscodeException if the buffer is not directly allocated
+     */
+    private static void checkDirect(ByteBuffer buffer)
+            throws TranscodeException {
+        if (!buffer.isDirect()) {
+            throw new TranscodeException("Buffer must be allocated direct.");
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+/**
+ * Unchecked wrapper for a {@link DecodeException}, thrown by methods that
+ * cannot declare it, in the same way as
+ * {@link java.io.UncheckedIOException} wraps an
+ * {@link java.io.IOException}.
+ */
+public class UncheckedDecodeException extends RuntimeException {
+
+    private static final long serialVersionUID = 4081574319506237263L;
+
+    public UncheckedDecodeException(DecodeException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    public UncheckedDecodeException(String message, DecodeException cause) {
+        super(message, cause);
+    }
+
+    /**
+     * @return the wrapped {@link DecodeException}
+     */
+    @Override
+    public synchronized DecodeException getCause() {
+        return (DecodeException) super.getCause();
+    }
+}
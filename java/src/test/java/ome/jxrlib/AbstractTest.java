@@ -18,14 +18,123 @@
 
 package ome.jxrlib;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 import javax.xml.bind.DatatypeConverter;
 
+import org.testng.Assert;
+
 abstract class AbstractTest {
 
+    void assertDecode(
+            AbstractDecode decode, long width, long height, long bpp,
+            String md5) throws DecodeException {
+        long _width = decode.getWidth();
+        Assert.assertEquals(_width, width);
+        long _height = decode.getHeight();
+        Assert.assertEquals(_height, height);
+        long _bpp = decode.getBytesPerPixel();
+        Assert.assertEquals(_bpp, bpp);
+
+        ByteBuffer imageBuffer = ByteBuffer.allocateDirect(
+            (int) (_width * _height * _bpp));
+        decode.toBytes(imageBuffer);
+
+        Assert.assertEquals(md5(imageBuffer), md5);
+    }
+
+    byte[] asByteArray(String filename) throws IOException {
+        InputStream stream =
+            this.getClass().getClassLoader().getResourceAsStream(filename);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        byte[] buffer = new byte[1024 * 1024];
+        int rlen = 0;
+        while ((rlen = stream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, rlen);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    ByteBuffer asByteBuffer(String filename)
+            throws URISyntaxException, IOException {
+        return asByteBuffer(filename, null, null);
+    }
+
+    ByteBuffer asByteBuffer(String filename, Integer offset, Integer length)
+            throws URISyntaxException, IOException {
+        URL url = this.getClass().getClassLoader().getResource(filename);
+        Path inputFile = Paths.get(url.toURI());
+
+        ByteBuffer dataBuffer;
+        try (FileChannel channel = FileChannel.open(inputFile)) {
+            if (offset == null) {
+                offset = 0;
+            }
+            if (length == null) {
+                length = (int) channel.size();
+            }
+            dataBuffer = ByteBuffer.allocateDirect(offset + length);
+            dataBuffer.position(offset);
+            channel.read(dataBuffer);
+            dataBuffer.position(0);
+        }
+        return dataBuffer;
+    }
+
+    /**
+     * Chain the image file directories of the given single frame JPEG-XR
+     * containers into one container with a frame for each of them.
+     */
+    ByteBuffer chainFrames(ByteBuffer... frames) {
+        // size in bytes of each TIFF field type
+        int[] typeSizes = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8};
+        int size = 0;
+        for (ByteBuffer frame : frames) {
+            size += frame.capacity();
+        }
+        ByteBuffer chained =
+            ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        int previousNext = -1;
+        for (ByteBuffer frame : frames) {
+            int shift = chained.position();
+            chained.put(frame);
+            frame.rewind();
+            int ifd = shift + chained.getInt(shift + 4);
+            int entries = chained.getShort(ifd) & 0xffff;
+            for (int i = 0; i < entries; i++) {
+                int entry = ifd + 2 + i * 12;
+                int tag = chained.getShort(entry) & 0xffff;
+                int type = chained.getShort(entry + 2);
+                long count = chained.getInt(entry + 4) & 0xffffffffL;
+                // image and alpha offsets, and values stored out of line
+                if (tag == 0xbcc0 || tag == 0xbcc2
+                        || count * typeSizes[type] > 4) {
+                    chained.putInt(entry + 8,
+                                   chained.getInt(entry + 8) + shift);
+                }
+            }
+            if (previousNext >= 0) {
+                chained.putInt(previousNext, ifd);
+            }
+            previousNext = ifd + 2 + entries * 12;
+        }
+        chained.rewind();
+        return chained;
+    }
+
     String md5(ByteBuffer byteBuffer) {
         byte[] bytes = new byte[byteBuffer.capacity()];
         byteBuffer.get(bytes);
@@ -42,5 +151,4 @@ abstract class AbstractTest {
         }
         return DatatypeConverter.printHexBinary(md.digest(bytes)).toLowerCase();
     }
-
 }
@@ -19,7 +19,11 @@
 package ome.jxrlib;
 
 import java.io.File;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
 
 public class TestDecode extends AbstractDecode {
 
@@ -44,8 +48,39 @@ public class TestDecode extends AbstractDecode {
         super(dataBuffer, offset, length);
     }
 
+    public TestDecode(Path path, long offset, long length)
+            throws DecodeException {
+        super(path, offset, length);
+    }
+
+    public TestDecode(FileChannel channel, long offset, long length)
+            throws DecodeException {
+        super(channel, offset, length);
+    }
+
+    public TestDecode(SeekableByteChannel channel) {
+        super(channel);
+    }
+
+    public TestDecode(InputStream stream) {
+        super(stream);
+    }
+
     public static byte[] decodeFirstFrame(
             byte[] source, int offset, int length) {
         return AbstractDecode.decodeFirstFrame(source, offset, length);
     }
+
+    public static int getDecodedSize(byte[] source, int offset, int length)
+            throws DecodeException {
+        return AbstractDecode.getDecodedSize(source, offset, length);
+    }
+
+    public static int decodeInto(
+            byte[] source, int offset, int length,
+            byte[] destination, int destinationOffset)
+                throws DecodeException {
+        return AbstractDecode.decodeInto(
+            source, offset, length, destination, destinationOffset);
+    }
 }
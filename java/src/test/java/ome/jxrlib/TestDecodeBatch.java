@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+
+import org.testng.Assert;
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+
+public class TestDecodeBatch extends AbstractTest {
+
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testDecodeBatch(
+        String filename, long width, long height, long bpp, String md5)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        int length = dataBuffer.capacity();
+        int size = (int) (width * height * bpp);
+        int tiles = 3;
+        ByteBuffer source = ByteBuffer.allocateDirect(tiles * length + 16);
+        int[] offsets = new int[tiles + 3];
+        int[] lengths = new int[tiles + 3];
+        int[] destinationOffsets = new int[tiles + 3];
+        for (int i = 0; i < tiles; i++) {
+            offsets[i] = source.position();
+            lengths[i] = length;
+            destinationOffsets[i] = i * size;
+            dataBuffer.rewind();
+            source.put(dataBuffer);
+        }
+        // outside the source, not JPEG-XR, and too large to fit
+        offsets[tiles] = source.capacity();
+        lengths[tiles] = length;
+        offsets[tiles + 1] = source.position();
+        lengths[tiles + 1] = 16;
+        lengths[tiles + 2] = length;
+        destinationOffsets[tiles + 2] = tiles * size - 1;
+
+        for (int threads = 1; threads <= 4; threads *= 2) {
+            ByteBuffer destination = ByteBuffer.allocateDirect(tiles * size);
+            TileStatus[] status = Decode.decodeBatch(
+                source, offsets, lengths, destination, destinationOffsets,
+                threads);
+            Assert.assertEquals(status.length, tiles + 3);
+            for (int i = 0; i < tiles; i++) {
+                Assert.assertEquals(status[i], TileStatus.DECODED);
+                destination.limit(destinationOffsets[i] + size);
+                destination.position(destinationOffsets[i]);
+                Assert.assertEquals(md5(destination.slice()), md5);
+            }
+            Assert.assertEquals(status[tiles], TileStatus.INVALID_RANGE);
+            Assert.assertEquals(status[tiles + 1], TileStatus.DECODE_FAILED);
+            Assert.assertEquals(
+                status[tiles + 2], TileStatus.DESTINATION_TOO_SMALL);
+        }
+    }
+
+    @Test(expectedExceptions={DecodeException.class})
+    public void testDecodeBatchArrayLengths() throws DecodeException {
+        Decode.decodeBatch(
+            ByteBuffer.allocateDirect(1), new int[2], new int[1],
+            ByteBuffer.allocateDirect(1), new int[2]);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+
+public class TestDecodeMetrics extends AbstractTest {
+
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testDecodeMetrics(
+        String filename, long width, long height, long bpp, String md5)
+            throws IOException, URISyntaxException, DecodeException {
+        final List<DecodeMetrics> reported = new ArrayList<DecodeMetrics>();
+        DecodeListener listener = new DecodeListener() {
+            @Override
+            public void decoded(DecodeMetrics metrics) {
+                reported.add(metrics);
+            }
+        };
+        DecodeStatistics statistics = new DecodeStatistics();
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        TestDecode decode = new TestDecode(dataBuffer);
+        ByteBuffer imageBuffer =
+            ByteBuffer.allocateDirect((int) (width * height * bpp));
+        Decode.addDecodeListener(listener);
+        Decode.addDecodeListener(statistics);
+        try {
+            for (int i = 0; i < 2; i++) {
+                decode.toBytes(imageBuffer);
+                Assert.assertEquals(md5(imageBuffer), md5);
+                imageBuffer.clear();
+            }
+        } finally {
+            Decode.removeDecodeListener(listener);
+            Decode.removeDecodeListener(statistics);
+        }
+        decode.toBytes(imageBuffer);
+
+        Assert.assertEquals(reported.size(), 2);
+        for (DecodeMetrics metrics : reported) {
+            Assert.assertEquals(metrics.getBytesIn(), dataBuffer.capacity());
+            Assert.assertEquals(metrics.getBytesOut(), width * height * bpp);
+            Assert.assertTrue(metrics.getTileCount() >= 1);
+            Assert.assertTrue(metrics.getEntropyDecodeNanos() > 0);
+            Assert.assertTrue(metrics.getInverseTransformNanos() > 0);
+            Assert.assertTrue(metrics.getColorConversionNanos() > 0);
+            Assert.assertTrue(metrics.getEntropyDecodeNanos()
+                + metrics.getInverseTransformNanos()
+                + metrics.getColorConversionNanos()
+                <= metrics.getTotalNanos());
+        }
+        // headers are only parsed once
+        Assert.assertTrue(reported.get(0).getHeaderNanos() > 0);
+        Assert.assertEquals(reported.get(1).getHeaderNanos(), 0);
+
+        Assert.assertEquals(statistics.getDecodeCount(), 2);
+        Assert.assertEquals(statistics.getBytesOut(),
+                            2 * width * height * bpp);
+        Assert.assertEquals(statistics.getHeaderTime().getCount(), 1);
+        LatencySummary total = statistics.getTotalTime();
+        Assert.assertTrue(total.getP50() <= total.getP99());
+        Assert.assertTrue(total.getP99() <= total.getMax());
+        Assert.assertTrue(statistics.getMegabytesPerSecond() > 0);
+        statistics.reset();
+        Assert.assertEquals(statistics.getDecodeCount(), 0);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import org.testng.Assert;
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+
+public class TestDecodeService extends AbstractTest {
+
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testDecodeService(
+        String filename, long width, long height, long bpp, String md5)
+            throws Exception {
+        byte[] data = asByteArray(filename);
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        final long size = width * height * bpp;
+        // close each image as it completes, so that the next decode can
+        // take its bytes
+        Function<DecodedImage, String> check =
+            new Function<DecodedImage, String>() {
+                @Override
+                public String apply(DecodedImage image) {
+                    try {
+                        Assert.assertEquals(
+                            image.getWidth() * image.getHeight()
+                            * image.getBytesPerPixel(), size);
+                        return md5(image.getPixels());
+                    } finally {
+                        image.close();
+                    }
+                }
+            };
+        List<CompletableFuture<String>> futures =
+            new ArrayList<CompletableFuture<String>>();
+        // room for one decoded image at a time, so that decodes queue up
+        try (DecodeService service = new DecodeService(
+                2, 3, size, DecodeService.OverflowPolicy.BLOCK)) {
+            for (int i = 0; i < 3; i++) {
+                futures.add(
+                    service.submit(data, 0, data.length).thenApply(check));
+                futures.add(service.submit(dataBuffer).thenApply(check));
+            }
+            for (CompletableFuture<String> future : futures) {
+                Assert.assertEquals(future.get(), md5);
+            }
+            Assert.assertEquals(service.getQueuedCount(), 0);
+            Assert.assertEquals(service.getBytesInFlight(), 0);
+
+            DecodedImage image = service.submit(dataBuffer).get();
+            Assert.assertEquals(image.getWidth(), width);
+            Assert.assertEquals(image.getHeight(), height);
+            Assert.assertEquals(image.getBytesPerPixel(), bpp);
+            Assert.assertEquals(service.getBytesInFlight(), size);
+            image.close();
+            image.close();
+            Assert.assertEquals(service.getBytesInFlight(), 0);
+        }
+    }
+
+    @Parameters({"filename", "width", "height", "bpp"})
+    @Test
+    public void testDecodeServiceByteLimit(
+        String filename, long width, long height, long bpp)
+            throws Exception {
+        byte[] data = asByteArray(filename);
+        try (DecodeService service = new DecodeService(
+                1, 1, width * height * bpp - 1,
+                DecodeService.OverflowPolicy.REJECT)) {
+            service.submit(data, 0, data.length).get();
+            Assert.fail("Image larger than the byte limit was decoded.");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof DecodeException);
+        }
+    }
+
+    @Parameters({"filename"})
+    @Test
+    public void testDecodeServiceClosed(String filename) throws Exception {
+        byte[] data = asByteArray(filename);
+        DecodeService service =
+            new DecodeService(1, 1, 1, DecodeService.OverflowPolicy.BLOCK);
+        service.close();
+        try {
+            service.submit(data, 0, data.length).get();
+            Assert.fail("Image was decoded after the service was closed.");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(
+                e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+
+public class TestDecodedTileCache extends AbstractTest {
+
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testDecodedTileCache(
+        String filename, long width, long height, long bpp, String md5)
+            throws Exception {
+        final ByteBuffer dataBuffer = asByteBuffer(filename);
+        final AtomicInteger opened = new AtomicInteger();
+        final DecodedTileCache.Source source =
+            new DecodedTileCache.Source() {
+                @Override
+                public Decode open() throws DecodeException {
+                    opened.incrementAndGet();
+                    return new Decode(dataBuffer);
+                }
+            };
+        // room for the whole frame only
+        final DecodedTileCache cache = new DecodedTileCache(
+            width * height * bpp, new DirectBufferPool(0));
+        final DecodedTileCache.Key frame =
+            new DecodedTileCache.Key(filename, 0, 1, Subband.ALL);
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        try (DecodedTileCache.Tile tile =
+                                cache.get(frame, source)) {
+                            return md5(tile.getImage().getPixels());
+                        }
+                    }
+                }));
+            }
+            for (Future<String> future : futures) {
+                Assert.assertEquals(future.get(), md5);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(opened.get(), 1);
+        Assert.assertEquals(cache.getMisses(), 1);
+        Assert.assertEquals(cache.getHits(), 7);
+        Assert.assertEquals(cache.getCachedBytes(), width * height * bpp);
+
+        // a region does not fit alongside the frame, which is evicted
+        DecodedTileCache.Key region = new DecodedTileCache.Key(
+            filename, 0, 0, 0, (int) width, 1, 1, Subband.ALL);
+        try (DecodedTileCache.Tile tile = cache.get(region, source)) {
+            Assert.assertEquals(tile.getImage().getWidth(), width);
+            Assert.assertEquals(tile.getImage().getHeight(), 1);
+        }
+        Assert.assertEquals(cache.getEvictions(), 1);
+        Assert.assertEquals(cache.getTileCount(), 1);
+        try (DecodedTileCache.Tile tile = cache.get(frame, source)) {
+            Assert.assertEquals(md5(tile.getImage().getPixels()), md5);
+        }
+        Assert.assertEquals(opened.get(), 3);
+        Assert.assertEquals(cache.getEvictions(), 2);
+
+        cache.invalidateSource(filename);
+        Assert.assertEquals(cache.getTileCount(), 0);
+        Assert.assertEquals(cache.getCachedBytes(), 0);
+    }
+}
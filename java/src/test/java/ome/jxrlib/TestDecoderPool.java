@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+
+public class TestDecoderPool extends AbstractTest {
+
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testDecoderPool(
+        String filename, long width, long height, long bpp, String md5)
+            throws IOException, URISyntaxException, DecodeException {
+        byte[] data = asByteArray(filename);
+        try (TestDecode decode = new TestDecode(data)) {
+            assertDecode(decode, width, height, bpp, md5);
+        }
+
+        try (DecoderPool pool = new DecoderPool()) {
+            for (int i = 0; i < 3; i++) {
+                try (Decode decode = pool.acquire(data, 0, data.length)) {
+                    assertDecode(decode, width, height, bpp, md5);
+                    // the pooled decoder is in use, so this one is not
+                    try (Decode nested = pool.acquire(asByteBuffer(filename))) {
+                        assertDecode(nested, width, height, bpp, md5);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(expectedExceptions={IllegalStateException.class})
+    public void testDecoderPoolClosed() throws DecodeException {
+        DecoderPool pool = new DecoderPool();
+        pool.close();
+        pool.acquire(new byte[1], 0, 1);
+    }
+}
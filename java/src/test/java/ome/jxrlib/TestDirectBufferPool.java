@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+
+import org.testng.Assert;
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+
+public class TestDirectBufferPool extends AbstractTest {
+
+    @Parameters({"filename", "md5"})
+    @Test
+    public void testPooledBuffer(String filename, String md5)
+            throws IOException, URISyntaxException, DecodeException {
+        DirectBufferPool pool = new DirectBufferPool(64 * 1024 * 1024);
+        TestDecode decode = new TestDecode(asByteBuffer(filename));
+        for (int i = 0; i < 2; i++) {
+            try (DirectBufferPool.Lease lease = decode.toPooledBuffer(pool)) {
+                ByteBuffer buffer = lease.getBuffer();
+                Assert.assertEquals(JXR.directBufferAddress(buffer)
+                                    % DirectBufferPool.ALIGNMENT, 0);
+                Assert.assertEquals(md5(buffer), md5);
+            }
+        }
+        Assert.assertEquals(pool.getMisses(), 1);
+        Assert.assertEquals(pool.getHits(), 1);
+        Assert.assertTrue(pool.getRetainedBytes() > 0);
+        pool.clear();
+        Assert.assertEquals(pool.getRetainedBytes(), 0);
+    }
+}
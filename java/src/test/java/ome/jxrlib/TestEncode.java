@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+
+import org.testng.Assert;
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+
+public class TestEncode extends AbstractTest {
+
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testEncode(
+        String filename, long width, long height, long bpp, String md5)
+            throws IOException, URISyntaxException, DecodeException,
+                   EncodeException {
+        ByteBuffer imageBuffer =
+            ByteBuffer.allocateDirect((int) (width * height * bpp));
+        GUID pixelFormat;
+        try (TestDecode decode = new TestDecode(asByteBuffer(filename))) {
+            decode.toBytes(imageBuffer);
+            pixelFormat = decode.getPixelFormat();
+        }
+
+        try (Encode encode = new Encode(pixelFormat)) {
+            encode.setTileSize(256, 256);
+            ByteBuffer encoded =
+                encode.encode(imageBuffer, (int) width, (int) height);
+            try (TestDecode decode = new TestDecode(encoded)) {
+                assertDecode(decode, width, height, bpp, md5);
+            }
+
+            ByteBuffer output = ByteBuffer.allocateDirect(encoded.capacity());
+            int length =
+                encode.encode(imageBuffer, (int) width, (int) height, output);
+            Assert.assertEquals(length, encoded.capacity());
+            Assert.assertEquals(output, encoded);
+
+            encode.setQuality(0.5f);
+            encoded = encode.encode(imageBuffer, (int) width, (int) height);
+            Assert.assertTrue(encoded.capacity() < length);
+            try (TestDecode decode = new TestDecode(encoded)) {
+                Assert.assertEquals(decode.getWidth(), width);
+                Assert.assertEquals(decode.getHeight(), height);
+            }
+        }
+    }
+
+    @Parameters({"filename", "width", "height", "bpp"})
+    @Test(expectedExceptions={EncodeException.class})
+    public void testEncodeOutputTooSmall(
+        String filename, long width, long height, long bpp)
+            throws IOException, URISyntaxException, DecodeException,
+                   EncodeException {
+        ByteBuffer imageBuffer =
+            ByteBuffer.allocateDirect((int) (width * height * bpp));
+        GUID pixelFormat;
+        try (TestDecode decode = new TestDecode(asByteBuffer(filename))) {
+            pixelFormat = decode.getPixelFormat();
+        }
+        try (Encode encode = new Encode(pixelFormat)) {
+            encode.encode(imageBuffer, (int) width, (int) height,
+                          ByteBuffer.allocateDirect(16));
+        }
+    }
+
+    @Parameters({"filename"})
+    @Test(expectedExceptions={EncodeException.class})
+    public void testEncodeInvalidTileSize(String filename)
+            throws IOException, URISyntaxException, DecodeException,
+                   EncodeException {
+        try (TestDecode decode = new TestDecode(asByteBuffer(filename));
+             Encode encode = new Encode(decode.getPixelFormat())) {
+            encode.setTileSize(100, 100);
+        }
+    }
+}
@@ -18,15 +18,19 @@
 
 package ome.jxrlib;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
@@ -35,63 +39,6 @@ import org.testng.annotations.Test;
 
 public class TestInMemoryDecode extends AbstractTest {
 
-    void assertDecode(
-            AbstractDecode decode, long width, long height, long bpp,
-            String md5) throws DecodeException {
-        long _width = decode.getWidth();
-        Assert.assertEquals(_width, width);
-        long _height = decode.getHeight();
-        Assert.assertEquals(_height, height);
-        long _bpp = decode.getBytesPerPixel();
-        Assert.assertEquals(_bpp, bpp);
-
-        ByteBuffer imageBuffer = ByteBuffer.allocateDirect(
-            (int) (_width * _height * _bpp));
-        decode.toBytes(imageBuffer);
-
-        Assert.assertEquals(md5(imageBuffer), md5);
-    }
-
-    byte[] asByteArray(String filename) throws IOException {
-        InputStream stream =
-            this.getClass().getClassLoader().getResourceAsStream(filename);
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-
-        byte[] buffer = new byte[1024 * 1024];
-        int rlen = 0;
-        while ((rlen = stream.read(buffer)) != -1) {
-            outputStream.write(buffer, 0, rlen);
-        }
-
-        return outputStream.toByteArray();
-    }
-
-    ByteBuffer asByteBuffer(String filename)
-            throws URISyntaxException, IOException {
-        return asByteBuffer(filename, null, null);
-    }
-
-    ByteBuffer asByteBuffer(String filename, Integer offset, Integer length)
-            throws URISyntaxException, IOException {
-        URL url = this.getClass().getClassLoader().getResource(filename);
-        Path inputFile = Paths.get(url.toURI());
-
-        ByteBuffer dataBuffer;
-        try (FileChannel channel = FileChannel.open(inputFile)) {
-            if (offset == null) {
-                offset = 0;
-            }
-            if (length == null) {
-                length = (int) channel.size();
-            }
-            dataBuffer = ByteBuffer.allocateDirect(offset + length);
-            dataBuffer.position(offset);
-            channel.read(dataBuffer);
-            dataBuffer.position(0);
-        }
-        return dataBuffer;
-    }
-
     @Parameters({"filename", "width", "height", "bpp", "md5"})
     @Test
     public void testByteArray(
@@ -112,6 +59,35 @@ public class TestInMemoryDecode extends AbstractTest {
         Assert.assertEquals(md5, md5(destination));
     }
 
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testDecodeInto(
+        String filename, long width, long height, long bpp, String md5)
+            throws IOException, DecodeException {
+        byte[] data = asByteArray(filename);
+        byte[] source = new byte[data.length + 3];
+        System.arraycopy(data, 0, source, 3, data.length);
+
+        int size = TestDecode.getDecodedSize(source, 3, data.length);
+        Assert.assertEquals(size, width * height * bpp);
+        byte[] destination = new byte[size + 5];
+        Assert.assertEquals(
+            TestDecode.decodeInto(source, 3, data.length, destination, 5),
+            size);
+        Assert.assertEquals(
+            md5(Arrays.copyOfRange(destination, 5, destination.length)),
+            md5);
+    }
+
+    @Parameters({"filename"})
+    @Test(expectedExceptions={DecodeException.class})
+    public void testDecodeIntoTooSmall(String filename)
+            throws IOException, DecodeException {
+        byte[] data = asByteArray(filename);
+        int size = TestDecode.getDecodedSize(data, 0, data.length);
+        TestDecode.decodeInto(data, 0, data.length, new byte[size], 1);
+    }
+
     @Parameters({"filename", "width", "height", "bpp", "md5"})
     @Test
     public void testByteBuffer(
@@ -134,6 +110,515 @@ public class TestInMemoryDecode extends AbstractTest {
         assertDecode(decode, width, height, bpp, md5);
     }
 
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testMappedFile(
+        String filename, long width, long height, long bpp, String md5)
+            throws IOException, URISyntaxException, DecodeException {
+        byte[] data = asByteArray(filename);
+        int offset = 4099;
+        Path container = Files.createTempFile("jxrlib", ".bin");
+        try {
+            // surround the JPEG-XR data as if it were a subblock
+            byte[] padded = new byte[offset + data.length + 17];
+            System.arraycopy(data, 0, padded, offset, data.length);
+            Files.write(container, padded);
+
+            assertDecode(new TestDecode(container, offset, data.length),
+                         width, height, bpp, md5);
+            try (FileChannel channel = FileChannel.open(container);
+                 DecoderPool pool = new DecoderPool()) {
+                for (int i = 0; i < 2; i++) {
+                    assertDecode(
+                        new TestDecode(channel, offset, data.length),
+                        width, height, bpp, md5);
+                    try (Decode decode =
+                            pool.acquire(channel, offset, data.length)) {
+                        assertDecode(decode, width, height, bpp, md5);
+                    }
+                }
+            }
+        } finally {
+            Files.delete(container);
+        }
+    }
+
+    @Parameters({"filename"})
+    @Test(expectedExceptions={DecodeException.class})
+    public void testMappedRangeOutsideFile(String filename)
+            throws IOException, URISyntaxException, DecodeException {
+        URL url = this.getClass().getClassLoader().getResource(filename);
+        Path path = Paths.get(url.toURI());
+        new TestDecode(path, 1, Files.size(path));
+    }
+
+    @Parameters({"filename", "width", "height", "bpp"})
+    @Test
+    public void testOutputFormats(
+        String filename, long width, long height, long bpp)
+            throws IOException, URISyntaxException, DecodeException {
+        TestDecode decode = new TestDecode(asByteBuffer(filename));
+        int pixels = (int) (width * height);
+        ByteBuffer raw = ByteBuffer.allocateDirect((int) (pixels * bpp));
+        decode.toBytes(raw);
+        ByteBuffer unconverted = ByteBuffer.allocateDirect(raw.capacity());
+        decode.toBytes(unconverted, OutputFormat.RAW);
+        Assert.assertEquals(md5(unconverted), md5(raw));
+
+        // expected 8-bit RGB and 16-bit channel values of each pixel
+        ByteBuffer samples = raw.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int[] rgb = new int[pixels * 3];
+        int channels = bpp == 2 ? 1 : 3;
+        int[] uint16 = new int[pixels * channels];
+        for (int i = 0; i < pixels; i++) {
+            if (bpp == 2) {
+                int gray = samples.getShort(i * 2) & 0xffff;
+                uint16[i] = gray;
+                Arrays.fill(rgb, i * 3, i * 3 + 3,
+                            (gray * 255 + 32767) / 65535);
+            } else {
+                for (int c = 0; c < 3; c++) {
+                    int source = decode.isBGR() ? 2 - c : c;
+                    rgb[i * 3 + c] = samples.get(i * 3 + source) & 0xff;
+                    uint16[i * 3 + c] = rgb[i * 3 + c] * 257;
+                }
+            }
+        }
+
+        Assert.assertEquals(decode.getBytesPerPixel(OutputFormat.RGB8), 3);
+        ByteBuffer rgb8 = ByteBuffer.allocateDirect(pixels * 3);
+        decode.toBytes(rgb8, OutputFormat.RGB8);
+        ByteBuffer rgba8 = ByteBuffer.allocateDirect(pixels * 4);
+        decode.toBytes(rgba8, OutputFormat.RGBA8);
+        ByteBuffer argb = ByteBuffer.allocateDirect(pixels * 4)
+            .order(ByteOrder.nativeOrder());
+        decode.toBytes(argb, OutputFormat.ARGB_INT);
+        ByteBuffer uint16le = ByteBuffer.allocateDirect(pixels * channels * 2)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        decode.toBytes(uint16le, OutputFormat.UINT16_LE);
+        ByteBuffer float32 = ByteBuffer.allocateDirect(pixels * channels * 4)
+            .order(ByteOrder.nativeOrder());
+        decode.toBytes(float32, OutputFormat.FLOAT32);
+        for (int i = 0; i < pixels; i++) {
+            int r = rgb[i * 3], g = rgb[i * 3 + 1], b = rgb[i * 3 + 2];
+            for (int c = 0; c < 3; c++) {
+                Assert.assertEquals(
+                    rgb8.get(i * 3 + c) & 0xff, rgb[i * 3 + c]);
+                Assert.assertEquals(
+                    rgba8.get(i * 4 + c) & 0xff, rgb[i * 3 + c]);
+            }
+            Assert.assertEquals(rgba8.get(i * 4 + 3) & 0xff, 0xff);
+            Assert.assertEquals(argb.getInt(i * 4),
+                                0xff000000 | r << 16 | g << 8 | b);
+            for (int c = 0; c < channels; c++) {
+                int value = uint16[i * channels + c];
+                Assert.assertEquals(
+                    uint16le.getShort((i * channels + c) * 2) & 0xffff, value);
+                Assert.assertEquals(
+                    float32.getFloat((i * channels + c) * 4),
+                    value / 65535.0f, 1e-6f);
+            }
+        }
+    }
+
+    @Parameters({"filename", "width", "height", "bpp"})
+    @Test
+    public void testPlanes(
+        String filename, long width, long height, long bpp)
+            throws IOException, URISyntaxException, DecodeException {
+        TestDecode decode = new TestDecode(asByteBuffer(filename));
+        int pixels = (int) (width * height);
+        int channels = (int) decode.getChannelCount();
+        int sampleBytes = (int) decode.getBytesPerSample();
+        Assert.assertEquals(channels * sampleBytes, bpp);
+        Assert.assertFalse(decode.hasAlpha());
+        ByteBuffer raw = ByteBuffer.allocateDirect((int) (pixels * bpp));
+        decode.toBytes(raw);
+
+        int planeSize = pixels * sampleBytes;
+        ByteBuffer planes = ByteBuffer.allocateDirect(planeSize * channels);
+        decode.toPlanes(planes);
+        ByteBuffer plane = ByteBuffer.allocateDirect(planeSize);
+        for (int c = 0; c < channels; c++) {
+            decode.toChannel(c, plane);
+            int sample = decode.isBGR() ? channels - 1 - c : c;
+            for (int i = 0; i < pixels; i++) {
+                for (int b = 0; b < sampleBytes; b++) {
+                    byte expected = raw.get(
+                        (int) (i * bpp) + sample * sampleBytes + b);
+                    Assert.assertEquals(
+                        planes.get(c * planeSize + i * sampleBytes + b),
+                        expected);
+                    Assert.assertEquals(
+                        plane.get(i * sampleBytes + b), expected);
+                }
+            }
+        }
+    }
+
+    @Parameters({"filename", "width", "height"})
+    @Test(expectedExceptions={DecodeException.class})
+    public void testPlanesInvalidChannel(
+        String filename, long width, long height)
+            throws IOException, URISyntaxException, DecodeException {
+        TestDecode decode = new TestDecode(asByteBuffer(filename));
+        int channels = (int) decode.getChannelCount();
+        decode.toChannel(channels, ByteBuffer.allocateDirect(
+            (int) (width * height * decode.getBytesPerSample())));
+    }
+
+    @Parameters({"filename", "width", "height"})
+    @Test(expectedExceptions={DecodeException.class})
+    public void testAlphaWithoutAlphaChannel(
+        String filename, long width, long height)
+            throws IOException, URISyntaxException, DecodeException {
+        TestDecode decode = new TestDecode(asByteBuffer(filename));
+        decode.toAlpha(ByteBuffer.allocateDirect(
+            (int) (width * height * decode.getBytesPerSample())));
+    }
+
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testRegion(
+        String filename, long width, long height, long bpp, String md5)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        TestDecode decode = new TestDecode(dataBuffer);
+        ByteBuffer imageBuffer = ByteBuffer.allocateDirect(
+            (int) (width * height * bpp));
+        decode.toBytes(imageBuffer);
+
+        int x = (int) width / 3;
+        int y = (int) height / 4;
+        int regionWidth = (int) width / 2;
+        int regionHeight = (int) height / 2;
+        ByteBuffer regionBuffer = ByteBuffer.allocateDirect(
+            (int) (regionWidth * regionHeight * bpp));
+        decode.toBytes(x, y, regionWidth, regionHeight, regionBuffer);
+        Assert.assertEquals(decode.getWidth(), regionWidth);
+        Assert.assertEquals(decode.getHeight(), regionHeight);
+        Assert.assertEquals(decode.getImageWidth(), width);
+        Assert.assertEquals(decode.getImageHeight(), height);
+
+        int rowBytes = (int) (regionWidth * bpp);
+        byte[] expected = new byte[rowBytes];
+        byte[] actual = new byte[rowBytes];
+        for (int row = 0; row < regionHeight; row++) {
+            imageBuffer.position((int) (((y + row) * width + x) * bpp));
+            imageBuffer.get(expected);
+            regionBuffer.get(actual);
+            Assert.assertEquals(actual, expected);
+        }
+
+        decode.clearRegion();
+        assertDecode(decode, width, height, bpp, md5);
+    }
+
+    @Parameters({"filename", "width", "height"})
+    @Test(expectedExceptions={DecodeException.class})
+    public void testRegionOutsideImage(
+        String filename, long width, long height)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        TestDecode decode = new TestDecode(dataBuffer);
+        decode.setRegion((int) width - 8, 0, 16, (int) height);
+    }
+
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testThreads(
+        String filename, long width, long height, long bpp, String md5)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        TestDecode decode = new TestDecode(dataBuffer);
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            ByteBuffer imageBuffer = ByteBuffer.allocateDirect(
+                (int) (width * height * bpp));
+            decode.toBytes(imageBuffer, threads);
+            Assert.assertEquals(md5(imageBuffer), md5);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ByteBuffer imageBuffer = ByteBuffer.allocateDirect(
+                (int) (width * height * bpp));
+            decode.toBytes(imageBuffer, executor);
+            Assert.assertEquals(md5(imageBuffer), md5);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testCanvas(
+        String filename, int width, int height, int bpp, String md5)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        TestDecode decode = new TestDecode(dataBuffer);
+        // two copies of the image side by side, with a column of padding
+        // between them and a row of padding above them
+        int rowBytes = width * bpp;
+        int rowStride = 2 * rowBytes + bpp;
+        ByteBuffer canvas =
+            ByteBuffer.allocateDirect((height + 1) * rowStride);
+        decode.toBytes(canvas, rowStride, rowStride);
+        decode.toBytes(canvas, rowStride + rowBytes + bpp, rowStride);
+
+        for (int copy = 0; copy < 2; copy++) {
+            ByteBuffer image = ByteBuffer.allocateDirect(height * rowBytes);
+            for (int y = 0; y < height; y++) {
+                ByteBuffer row = canvas.duplicate();
+                row.position((y + 1) * rowStride + copy * (rowBytes + bpp));
+                row.limit(row.position() + rowBytes);
+                image.put(row);
+            }
+            image.flip();
+            Assert.assertEquals(md5(image), md5);
+        }
+        for (int x = 0; x < rowStride; x++) {
+            Assert.assertEquals(canvas.get(x), 0);
+        }
+    }
+
+    @Parameters({"filename", "width", "height", "bpp"})
+    @Test(expectedExceptions={DecodeException.class})
+    public void testCanvasTooSmall(
+        String filename, int width, int height, int bpp)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        TestDecode decode = new TestDecode(dataBuffer);
+        int rowStride = (width + 1) * bpp;
+        ByteBuffer canvas = ByteBuffer.allocateDirect(height * rowStride);
+        decode.toBytes(canvas, 2 * bpp, rowStride);
+    }
+
+    @Parameters({"filename", "width", "bpp"})
+    @Test(expectedExceptions={DecodeException.class})
+    public void testCanvasInvalidStride(String filename, int width, int bpp)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        TestDecode decode = new TestDecode(dataBuffer);
+        decode.toBytes(ByteBuffer.allocateDirect(1 << 24), 0, width * bpp - 1);
+    }
+
+    @Parameters({"filename", "width", "height", "bpp"})
+    @Test
+    public void testThreadsRegion(
+        String filename, long width, long height, long bpp)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        TestDecode decode = new TestDecode(dataBuffer);
+        int x = (int) width / 3;
+        int y = (int) height / 4;
+        int regionWidth = (int) width / 2;
+        int regionHeight = (int) height / 2;
+        ByteBuffer expected = ByteBuffer.allocateDirect(
+            (int) (regionWidth * regionHeight * bpp));
+        decode.toBytes(x, y, regionWidth, regionHeight, expected);
+
+        ByteBuffer actual = ByteBuffer.allocateDirect(expected.capacity());
+        decode.toBytes(actual, 4);
+        Assert.assertEquals(md5(actual), md5(expected));
+    }
+
+    @Parameters({"filename"})
+    @Test(expectedExceptions={DecodeException.class})
+    public void testInvalidThreads(String filename)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        TestDecode decode = new TestDecode(dataBuffer);
+        decode.toBytes(ByteBuffer.allocateDirect(1), 0);
+    }
+
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testStrips(
+        String filename, final long width, long height, final long bpp,
+        String md5)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        TestDecode decode = new TestDecode(dataBuffer);
+        for (final int rowsPerStrip : new int[] {1, 16, 100}) {
+            final ByteBuffer imageBuffer = ByteBuffer.allocateDirect(
+                (int) (width * height * bpp));
+            decode.decodeStrips(rowsPerStrip, new StripConsumer() {
+                @Override
+                public void accept(ByteBuffer strip, long y, int rows) {
+                    Assert.assertEquals(imageBuffer.position(),
+                                        y * width * bpp);
+                    Assert.assertTrue(rows <= rowsPerStrip);
+                    Assert.assertEquals(strip.remaining(),
+                                        rows * width * bpp);
+                    imageBuffer.put(strip);
+                }
+            });
+            Assert.assertFalse(imageBuffer.hasRemaining());
+            imageBuffer.flip();
+            Assert.assertEquals(md5(imageBuffer), md5);
+        }
+    }
+
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testScale(
+        String filename, long width, long height, long bpp, String md5)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        TestDecode decode = new TestDecode(dataBuffer);
+        for (int scale = 2; scale <= 16; scale *= 2) {
+            long scaledWidth = (width + scale - 1) / scale;
+            long scaledHeight = (height + scale - 1) / scale;
+            Assert.assertEquals(decode.getWidth(scale), scaledWidth);
+            Assert.assertEquals(decode.getHeight(scale), scaledHeight);
+
+            ByteBuffer imageBuffer = ByteBuffer.allocateDirect(
+                (int) (scaledWidth * scaledHeight * bpp));
+            decode.toBytes(scale, imageBuffer);
+            Assert.assertEquals(decode.getScale(), scale);
+            Assert.assertEquals(decode.getWidth(), scaledWidth);
+            Assert.assertEquals(decode.getHeight(), scaledHeight);
+
+            // region coordinates are relative to the downscaled image
+            int x = (int) scaledWidth / 3;
+            int y = (int) scaledHeight / 4;
+            int regionWidth = (int) scaledWidth / 2;
+            int regionHeight = (int) scaledHeight / 2;
+            ByteBuffer regionBuffer = ByteBuffer.allocateDirect(
+                (int) (regionWidth * regionHeight * bpp));
+            decode.toBytes(x, y, regionWidth, regionHeight, regionBuffer);
+
+            int rowBytes = (int) (regionWidth * bpp);
+            byte[] expected = new byte[rowBytes];
+            byte[] actual = new byte[rowBytes];
+            for (int row = 0; row < regionHeight; row++) {
+                imageBuffer.position(
+                    (int) (((y + row) * scaledWidth + x) * bpp));
+                imageBuffer.get(expected);
+                regionBuffer.get(actual);
+                Assert.assertEquals(actual, expected);
+            }
+        }
+
+        decode.setScale(1);
+        assertDecode(decode, width, height, bpp, md5);
+    }
+
+    @Parameters({"filename"})
+    @Test(expectedExceptions={DecodeException.class})
+    public void testInvalidScale(String filename)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        TestDecode decode = new TestDecode(dataBuffer);
+        decode.setScale(3);
+    }
+
+    @Parameters({"filename"})
+    @Test(expectedExceptions={DecodeException.class})
+    public void testOutputTooSmall(String filename)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        TestDecode decode = new TestDecode(dataBuffer);
+        decode.toBytes(ByteBuffer.allocateDirect(1));
+    }
+
+    @Parameters({"filename"})
+    @Test(expectedExceptions={IllegalStateException.class})
+    public void testClose(String filename)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        TestDecode decode = new TestDecode(dataBuffer);
+        decode.close();
+        decode.close();
+        decode.getWidth();
+    }
+
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testQuality(
+        String filename, long width, long height, long bpp, String md5)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer imageBuffer =
+            ByteBuffer.allocateDirect((int) (width * height * bpp));
+        try (TestDecode decode = new TestDecode(asByteBuffer(filename))) {
+            Assert.assertEquals(decode.getQuality(), Subband.ALL);
+            decode.setQuality(Subband.DC_ONLY);
+            Assert.assertEquals(decode.getQuality(), Subband.DC_ONLY);
+            Assert.assertEquals(decode.getWidth(), width);
+            Assert.assertEquals(decode.getHeight(), height);
+            decode.toBytes(imageBuffer);
+            Assert.assertNotEquals(md5(imageBuffer), md5);
+            imageBuffer.rewind();
+
+            decode.setQuality(Subband.NO_HIGHPASS);
+            decode.toBytes(imageBuffer);
+            decode.setQuality(Subband.ALL);
+            assertDecode(decode, width, height, bpp, md5);
+        }
+    }
+
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testFrames(
+        String filename, long width, long height, long bpp, String md5)
+            throws IOException, URISyntaxException, DecodeException,
+                   EncodeException {
+        ByteBuffer imageBuffer =
+            ByteBuffer.allocateDirect((int) (width * height * bpp));
+        ByteBuffer regionBuffer = ByteBuffer.allocateDirect((int) (32 * bpp));
+        GUID pixelFormat;
+        try (TestDecode decode = new TestDecode(asByteBuffer(filename))) {
+            Assert.assertEquals(decode.getFrameCount(), 1);
+            decode.toBytes(imageBuffer);
+            decode.toBytes(0, 0, 8, 4, regionBuffer);
+            pixelFormat = decode.getPixelFormat();
+        }
+        String regionMd5 = md5(regionBuffer);
+
+        ByteBuffer chained;
+        try (Encode encode = new Encode(pixelFormat)) {
+            ByteBuffer image =
+                encode.encode(imageBuffer, (int) width, (int) height);
+            ByteBuffer region = encode.encode(regionBuffer, 8, 4);
+            chained = chainFrames(image, region, image);
+        }
+
+        try (TestDecode decode = new TestDecode(chained)) {
+            Assert.assertEquals(decode.getFrameCount(), 3);
+            Assert.assertEquals(decode.getFrame(), 0);
+            decode.toBytesFrame(2, imageBuffer);
+            Assert.assertEquals(md5(imageBuffer), md5);
+            decode.toBytesFrame(1, regionBuffer);
+            Assert.assertEquals(decode.getWidth(), 8);
+            Assert.assertEquals(decode.getHeight(), 4);
+            Assert.assertEquals(md5(regionBuffer), regionMd5);
+            decode.selectFrame(0);
+            assertDecode(decode, width, height, bpp, md5);
+
+            ExecutorService executor = Executors.newFixedThreadPool(3);
+            try {
+                decode.selectFrame(1);
+                List<ByteBuffer> frames = decode.decodeAllFrames(executor);
+                Assert.assertEquals(decode.getFrame(), 1);
+                Assert.assertEquals(frames.size(), 3);
+                Assert.assertEquals(md5(frames.get(0)), md5);
+                Assert.assertEquals(md5(frames.get(1)), regionMd5);
+                Assert.assertEquals(md5(frames.get(2)), md5);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Parameters({"filename"})
+    @Test(expectedExceptions={DecodeException.class})
+    public void testInvalidFrame(String filename)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        TestDecode decode = new TestDecode(dataBuffer);
+        decode.selectFrame(1);
+    }
+
     @Test(expectedExceptions={DecodeException.class})
     public void testInputNotDirect() throws DecodeException {
         ByteBuffer dataBuffer = ByteBuffer.allocate(1);
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.Assert;
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+
+public class TestJxrInfo extends AbstractTest {
+
+    @Parameters({"filename", "width", "height", "bpp"})
+    @Test
+    public void testProbe(
+        String filename, long width, long height, long bpp)
+            throws IOException, URISyntaxException, DecodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        JxrInfo info = JxrInfo.probe(dataBuffer);
+        Assert.assertEquals(info.getWidth(), width);
+        Assert.assertEquals(info.getHeight(), height);
+        Assert.assertEquals(info.getBytesPerPixel(), bpp);
+        Assert.assertEquals(info.getFrameCount(), 1);
+        Assert.assertFalse(info.hasAlpha());
+
+        TestDecode decode = new TestDecode(dataBuffer);
+        Assert.assertEquals(info.getPixelFormat().getData1(),
+                            decode.getPixelFormat().getData1());
+        Assert.assertEquals(info.isBGR(), decode.isBGR());
+
+        byte[] data = asByteArray(filename);
+        Path container = Files.createTempFile("jxrlib", ".bin");
+        try {
+            byte[] padded = new byte[data.length + 100];
+            System.arraycopy(data, 0, padded, 100, data.length);
+            Files.write(container, padded);
+            JxrInfo mapped = JxrInfo.probe(container, 100);
+            Assert.assertEquals(mapped.getWidth(), width);
+            Assert.assertEquals(mapped.getHeight(), height);
+            Assert.assertEquals(
+                mapped.getTileColumnCount(), info.getTileColumnCount());
+            Assert.assertEquals(
+                mapped.getTileRowCount(), info.getTileRowCount());
+            for (int column = 0; column < info.getTileColumnCount();
+                    column++) {
+                Assert.assertEquals(
+                    mapped.getTileX(column), info.getTileX(column));
+            }
+        } finally {
+            Files.delete(container);
+        }
+    }
+
+    @Test(expectedExceptions={DecodeException.class})
+    public void testProbeInvalidInput() throws DecodeException {
+        JxrInfo.probe(ByteBuffer.allocateDirect(64));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestNativeLoader {
+
+    private static final String CPUINFO =
+        "processor\t: 0\n"
+        + "vendor_id\t: GenuineIntel\n"
+        + "flags\t\t: fpu sse4_2 popcnt avx2 bmi1 bmi2 abm\n"
+        + "\n"
+        + "processor\t: 1\n"
+        + "flags\t\t: fpu\n";
+
+    private static Set<String> flags(String... flags) {
+        return new HashSet<String>(Arrays.asList(flags));
+    }
+
+    @Test
+    public void testParseFlags() throws IOException {
+        Set<String> flags =
+            NativeLoader.parseFlags(new StringReader(CPUINFO));
+        Assert.assertEquals(flags, flags(
+            "fpu", "sse4_2", "popcnt", "avx2", "bmi1", "bmi2", "abm"));
+    }
+
+    @Test
+    public void testParseFlagsMissing() throws IOException {
+        Set<String> flags = NativeLoader.parseFlags(
+            new StringReader("processor\t: 0\nmodel name\t: flags\n"));
+        Assert.assertTrue(flags.isEmpty());
+    }
+
+    @Test
+    public void testChooseDetected() throws IOException {
+        Set<String> flags =
+            NativeLoader.parseFlags(new StringReader(CPUINFO));
+        Assert.assertEquals(NativeLoader.chooseVariants(null, flags),
+                            Arrays.asList("avx2", "sse42"));
+        Assert.assertEquals(
+            NativeLoader.chooseVariants(null, flags("sse4_2", "popcnt")),
+            Arrays.asList("sse42"));
+        Assert.assertEquals(
+            NativeLoader.chooseVariants(null, flags("avx2", "sse4_2")),
+            Collections.emptyList());
+        Assert.assertEquals(
+            NativeLoader.chooseVariants(null, Collections.<String>emptySet()),
+            Collections.emptyList());
+    }
+
+    @Test
+    public void testChooseRequested() {
+        Set<String> none = Collections.emptySet();
+        Assert.assertEquals(NativeLoader.chooseVariants("avx2", none),
+                            Arrays.asList("avx2"));
+        Assert.assertEquals(NativeLoader.chooseVariants("sse42", none),
+                            Arrays.asList("sse42"));
+        Assert.assertEquals(
+            NativeLoader.chooseVariants(NativeLoader.BASELINE, none),
+            Collections.emptyList());
+    }
+
+    @Test(expectedExceptions={IllegalArgumentException.class})
+    public void testChooseUnknown() {
+        NativeLoader.chooseVariants("avx512", flags("avx2"));
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.testng.Assert;
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+
+public class TestStreamDecode extends AbstractTest {
+
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testChannel(
+        String filename, long width, long height, long bpp, String md5)
+            throws IOException, URISyntaxException, DecodeException {
+        URL url = this.getClass().getClassLoader().getResource(filename);
+        try (SeekableByteChannel channel =
+                Files.newByteChannel(Paths.get(url.toURI()))) {
+            try (TestDecode decode = new TestDecode(channel)) {
+                assertDecode(decode, width, height, bpp, md5);
+                // parallel decoders read from the same channel
+                ByteBuffer imageBuffer = ByteBuffer.allocateDirect(
+                    (int) (width * height * bpp));
+                decode.toBytes(imageBuffer, 4);
+                Assert.assertEquals(md5(imageBuffer), md5);
+            }
+        }
+    }
+
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testInputStream(
+        String filename, long width, long height, long bpp, String md5)
+            throws IOException, DecodeException {
+        try (InputStream stream = this.getClass().getClassLoader()
+                .getResourceAsStream(filename);
+             TestDecode decode = new TestDecode(stream)) {
+            assertDecode(decode, width, height, bpp, md5);
+            // the data already read is decoded again
+            assertDecode(decode, width, height, bpp, md5);
+        }
+    }
+
+    @Parameters({"filename"})
+    @Test
+    public void testInputStreamReadError(String filename) throws IOException {
+        final byte[] data = asByteArray(filename);
+        InputStream stream = new InputStream() {
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                if (position == data.length / 2) {
+                    throw new IOException("Connection reset");
+                }
+                return data[position++] & 0xff;
+            }
+        };
+        try (TestDecode decode = new TestDecode(stream)) {
+            decode.toBytes(ByteBuffer.allocateDirect(
+                (int) (decode.getWidth() * decode.getHeight()
+                    * decode.getBytesPerPixel())));
+            Assert.fail("Decoded a truncated stream.");
+        } catch (Exception e) {
+            Assert.assertTrue(e.getMessage().contains("Connection reset"),
+                              e.getMessage());
+        }
+    }
+
+    /**
+     * Re-encode the given image with several tile columns, so that it is
+     * decoded in parallel bands.
+     */
+    private ByteBuffer encodeTiled(
+        String filename, long width, long height, long bpp)
+            throws IOException, URISyntaxException, DecodeException,
+                   EncodeException {
+        ByteBuffer imageBuffer =
+            ByteBuffer.allocateDirect((int) (width * height * bpp));
+        GUID pixelFormat;
+        try (TestDecode decode = new TestDecode(asByteBuffer(filename))) {
+            decode.toBytes(imageBuffer);
+            pixelFormat = decode.getPixelFormat();
+        }
+        try (Encode encode = new Encode(pixelFormat)) {
+            encode.setTileSize(128, 128);
+            return encode.encode(imageBuffer, (int) width, (int) height);
+        }
+    }
+
+    @Parameters({"filename", "width", "height", "bpp"})
+    @Test
+    public void testChannelThreads(
+        String filename, long width, long height, long bpp)
+            throws IOException, URISyntaxException, DecodeException,
+                   EncodeException {
+        ByteBuffer encoded = encodeTiled(filename, width, height, bpp);
+        ByteBuffer expected =
+            ByteBuffer.allocateDirect((int) (width * height * bpp));
+        Assert.assertTrue(JxrInfo.probe(encoded).getTileColumnCount() > 1);
+        try (TestDecode decode = new TestDecode(encoded)) {
+            decode.toBytes(expected);
+        }
+
+        byte[] data = new byte[encoded.capacity()];
+        encoded.duplicate().get(data);
+        Path file = Files.createTempFile("jxrlib", ".jxr");
+        try {
+            Files.write(file, data);
+            try (final SeekableByteChannel fileChannel =
+                    Files.newByteChannel(file)) {
+                // not a file channel, so that reads move a shared position
+                SeekableByteChannel channel = new SeekableByteChannel() {
+                    @Override
+                    public int read(ByteBuffer dst) throws IOException {
+                        return fileChannel.read(dst);
+                    }
+
+                    @Override
+                    public int write(ByteBuffer src) throws IOException {
+                        throw new IOException("Read only channel.");
+                    }
+
+                    @Override
+                    public long position() throws IOException {
+                        return fileChannel.position();
+                    }
+
+                    @Override
+                    public SeekableByteChannel position(long position)
+                            throws IOException {
+                        fileChannel.position(position);
+                        return this;
+                    }
+
+                    @Override
+                    public long size() throws IOException {
+                        return fileChannel.size();
+                    }
+
+                    @Override
+                    public SeekableByteChannel truncate(long size)
+                            throws IOException {
+                        throw new IOException("Read only channel.");
+                    }
+
+                    @Override
+                    public boolean isOpen() {
+                        return fileChannel.isOpen();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        fileChannel.close();
+                    }
+                };
+                try (TestDecode decode = new TestDecode(channel)) {
+                    // parallel band decoders read from the same channel
+                    ByteBuffer imageBuffer = ByteBuffer.allocateDirect(
+                        (int) (width * height * bpp));
+                    decode.toBytes(imageBuffer, 4);
+                    Assert.assertEquals(md5(imageBuffer), md5(expected));
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Parameters({"filename", "width", "height", "bpp"})
+    @Test
+    public void testInputStreamThreads(
+        String filename, long width, long height, long bpp)
+            throws IOException, URISyntaxException, DecodeException,
+                   EncodeException {
+        ByteBuffer encoded = encodeTiled(filename, width, height, bpp);
+        ByteBuffer expected =
+            ByteBuffer.allocateDirect((int) (width * height * bpp));
+        try (TestDecode decode = new TestDecode(encoded)) {
+            decode.toBytes(expected);
+        }
+
+        byte[] data = new byte[encoded.capacity()];
+        encoded.duplicate().get(data);
+        // the stream is only read forward, so this decodes on one thread
+        try (TestDecode decode =
+                new TestDecode(new ByteArrayInputStream(data))) {
+            ByteBuffer imageBuffer = ByteBuffer.allocateDirect(
+                (int) (width * height * bpp));
+            decode.toBytes(imageBuffer, 4);
+            Assert.assertEquals(md5(imageBuffer), md5(expected));
+        }
+    }
+}
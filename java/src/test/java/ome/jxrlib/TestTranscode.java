@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016-2020 Glencoe Software, Inc. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.jxrlib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+
+public class TestTranscode extends AbstractTest {
+
+    /**
+     * Check the page of a TIFF at the given image file directory against
+     * the given pixels, which TIFF holds as RGB rather than BGR.
+     *
+     * @return offset of the next image file directory, or 0 if none
+     */
+    int assertTiffPage(ByteBuffer tiff, int ifd, long width, long height,
+                       long bpp, ByteBuffer pixels) {
+        Assert.assertEquals(ifd % 2, 0);
+        int entries = tiff.getShort(ifd) & 0xffff;
+        Map<Integer, Integer> values = new HashMap<Integer, Integer>();
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            int tag = tiff.getShort(entry) & 0xffff;
+            int type = tiff.getShort(entry + 2);
+            values.put(tag, type == 3 ? tiff.getShort(entry + 8) & 0xffff
+                                      : tiff.getInt(entry + 8));
+        }
+        Assert.assertEquals(values.get(0x100).longValue(), width);
+        Assert.assertEquals(values.get(0x101).longValue(), height);
+        Assert.assertEquals(values.get(0x117).longValue(), pixels.capacity());
+
+        byte[] expected = new byte[pixels.capacity()];
+        pixels.rewind();
+        pixels.get(expected);
+        pixels.rewind();
+        if (bpp == 3) {
+            for (int i = 0; i < expected.length; i += 3) {
+                byte blue = expected[i];
+                expected[i] = expected[i + 2];
+                expected[i + 2] = blue;
+            }
+        }
+        byte[] actual = new byte[expected.length];
+        ByteBuffer strip = tiff.duplicate();
+        strip.position(values.get(0x111));
+        strip.get(actual);
+        Assert.assertEquals(actual, expected);
+        return tiff.getInt(ifd + 2 + entries * 12);
+    }
+
+    @Parameters({"filename", "width", "height", "bpp"})
+    @Test
+    public void testTranscode(
+        String filename, long width, long height, long bpp)
+            throws IOException, URISyntaxException, DecodeException,
+                   EncodeException {
+        ByteBuffer imageBuffer =
+            ByteBuffer.allocateDirect((int) (width * height * bpp));
+        ByteBuffer regionBuffer = ByteBuffer.allocateDirect((int) (32 * bpp));
+        GUID pixelFormat;
+        try (TestDecode decode = new TestDecode(asByteBuffer(filename))) {
+            decode.toBytes(imageBuffer);
+            decode.toBytes(0, 0, 8, 4, regionBuffer);
+            pixelFormat = decode.getPixelFormat();
+
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            long size = decode.transcode("tif", Channels.newChannel(stream));
+            Assert.assertEquals(size, stream.size());
+            ByteBuffer tiff = ByteBuffer.wrap(stream.toByteArray())
+                .order(ByteOrder.LITTLE_ENDIAN);
+            Assert.assertEquals(tiff.getShort(0), 0x4949);
+            Assert.assertEquals(tiff.getShort(2), 42);
+            Assert.assertEquals(assertTiffPage(tiff, tiff.getInt(4),
+                                               width, height, bpp,
+                                               imageBuffer), 0);
+
+            ByteBuffer direct = ByteBuffer.allocateDirect((int) size);
+            Assert.assertEquals(decode.transcode("TIFF", direct), size);
+            Assert.assertEquals(direct, tiff);
+
+            // the selected region is written to formats with one frame
+            decode.setRegion(0, 0, 8, 4);
+            ByteBuffer pnm = ByteBuffer.allocateDirect(1024);
+            int pnmSize = decode.transcode("pnm", pnm);
+            byte[] header = new byte[(int) (pnmSize - 32 * bpp)];
+            pnm.get(header);
+            Assert.assertTrue(new String(header, StandardCharsets.US_ASCII)
+                              .contains("\n8 4\n"));
+        }
+
+        // every frame is written as a page of a TIFF
+        ByteBuffer chained;
+        try (Encode encode = new Encode(pixelFormat)) {
+            ByteBuffer image =
+                encode.encode(imageBuffer, (int) width, (int) height);
+            ByteBuffer region = encode.encode(regionBuffer, 8, 4);
+            chained = chainFrames(image, region, image);
+        }
+        try (TestDecode decode = new TestDecode(chained)) {
+            decode.selectFrame(1);
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            decode.transcode("tif", Channels.newChannel(stream));
+            Assert.assertEquals(decode.getFrame(), 1);
+            ByteBuffer tiff = ByteBuffer.wrap(stream.toByteArray())
+                .order(ByteOrder.LITTLE_ENDIAN);
+            int ifd = assertTiffPage(tiff, tiff.getInt(4),
+                                     width, height, bpp, imageBuffer);
+            ifd = assertTiffPage(tiff, ifd, 8, 4, bpp, regionBuffer);
+            ifd = assertTiffPage(tiff, ifd, width, height, bpp, imageBuffer);
+            Assert.assertEquals(ifd, 0);
+        }
+    }
+
+    @Parameters({"filename", "width", "height", "bpp", "md5"})
+    @Test
+    public void testBitstreamTranscode(
+        String filename, long width, long height, long bpp, String md5)
+            throws IOException, URISyntaxException, DecodeException,
+                   TranscodeException {
+        ByteBuffer dataBuffer = asByteBuffer(filename);
+        ByteBuffer regionBuffer = ByteBuffer.allocateDirect((int) (512 * bpp));
+        try (TestDecode decode = new TestDecode(dataBuffer)) {
+            decode.toBytes(16, 16, 32, 16, regionBuffer);
+        }
+        String regionMd5 = md5(regionBuffer);
+
+        try (Transcode transcode = new Transcode()) {
+            ByteBuffer transcoded = transcode.transcode(dataBuffer);
+            try (TestDecode decode = new TestDecode(transcoded)) {
+                assertDecode(decode, width, height, bpp, md5);
+            }
+            ByteBuffer output =
+                ByteBuffer.allocateDirect(transcoded.capacity());
+            Assert.assertEquals(transcode.transcode(dataBuffer, output),
+                                transcoded.capacity());
+            Assert.assertEquals(output, transcoded);
+
+            // crops are exact, even off macroblock boundaries
+            transcode.setRegion(16, 16, 32, 16);
+            try (TestDecode decode =
+                    new TestDecode(transcode.transcode(dataBuffer))) {
+                assertDecode(decode, 32, 16, bpp, regionMd5);
+            }
+
+            transcode.setOrientation(Orientation.ROTATE_90);
+            try (TestDecode decode =
+                    new TestDecode(transcode.transcode(dataBuffer))) {
+                Assert.assertEquals(decode.getWidth(), 16);
+                Assert.assertEquals(decode.getHeight(), 32);
+            }
+
+            transcode.clearRegion();
+            transcode.setOrientation(Orientation.NONE);
+            transcode.setSubband(Subband.DC_ONLY);
+            ByteBuffer reduced = transcode.transcode(dataBuffer);
+            Assert.assertTrue(reduced.capacity() < transcoded.capacity());
+            try (TestDecode decode = new TestDecode(reduced)) {
+                Assert.assertEquals(decode.getWidth(), width);
+                Assert.assertEquals(decode.getHeight(), height);
+            }
+        }
+    }
+
+    @Parameters({"filename", "width", "height"})
+    @Test(expectedExceptions={TranscodeException.class})
+    public void testBitstreamTranscodeInvalidRegion(
+        String filename, long width, long height)
+            throws IOException, URISyntaxException, TranscodeException {
+        try (Transcode transcode = new Transcode()) {
+            transcode.setRegion(0, 0, (int) width + 1, (int) height);
+            transcode.transcode(asByteBuffer(filename));
+        }
+    }
+
+    @Parameters({"filename"})
+    @Test(expectedExceptions={DecodeException.class})
+    public void testTranscodeOutputTooSmall(String filename)
+            throws IOException, URISyntaxException, DecodeException {
+        try (TestDecode decode = new TestDecode(asByteBuffer(filename))) {
+            decode.transcode("tif", ByteBuffer.allocateDirect(16));
+        }
+    }
+
+    @Parameters({"filename"})
+    @Test(expectedExceptions={DecodeException.class})
+    public void testTranscodeInvalidFormat(String filename)
+            throws IOException, URISyntaxException, DecodeException {
+        try (TestDecode decode = new TestDecode(asByteBuffer(filename))) {
+            decode.transcode("jpg", ByteBuffer.allocateDirect(16));
+        }
+    }
+
+    @Parameters({"filename"})
+    @Test(expectedExceptions={UncheckedDecodeException.class})
+    public void testToFileInvalidFormat(String filename)
+            throws IOException, URISyntaxException, DecodeException {
+        Path output = Files.createTempFile("jxrlib", ".jpg");
+        try (TestDecode decode = new TestDecode(asByteBuffer(filename))) {
+            decode.toFile(output.toFile());
+        } finally {
+            Files.delete(output);
+        }
+    }
+}
@@ -464,6 +464,8 @@ typedef struct tagPKImageEncode
         struct WMPStream   *pPATempFile;
     } WMP;
 
+    size_t offNextIFD;  // TIF: offset of the next IFD offset of the last IFD
+
 #ifdef __ANSI__
 #undef PKImageEncode
 #endif // __ANSI__
@@ -566,6 +568,8 @@ typedef struct tagPKImageDecode
 
 //----------------------------------------------------------------
 ERR PKImageDecode_Create_WMP(PKImageDecode** ppID);
+ERR PKImageDecode_Reinitialize_WMP(PKImageDecode* pID, struct WMPStream* pStream);
+ERR PKImageDecode_SelectPFD_WMP(PKImageDecode* pID, size_t offPFD);
 
 ERR PKImageDecode_Initialize(PKImageDecode* pID, struct WMPStream* pStream);
 ERR PKImageDecode_GetPixelFormat(PKImageDecode* pID, PKPixelFormatGUID* pPF);
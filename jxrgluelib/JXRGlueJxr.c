@@ -27,6 +27,7 @@
 //
 //*@@@---@@@@******************************************************************
 #include <limits.h>
+#include <stddef.h>
 #include <JXRGlue.h>
 
 
@@ -1376,10 +1377,19 @@ ERR PKImageEncode_Transcode_WMP(
     Call(pID->GetPixelFormat(pID, &pixGUID));
     Call(pIE->SetPixelFormat(pIE, pixGUID));
 
-    Call(pIE->SetSize(pIE, (I32)pParam->cWidth, (I32)pParam->cHeight));
-
     Call(pID->GetResolution(pID, &fResX, &fResY));
-    Call(pIE->SetResolution(pIE, fResX, fResY));
+
+    // rotation transposes the transcoded region
+    if (pParam->oOrientation >= O_RCW)
+    {
+        Call(pIE->SetSize(pIE, (I32)pParam->cHeight, (I32)pParam->cWidth));
+        Call(pIE->SetResolution(pIE, fResY, fResX));
+    }
+    else
+    {
+        Call(pIE->SetSize(pIE, (I32)pParam->cWidth, (I32)pParam->cHeight));
+        Call(pIE->SetResolution(pIE, fResX, fResY));
+    }
 
     PI.pGUIDPixFmt = &pIE->guidPixFormat;
     PixelFormatLookup(&PI, LOOKUP_FORWARD);
@@ -1783,6 +1793,27 @@ Cleanup:
     return err;
 }
 
+ERR ReadPFD(
+    PKImageDecode* pID,
+    size_t offPFD)
+{
+    ERR err = WMP_errSuccess;
+
+    struct WMPStream* pWS = pID->pStream;
+    size_t offPos = offPFD;
+    U16 cPFDEntry = 0;
+
+    Call(GetUShort(pWS, offPos, &cPFDEntry)); offPos += 2;
+    FailIf(0 == cPFDEntry || USHRT_MAX == cPFDEntry, WMP_errUnsupportedFormat);
+    Call(ParsePFD(pID, offPos, cPFDEntry));
+
+    //================================
+    Call(pWS->SetPos(pWS, pID->WMP.wmiDEMisc.uImageOffset));
+
+Cleanup:
+    return err;
+}
+
 ERR ReadContainer(
     PKImageDecode* pID)
 {
@@ -1794,7 +1825,6 @@ ERR ReadContainer(
     char szSig[2] = {0};
     U16 uWmpID = 0;
     U32 offPFD = 0;
-    U16 cPFDEntry = 0;
     U8 bVersion;
     
     //================================
@@ -1804,7 +1834,7 @@ ERR ReadContainer(
     //================================
     // Header
     Call(pWS->Read(pWS, szSig, sizeof(szSig))); offPos += 2;
-    FailIf(szSig != strstr(szSig, "II"), WMP_errUnsupportedFormat);
+    FailIf('I' != szSig[0] || 'I' != szSig[1], WMP_errUnsupportedFormat);
 
     Call(GetUShort(pWS, offPos, &uWmpID)); offPos += 2;
     FailIf(WMP_valWMPhotoID != (0x00FF & uWmpID), WMP_errUnsupportedFormat);
@@ -1817,13 +1847,7 @@ ERR ReadContainer(
 
     //================================
     // PFD
-    offPos = (size_t)offPFD;
-    Call(GetUShort(pWS, offPos, &cPFDEntry)); offPos += 2;
-    FailIf(0 == cPFDEntry || USHRT_MAX == cPFDEntry, WMP_errUnsupportedFormat);
-    Call(ParsePFD(pID, offPos, cPFDEntry));
-
-    //================================
-    Call(pWS->SetPos(pWS, pID->WMP.wmiDEMisc.uImageOffset));
+    Call(ReadPFD(pID, (size_t)offPFD));
 
 Cleanup:
     return err;
@@ -1831,22 +1855,15 @@ Cleanup:
 
 
 //================================================
-ERR PKImageDecode_Initialize_WMP(
-    PKImageDecode* pID,
-    struct WMPStream* pWS)
+ERR InitializeImageInfo(
+    PKImageDecode* pID)
 {
     ERR err = WMP_errSuccess;
 
     CWMImageInfo* pII = NULL;
 
     //================================
-    Call(PKImageDecode_Initialize(pID, pWS));
-
-    //================================
-    Call(ReadContainer(pID));
-
-    //================================
-    pID->WMP.wmiSCP.pWStream = pWS;
+    pID->WMP.wmiSCP.pWStream = pID->pStream;
     pID->WMP.DecoderCurrMBRow = 0;
     pID->WMP.cLinesDecoded = 0;
     pID->WMP.cLinesCropped = 0;
@@ -1877,6 +1894,92 @@ Cleanup:
     return err;
 }
 
+//================================================
+static Void ReleaseDescMetadata(PKImageDecode* pID)
+{
+    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarImageDescription);
+    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarCameraMake);
+    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarCameraModel);
+    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarSoftware);
+    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarDateTime);
+    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarArtist);
+    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarCopyright);
+    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarRatingStars);
+    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarRatingValue);
+    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarCaption);
+    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarDocumentName);
+    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarPageName);
+    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarPageNumber);
+    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarHostComputer);
+}
+
+//================================================
+ERR PKImageDecode_Initialize_WMP(
+    PKImageDecode* pID,
+    struct WMPStream* pWS)
+{
+    ERR err = WMP_errSuccess;
+
+    //================================
+    Call(PKImageDecode_Initialize(pID, pWS));
+
+    //================================
+    Call(ReadContainer(pID));
+    Call(InitializeImageInfo(pID));
+
+Cleanup:
+    return err;
+}
+
+//================================================
+ERR PKImageDecode_Reinitialize_WMP(
+    PKImageDecode* pID,
+    struct WMPStream* pWS)
+{
+    ERR err = WMP_errSuccess;
+
+    // release what was left from the previous data, keeping the decode
+    // functions and the working memory referenced by the codec parameters
+    FailIf(ICERR_OK != ImageStrDecTerm(pID->WMP.ctxSC), WMP_errFail);
+    FailIf(ICERR_OK != ImageStrDecTerm(pID->WMP.ctxSC_Alpha), WMP_errFail);
+    ReleaseDescMetadata(pID);
+    pID->fStreamOwner && pID->pStream->Close(&pID->pStream);
+    memset(&pID->pStream, 0, sizeof(*pID) - offsetof(PKImageDecode, pStream));
+
+    Call(pID->Initialize(pID, pWS));
+
+Cleanup:
+    return err;
+}
+
+//================================================
+// Re-initialize the decoder with the image described by the PFD at the
+// given offset, for containers that chain the PFDs of several images
+ERR PKImageDecode_SelectPFD_WMP(
+    PKImageDecode* pID,
+    size_t offPFD)
+{
+    ERR err = WMP_errSuccess;
+
+    ReleaseDescMetadata(pID);
+
+    // reset everything the previous PFD and image header set
+    pID->guidPixFormat = GUID_PKPixelFormatDontCare;
+    pID->fResX = 96;
+    pID->fResY = 96;
+    memset(&pID->WMP.wmiDEMisc, 0, sizeof(pID->WMP.wmiDEMisc));
+    memset(&pID->WMP.wmiI, 0, sizeof(pID->WMP.wmiI));
+    memset(&pID->WMP.wmiSCP, 0, sizeof(pID->WMP.wmiSCP));
+    pID->WMP.bHasAlpha = FALSE;
+    pID->WMP.fOrientationFromContainer = FALSE;
+
+    Call(ReadPFD(pID, offPFD));
+    Call(InitializeImageInfo(pID));
+
+Cleanup:
+    return err;
+}
+
 
 ERR PKImageDecode_GetSize_WMP(
     PKImageDecode* pID,
@@ -2047,6 +2150,7 @@ ERR PKImageDecode_Copy_WMP(
         // If we're past the top of the image, then we're done, so terminate.
         if (linesperMBRow * (cMBRow - 1) >= (U32) pID->WMP.cLinesCropped + pID->WMP.wmiI.cROIHeight) {
             FailIf(ICERR_OK != ImageStrDecTerm(pID->WMP.ctxSC), WMP_errFail);        
+            pID->WMP.ctxSC = NULL;
         }
         pID->WMP.DecoderCurrMBRow = cMBRow; // Set to next possible MBRow that is decodable
 
@@ -2129,6 +2233,7 @@ ERR PKImageDecode_Copy_WMP(
         // If we're past the top of the image, then we're done, so terminate
         if (linesperMBRow * (cMBRow - 1) >= (U32) pID->WMP.cLinesCropped + pID->WMP.wmiI.cROIHeight) {
             FailIf(ICERR_OK != ImageStrDecTerm(pID->WMP.ctxSC_Alpha), WMP_errFail);
+            pID->WMP.ctxSC_Alpha = NULL;
         }
         pID->WMP.DecoderCurrAlphaMBRow = cMBRow; // Set to next possible MBRow that is decodable
         wmiBI.pv = pb;
@@ -2234,20 +2339,7 @@ ERR PKImageDecode_Release_WMP(PKImageDecode** ppID)
     pID = *ppID;
 
     // Free descriptive metadata
-    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarImageDescription);
-    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarCameraMake);
-    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarCameraModel);
-    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarSoftware);
-    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarDateTime);
-    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarArtist);
-    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarCopyright);
-    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarRatingStars);
-    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarRatingValue);
-    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarCaption);
-    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarDocumentName);
-    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarPageName);
-    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarPageNumber);
-    FreeDescMetadata(&pID->WMP.sDescMetadata.pvarHostComputer);
+    ReleaseDescMetadata(pID);
 
     // Release base class
     Call(PKImageDecode_Release(ppID));
@@ -2211,6 +2211,9 @@ ERR PKFormatConverter_InitializeConvert(PKFormatConverter* pFC, const PKPixelFor
 
     //================================
     pFC->enPixelFormat = enPFTo;
+    // no conversion unless one is found below; a converter may be
+    // initialized again for another frame
+    pFC->Convert = PKFormatConverter_Convert;
 
     if (pExt != NULL && IsEqualGUID(&enPFTo, &GUID_PKPixelFormat24bppRGB) &&
         0 == PKStrnicmp(pExt, ".bmp", strlen(pExt)))
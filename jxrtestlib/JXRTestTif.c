@@ -219,13 +219,19 @@ ERR WriteTifHeader(
     tifDEMisc.resYF = (U32)(pIE->fResY * 10000);
 
     Call(pS->GetPos(pS, &offPos));
-    FailIf(0 != offPos, WMP_errUnsupportedFormat);
 
     //================
-    // TifHeader
-    Call(pS->Write(pS, IIMM, 2)); offPos += 2;
-    Call(PutTifUShort(pS, offPos, 42)); offPos += 2;
-    Call(PutTifULong(pS, offPos, (U32)(offPos + 4))); offPos += 4;
+    // TifHeader, written before the IFD of the first frame only; the IFD
+    // of any further frame is linked from the previous IFD by
+    // PKImageEncode_CreateNewFrame_TIF
+    if (0 == pIE->offNextIFD)
+    {
+        FailIf(0 != offPos, WMP_errUnsupportedFormat);
+
+        Call(pS->Write(pS, IIMM, 2)); offPos += 2;
+        Call(PutTifUShort(pS, offPos, 42)); offPos += 2;
+        Call(PutTifULong(pS, offPos, (U32)(offPos + 4))); offPos += 4;
+    }
 
     //================
     // TifDEMisc
@@ -344,6 +350,7 @@ ERR WriteTifHeader(
     Call(WriteTifDE(pS, offPos, &tifDE)); offPos += 12;
 
     //================
+    pIE->offNextIFD = offPos;
     Call(PutTifULong(pS, offPos, 0)); offPos += 4;
 
     //================
@@ -432,6 +439,45 @@ Cleanup:
     return err;
 }
 
+ERR PKImageEncode_CreateNewFrame_TIF(
+    PKImageEncode* pIE,
+    void* pvParam,
+    size_t cbParam)
+{
+    ERR err = WMP_errSuccess;
+
+    struct WMPStream* pS = pIE->pStream;
+    PKPixelInfo PI;
+    size_t cbLine = 0;
+    size_t offPos = 0;
+
+    UNREFERENCED_PARAMETER( pvParam );
+    UNREFERENCED_PARAMETER( cbParam );
+
+    FailIf(!pIE->fHeaderDone || pIE->idxCurrentLine < pIE->uHeight, WMP_errOutOfSequence);
+
+    // the IFD of the next frame follows the pixels of this one on a word
+    // boundary, as TIFF requires
+    PI.pGUIDPixFmt = &pIE->guidPixFormat;
+    PixelFormatLookup(&PI, LOOKUP_FORWARD);
+
+    cbLine = (BD_1 == PI.bdBitDepth ? ((PI.cbitUnit * pIE->uWidth + 7) >> 3) : (((PI.cbitUnit + 7) >> 3) * pIE->uWidth)); 
+
+    offPos = pIE->offPixel + cbLine * pIE->uHeight;
+    offPos += offPos & 1;
+    FailIf(offPos > (U32) -1, WMP_errBufferOverflow);
+
+    Call(PutTifULong(pS, pIE->offNextIFD, (U32)offPos));
+    Call(pS->SetPos(pS, offPos));
+
+    pIE->fHeaderDone = FALSE;
+    pIE->idxCurrentLine = 0;
+    pIE->cFrame++;
+
+Cleanup:
+    return err;
+}
+
 ERR PKImageEncode_Create_TIF(PKImageEncode** ppIE)
 {
     ERR err = WMP_errSuccess;
@@ -442,6 +488,7 @@ ERR PKImageEncode_Create_TIF(PKImageEncode** ppIE)
 
     pIE = *ppIE;
     pIE->WritePixels = PKImageEncode_WritePixels_TIF;
+    pIE->CreateNewFrame = PKImageEncode_CreateNewFrame_TIF;
 
 Cleanup:
     return err;